@@ -1,7 +1,13 @@
 package mcworldinspector;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.swing.GroupLayout;
@@ -11,6 +17,7 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.event.DocumentEvent;
+import mcworldinspector.utils.AsyncExecution;
 import mcworldinspector.utils.DocumentChangedListener;
 import mcworldinspector.utils.SimpleListModel;
 
@@ -26,6 +33,11 @@ public abstract class AbstractFilteredPanel<T> extends JPanel implements MCWorld
     protected final GroupLayout layout;
     protected final GroupLayout.ParallelGroup horizontal;
     protected final GroupLayout.SequentialGroup vertical;
+    private List<T> pendingSelection;
+    private List<XZPosition> changedChunks;
+    private final HashMap<XZPosition, List<T>> chunkEntries = new HashMap<>();
+    private final HashMap<T, Integer> entryCounts = new HashMap<>();
+    private World countedWorld;
     
     @SuppressWarnings("OverridableMethodCallInConstructor")
     public AbstractFilteredPanel() {
@@ -63,7 +75,13 @@ public abstract class AbstractFilteredPanel<T> extends JPanel implements MCWorld
 
     protected void buildListModel() {
         String filter = filterTF.getText();
-        list.setModel(new SimpleListModel<>(filteredList(filter)));
+        final List<T> items = filteredList(filter);
+        list.setModel(new SimpleListModel<>(items));
+        if(pendingSelection != null) {
+            list.setSelectedIndices(pendingSelection.stream()
+                    .mapToInt(items::indexOf).filter(idx -> idx >= 0).toArray());
+            pendingSelection = null;
+        }
     }
 
     @Override
@@ -75,6 +93,11 @@ public abstract class AbstractFilteredPanel<T> extends JPanel implements MCWorld
     public void reset() {
         world = null;
         renderer = null;
+        synchronized(entryCounts) {
+            countedWorld = null;
+            chunkEntries.clear();
+            entryCounts.clear();
+        }
         buildListModel();
     }
 
@@ -84,6 +107,91 @@ public abstract class AbstractFilteredPanel<T> extends JPanel implements MCWorld
         this.renderer = renderer;
     }
 
+    /**
+     * Updates the list after a reload and keeps the selected entries which
+     * are still part of it. Only the changed chunks are looked at unless
+     * the changes carry no chunks, like the updates while loading, or
+     * level.dat was changed.
+     */
+    @Override
+    public void worldChanged(World.Reloaded changes) {
+        if(world == null)
+            return;
+        pendingSelection = list.getSelectedValuesList();
+        changedChunks = (changes.getChunks().isEmpty() || changes.isLevelChanged())
+                ? null : changes.getChunks();
+        try {
+            updateList();
+        } finally {
+            changedChunks = null;
+        }
+    }
+
+    /**
+     * Builds the list from the entries of each chunk summary.
+     */
+    protected void updateListFromSummaries(Executor executor,
+            Function<ChunkSummary, Stream<T>> entries, Consumer<TreeSet<T>> done) {
+        final World w = world;
+        updateList(executor, w::summaries, pos -> w.getSummary(pos.x, pos.z), entries, done);
+    }
+
+    /**
+     * Builds the list from the entries of each chunk.
+     */
+    protected void updateListFromChunks(Executor executor,
+            Function<Chunk, Stream<T>> entries, Consumer<TreeSet<T>> done) {
+        final World w = world;
+        updateList(executor, w::chunks, pos -> w.getChunk(pos.x, pos.z), entries, done);
+    }
+
+    /**
+     * Counts the number of chunks which contain each list entry and passes
+     * the entries to done on the EDT. After a reload only the entries of the
+     * changed chunks are removed and added again.
+     */
+    private <S extends XZPosition> void updateList(Executor executor, Supplier<Stream<S>> all,
+            Function<XZPosition, S> one, Function<S, Stream<T>> entries,
+            Consumer<TreeSet<T>> done) {
+        final World w = world;
+        final List<XZPosition> changed = changedChunks;
+        AsyncExecution.submitNoThrow(executor, () -> {
+            synchronized(entryCounts) {
+                if(changed == null || countedWorld != w) {
+                    countedWorld = w;
+                    chunkEntries.clear();
+                    entryCounts.clear();
+                    all.get().forEach(source -> addEntries(
+                            source, entries.apply(source)));
+                } else {
+                    for(XZPosition pos : changed) {
+                        removeEntries(pos);
+                        final S source = one.apply(pos);
+                        if(source != null)
+                            addEntries(pos, entries.apply(source));
+                    }
+                }
+                return new TreeSet<>(entryCounts.keySet());
+            }
+        }, done);
+    }
+
+    private void addEntries(XZPosition pos, Stream<T> entries) {
+        final List<T> list = entries.distinct().collect(Collectors.toList());
+        if(list.isEmpty())
+            return;
+        chunkEntries.put(new XZPosition(pos.x, pos.z), list);
+        list.forEach(e -> entryCounts.merge(e, 1, Integer::sum));
+    }
+
+    private void removeEntries(XZPosition pos) {
+        final List<T> list = chunkEntries.remove(pos);
+        if(list != null)
+            list.forEach(e -> entryCounts.computeIfPresent(e,
+                    (k, count) -> (count > 1) ? count - 1 : null));
+    }
+
+    protected abstract void updateList();
     protected abstract List<T> filteredList(String filter);
     protected abstract Stream<? extends WorldRenderer.HighlightEntry> createHighlighter(List<T> selected);
     
@@ -0,0 +1,313 @@
+package mcworldinspector;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import mcworldinspector.nbt.NBTDoubleArray;
+import mcworldinspector.nbt.NBTTagCompound;
+import mcworldinspector.utils.FileError;
+import org.json.JSONException;
+import org.json.JSONWriter;
+
+/**
+ * Headless entry point which loads a world without starting the UI and
+ * streams the results of one or more queries to stdout.
+ *
+ * <pre>
+ * java -cp MCWorldInspector.jar mcworldinspector.BatchQuery [options] &lt;region folder&gt; &lt;query&gt;...
+ *   --format csv|json    output format, json writes one object per line
+ *   --lazy               decode chunks on demand
+ *   --off-heap           store block data off-heap, only without --lazy
+ *   --read-strategy S    one of SECTORS, MMAP, COALESCED
+ * query: blocks|entities|tile-entities|structures|items:&lt;id&gt;[,&lt;id&gt;...]
+ *   block ids can be patterns like minecraft:chest[facing=north|south]
+ * </pre>
+ *
+ * @author matthias
+ */
+public class BatchQuery {
+
+    public static class Row {
+        public final Kind kind;
+        public final String id;
+        public final Number x;
+        public final Number y;
+        public final Number z;
+        public final int count;
+        public final String detail;
+
+        public Row(Kind kind, String id, Number x, Number y, Number z, int count, String detail) {
+            this.kind = kind;
+            this.id = id;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.count = count;
+            this.detail = detail;
+        }
+    }
+
+    public static enum Kind {
+        BLOCKS("blocks", Chunk.Part.BLOCKS) {
+            @Override
+            public Stream<Row> query(World world, Chunk chunk, List<String> ids) {
+                final int x = chunk.x << 4;
+                final int z = chunk.z << 4;
+                final FoundBlocks found = new FoundBlocks();
+                chunk.subChunks().forEachOrdered(sc -> sc.findBlocks(ids,
+                        new BlockPos(x, sc.getGlobalY(), z), found));
+                return IntStream.range(0, found.size()).mapToObj(idx -> {
+                    final var state = found.getBlockState(idx);
+                    return new Row(this, state.name,
+                            found.getX(idx), found.getY(idx), found.getZ(idx), 1,
+                            state.toString());
+                });
+            }
+        },
+        ENTITIES("entities", Chunk.Part.ENTITIES) {
+            @Override
+            public Stream<Row> query(World world, Chunk chunk, List<String> ids) {
+                return chunk.entities().filter(Chunk.filterByID(ids)).map(e -> {
+                    final var pos = e.get("Pos", NBTDoubleArray.class);
+                    final boolean hasPos = pos != null && pos.size() == 3;
+                    return new Row(this, e.getString("id"),
+                            hasPos ? pos.getDouble(0) : null,
+                            hasPos ? pos.getDouble(1) : null,
+                            hasPos ? pos.getDouble(2) : null,
+                            1, e.getString("CustomName"));
+                });
+            }
+        },
+        TILE_ENTITIES("tile-entities", Chunk.Part.TILE_ENTITIES) {
+            @Override
+            public Stream<Row> query(World world, Chunk chunk, List<String> ids) {
+                return chunk.tileEntities().filter(Chunk.filterByID(ids))
+                        .map(te -> tileEntityRow(this, te.getString("id"), te, 1, null));
+            }
+        },
+        STRUCTURES("structures", Chunk.Part.STRUCTURES) {
+            @Override
+            public Stream<Row> query(World world, Chunk chunk, List<String> ids) {
+                return chunk.structures().filter(Chunk.filterByID(ids)).map(s -> {
+                    final var bb = StructureTypesPanel.getBoundingBox(s);
+                    if(bb == null || bb.size() != 6)
+                        return new Row(this, s.getString("id"),
+                                chunk.x << 4, null, chunk.z << 4, 1, null);
+                    return new Row(this, s.getString("id"),
+                            bb.getInt(0), bb.getInt(1), bb.getInt(2), 1,
+                            "to " + bb.getInt(3) + " " + bb.getInt(4) + " " + bb.getInt(5));
+                });
+            }
+        },
+        ITEMS("items", Chunk.Part.TILE_ENTITIES) {
+            @Override
+            public Stream<Row> query(World world, Chunk chunk, List<String> ids) {
+                return chunk.tileEntities().flatMap(te -> MCItem.getChestContent(te)
+                        .filter(item -> ids.contains(item.id))
+                        .map(item -> tileEntityRow(this, item.id, te,
+                                item.count, te.getString("id"))));
+            }
+        };
+
+        public final String name;
+        /** the part of a chunk which the query reads */
+        public final Chunk.Part part;
+
+        private Kind(String name, Chunk.Part part) {
+            this.name = name;
+            this.part = part;
+        }
+
+        public abstract Stream<Row> query(World world, Chunk chunk, List<String> ids);
+
+        public static Kind of(String name) {
+            return Stream.of(values()).filter(k -> k.name.equals(name))
+                    .findFirst().orElseThrow(() -> new IllegalArgumentException(
+                            "Unknown query type: " + name));
+        }
+    }
+
+    private static Row tileEntityRow(Kind kind, String id, NBTTagCompound te, int count, String detail) {
+        return new Row(kind, id, te.get("x", Integer.class),
+                te.get("y", Integer.class), te.get("z", Integer.class),
+                count, detail);
+    }
+
+    public static class Query {
+        public final Kind kind;
+        public final List<String> ids;
+
+        public Query(Kind kind, List<String> ids) {
+            this.kind = kind;
+            this.ids = ids;
+        }
+
+        public static Query parse(String query) {
+            final int colon = query.indexOf(':');
+            if(colon <= 0 || colon == query.length() - 1)
+                throw new IllegalArgumentException("Invalid query: " + query);
+            return new Query(Kind.of(query.substring(0, colon)),
+                    BlockStateQuery.split(query.substring(colon + 1)));
+        }
+
+        public Stream<Row> query(World world, Chunk chunk) {
+            return kind.query(world, chunk, ids);
+        }
+    }
+
+    public static enum Format {
+        CSV {
+            @Override
+            public String header() {
+                return "type,id,x,y,z,count,detail";
+            }
+
+            @Override
+            public String format(Row row) {
+                final StringBuilder sb = new StringBuilder();
+                sb.append(row.kind.name).append(',');
+                appendCSV(sb, row.id).append(',');
+                appendCSV(sb, row.x).append(',');
+                appendCSV(sb, row.y).append(',');
+                appendCSV(sb, row.z).append(',');
+                sb.append(row.count).append(',');
+                return appendCSV(sb, row.detail).toString();
+            }
+        },
+        JSON {
+            @Override
+            public String header() {
+                return null;
+            }
+
+            @Override
+            public String format(Row row) {
+                final StringBuilder sb = new StringBuilder();
+                try {
+                    final var w = new JSONWriter(sb).object()
+                            .key("type").value(row.kind.name)
+                            .key("id").value(row.id)
+                            .key("x").value(row.x)
+                            .key("y").value(row.y)
+                            .key("z").value(row.z)
+                            .key("count").value(row.count);
+                    if(row.detail != null)
+                        w.key("detail").value(row.detail);
+                    w.endObject();
+                } catch(JSONException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                return sb.toString();
+            }
+        };
+
+        public abstract String header();
+        public abstract String format(Row row);
+    }
+
+    private static StringBuilder appendCSV(StringBuilder sb, Object value) {
+        if(value == null)
+            return sb;
+        final String s = value.toString();
+        if(s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0)
+            return sb.append(s);
+        return sb.append('"').append(s.replace("\"", "\"\"")).append('"');
+    }
+
+    private static void usage() {
+        System.err.println("Usage: BatchQuery [--format csv|json] [--lazy] [--off-heap] [--read-strategy SECTORS|MMAP|COALESCED]");
+        System.err.println("                  <region folder> <type>:<id>[,<id>...]...");
+        System.err.println("  type is one of blocks, entities, tile-entities, structures, items");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+        Format format = Format.CSV;
+        boolean lazy = false;
+        boolean offHeap = false;
+        RegionFile.ReadStrategy readStrategy = RegionFile.ReadStrategy.SECTORS;
+        File folder = null;
+        final ArrayList<Query> queries = new ArrayList<>();
+        try {
+            for(int idx=0 ; idx<args.length ; idx++) {
+                switch (args[idx]) {
+                    case "--format":
+                        format = Format.valueOf(args[++idx].toUpperCase(Locale.ROOT));
+                        break;
+                    case "--lazy":
+                        lazy = true;
+                        break;
+                    case "--off-heap":
+                        offHeap = true;
+                        break;
+                    case "--read-strategy":
+                        readStrategy = RegionFile.ReadStrategy.valueOf(args[++idx].toUpperCase(Locale.ROOT));
+                        break;
+                    default:
+                        if(folder == null)
+                            folder = new File(args[idx]);
+                        else
+                            queries.add(Query.parse(args[idx]));
+                }
+            }
+        } catch(IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            System.err.println(ex.getMessage());
+            usage();
+        }
+        if(folder == null || queries.isEmpty())
+            usage();
+
+        final var result = new Object() {
+            World world;
+            List<FileError> errors;
+        };
+        final CountDownLatch loaded = new CountDownLatch(1);
+        final ExecutorService completion = Executors.newSingleThreadExecutor(
+                r -> new Thread(r, "World loading callbacks"));
+        final World.AsyncLoading loading = new World.AsyncLoading((world, errors) -> {
+            result.world = world;
+            result.errors = errors;
+            loaded.countDown();
+        }, completion);
+        loading.setLazy(lazy);
+        loading.setOffHeap(offHeap);
+        loading.setReadStrategy(readStrategy);
+        final EnumSet<Chunk.Part> parts = EnumSet.noneOf(Chunk.Part.class);
+        queries.forEach(q -> parts.add(q.kind.part));
+        loading.setProjection(Chunk.projection(parts));
+        if(!loading.start(folder)) {
+            System.err.println("No region files found in " + folder);
+            System.exit(1);
+        }
+        loaded.await();
+        completion.shutdown();
+        result.errors.forEach(e -> System.err.println(e));
+
+        final PrintStream out = new PrintStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        final Format f = format;
+        final World world = result.world;
+        if(f.header() != null)
+            out.println(f.header());
+        world.chunks().parallel().forEach(chunk -> queries.forEach(
+                q -> q.query(world, chunk).map(f::format).forEach(line -> {
+                    synchronized(out) {
+                        out.println(line);
+                    }
+                })));
+        out.flush();
+        System.exit(result.errors.isEmpty() ? 0 : 2);
+    }
+}
@@ -3,13 +3,12 @@ package mcworldinspector;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.swing.JCheckBox;
-import mcworldinspector.utils.AsyncExecution;
 import mcworldinspector.utils.IntPredicateBuilder;
 
 /**
@@ -41,11 +40,14 @@ public class BiomeTypesPanel extends AbstractFilteredPanel<Biome> {
     @Override
     public void setWorld(World world, WorldRenderer renderer) {
         super.setWorld(world, renderer);
+        updateList();
+    }
+
+    @Override
+    protected void updateList() {
         final Map<Integer, Biome> biomeRegistry = world.getBiomeRegistry();
-        AsyncExecution.submitNoThrow(executorService, () -> {
-            return world.chunks().flatMap(c -> c.biomes(biomeRegistry))
-                .collect(Collectors.toCollection(TreeSet::new));
-        }, result -> {
+        updateListFromSummaries(executorService, s -> s.biomes()
+                .mapToObj(biomeRegistry::get).filter(Objects::nonNull), result -> {
             biomes = result;
             buildListModel();
         });
@@ -61,7 +63,7 @@ public class BiomeTypesPanel extends AbstractFilteredPanel<Biome> {
     protected Stream<? extends WorldRenderer.HighlightEntry> createHighlighter(List<Biome> selected) {
         final var bm = IntPredicateBuilder.of(selected, Biome::getNumericID);
         if(btnExactShape.isSelected()) {
-            return world.getChunks().parallelStream().flatMap(chunk -> {
+            return world.chunks().parallel().flatMap(chunk -> {
                 final var chunkBiomes = chunk.getBiomes();
                 if(chunkBiomes == null)
                     return Stream.empty();
@@ -73,7 +75,7 @@ public class BiomeTypesPanel extends AbstractFilteredPanel<Biome> {
                 return og.stream();
             });
         } else {
-            return world.getChunks().parallelStream()
+            return world.chunks(s -> s.biomes().anyMatch(bm::test)).parallel()
                     .filter(chunk -> chunk.biomes().anyMatch(bm::test))
                     .map(ChunkHighlightEntry::new);
         }
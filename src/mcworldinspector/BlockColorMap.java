@@ -7,10 +7,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import mcworldinspector.nbt.NBTTagCompound;
-import mcworldinspector.nbt.NBTTagList;
 
 /**
  *
@@ -52,6 +51,7 @@ public class BlockColorMap {
     public static final BlockColorMap EMPTY = new BlockColorMap();
 
     private final HashMap<String, BlockColorInfo> blocks;
+    private volatile BlockColorInfo[] byNameId = new BlockColorInfo[0];
 
     private BlockColorMap() {
         blocks = new HashMap<>();
@@ -69,13 +69,15 @@ public class BlockColorMap {
         return blocks.isEmpty();
     }
 
-    public MappedBlockPalette map(NBTTagList<NBTTagCompound> palette) {
-        final int[] colors = new int[palette.size()];
-        final byte[] tinting = new byte[palette.size()];
-        for(int idx=0 ; idx<palette.size() ; ++idx) {
-            NBTTagCompound block = palette.get(idx);
-            String name = block.getString("Name");
-            BlockColorInfo bci = blocks.get(name);
+    /**
+     * Maps a palette of {@link BlockStateRegistry} ids. The colors are
+     * looked up by name id in an array which grows with the registry.
+     */
+    public MappedBlockPalette map(int[] palette) {
+        final int[] colors = new int[palette.length];
+        final byte[] tinting = new byte[palette.length];
+        for(int idx=0 ; idx<palette.length ; ++idx) {
+            BlockColorInfo bci = lookup(BlockStateRegistry.get(palette[idx]).nameId);
             if(bci != null) {
                 colors[idx] = bci.color;
                 tinting[idx] = (byte)bci.tinting;
@@ -84,6 +86,24 @@ public class BlockColorMap {
         return new MappedBlockPalette(colors, tinting);
     }
 
+    private BlockColorInfo lookup(int nameId) {
+        BlockColorInfo[] cache = byNameId;
+        if(nameId >= cache.length) {
+            synchronized(this) {
+                cache = byNameId;
+                if(nameId >= cache.length) {
+                    final int count = BlockStateRegistry.getNameCount();
+                    final int start = cache.length;
+                    cache = Arrays.copyOf(cache, Math.max(count, nameId + 1));
+                    for(int idx=start ; idx<cache.length ; idx++)
+                        cache[idx] = blocks.get(BlockStateRegistry.getName(idx));
+                    byNameId = cache;
+                }
+            }
+        }
+        return cache[nameId];
+    }
+
     public MappedBlockPalette map(String[] palette) {
         final int[] colors = new int[palette.length];
         final byte[] tinting = new byte[palette.length];
@@ -0,0 +1,226 @@
+package mcworldinspector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import mcworldinspector.nbt.NBTTagCompound;
+
+/**
+ * A set of block state patterns like {@code minecraft:chest[facing=north]}.
+ * Names and values may contain {@code *} wildcards, a property can list
+ * alternatives with {@code |} and a name without namespace gets the
+ * {@code minecraft:} namespace. A pattern without properties matches all
+ * states of the block.
+ *
+ * The patterns are compiled against the {@link BlockStateRegistry} into a
+ * bit set of matching state ids. It is extended when new states were
+ * registered, so testing a palette entry is a bit test.
+ *
+ * @author matthias
+ */
+public final class BlockStateQuery {
+
+    private static final int CACHE_SIZE = 64;
+    private static final ConcurrentHashMap<List<String>, BlockStateQuery> cache = new ConcurrentHashMap<>();
+
+    private final Term[] terms;
+    private volatile long[] matches = new long[0];
+    private volatile int compiled;
+
+    private static final class Term {
+        final Pattern name;
+        final String[] keys;
+        final Pattern[] values;
+
+        Term(Pattern name, String[] keys, Pattern[] values) {
+            this.name = name;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        boolean matches(String blockName, NBTTagCompound properties) {
+            if(!name.matcher(blockName).matches())
+                return false;
+            for(int idx=0 ; idx<keys.length ; idx++) {
+                final Object value = properties.get(keys[idx]);
+                if(value == null || !values[idx].matcher(Objects.toString(value)).matches())
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private BlockStateQuery(Term[] terms) {
+        this.terms = terms;
+    }
+
+    /**
+     * Returns the compiled query for a list of patterns. The last queries
+     * are cached as the same list is tested against every sub-chunk.
+     *
+     * @throws IllegalArgumentException if a pattern is invalid
+     */
+    public static BlockStateQuery of(List<String> patterns) {
+        final BlockStateQuery existing = cache.get(patterns);
+        if(existing != null)
+            return existing;
+        final BlockStateQuery query = new BlockStateQuery(patterns.stream()
+                .map(BlockStateQuery::parse).toArray(Term[]::new));
+        if(cache.size() >= CACHE_SIZE)
+            cache.clear();
+        cache.put(List.copyOf(patterns), query);
+        return query;
+    }
+
+    /**
+     * Returns true if the text uses the pattern syntax - a plain block name
+     * returns false.
+     */
+    public static boolean isPattern(String text) {
+        return text.indexOf('[') >= 0 || text.indexOf('*') >= 0;
+    }
+
+    /**
+     * Checks the syntax of a pattern.
+     */
+    public static boolean isValid(String pattern) {
+        try {
+            parse(pattern);
+            return true;
+        } catch(IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Splits a comma separated list of patterns. Commas inside the property
+     * list of a pattern don't split.
+     */
+    public static List<String> split(String text) {
+        final ArrayList<String> result = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for(int idx=0 ; idx<text.length() ; idx++) {
+            switch (text.charAt(idx)) {
+                case '[': depth++; break;
+                case ']': depth--; break;
+                case ',':
+                    if(depth == 0) {
+                        result.add(text.substring(start, idx));
+                        start = idx + 1;
+                    }
+                    break;
+            }
+        }
+        result.add(text.substring(start));
+        return result;
+    }
+
+    private static Term parse(String pattern) {
+        final String text = pattern.trim();
+        final int open = text.indexOf('[');
+        String name = (open < 0) ? text : text.substring(0, open).trim();
+        if(name.isEmpty() || name.indexOf(']') >= 0)
+            throw new IllegalArgumentException("Invalid block pattern: " + pattern);
+        if(name.indexOf(':') < 0 && name.indexOf('*') < 0)
+            name = "minecraft:" + name;
+        if(open < 0)
+            return new Term(glob(name), new String[0], new Pattern[0]);
+        if(!text.endsWith("]"))
+            throw new IllegalArgumentException("Missing ] in block pattern: " + pattern);
+        final String props = text.substring(open + 1, text.length() - 1).trim();
+        if(props.isEmpty())
+            return new Term(glob(name), new String[0], new Pattern[0]);
+        final String[] parts = props.split(",");
+        final String[] keys = new String[parts.length];
+        final Pattern[] values = new Pattern[parts.length];
+        for(int idx=0 ; idx<parts.length ; idx++) {
+            final int eq = parts[idx].indexOf('=');
+            if(eq <= 0)
+                throw new IllegalArgumentException("Invalid property in block pattern: " + pattern);
+            keys[idx] = parts[idx].substring(0, eq).trim();
+            values[idx] = Pattern.compile(Arrays.stream(parts[idx].substring(eq + 1).split("\\|"))
+                    .map(v -> globRegex(v.trim())).collect(Collectors.joining("|")));
+        }
+        return new Term(glob(name), keys, values);
+    }
+
+    private static Pattern glob(String text) {
+        return Pattern.compile(globRegex(text));
+    }
+
+    private static String globRegex(String text) {
+        if(text.isEmpty() || text.indexOf('[') >= 0 || text.indexOf(']') >= 0)
+            throw new IllegalArgumentException("Invalid block pattern: " + text);
+        return Arrays.stream(text.split("\\*", -1)).map(Pattern::quote)
+                .collect(Collectors.joining(".*"));
+    }
+
+    /**
+     * Returns true if any pattern filters on properties, so the block name
+     * alone doesn't decide a match.
+     */
+    public boolean hasPropertyFilter() {
+        for(Term term : terms)
+            if(term.keys.length > 0)
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns the names for which some state can match.
+     */
+    public List<String> matchingNames(Collection<String> names) {
+        return names.stream().filter(name -> {
+            for(Term term : terms)
+                if(term.name.matcher(name).matches())
+                    return true;
+            return false;
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * Tests a block which has no properties, like the blocks of pre 1.13
+     * sub-chunks.
+     */
+    public boolean matchesName(String name) {
+        return matches(name, NBTTagCompound.EMPTY);
+    }
+
+    public boolean matches(String name, NBTTagCompound properties) {
+        for(Term term : terms)
+            if(term.matches(name, properties))
+                return true;
+        return false;
+    }
+
+    /**
+     * Tests a state id of the {@link BlockStateRegistry}.
+     */
+    public boolean matches(int stateId) {
+        // compiled is written after matches
+        final long[] m = (stateId < compiled) ? matches : compile();
+        return (m[stateId >> 6] & (1L << stateId)) != 0;
+    }
+
+    private synchronized long[] compile() {
+        final int size = BlockStateRegistry.size();
+        final int from = compiled;
+        if(from >= size)
+            return matches;
+        final long[] m = Arrays.copyOf(matches, (size + 63) >> 6);
+        for(int id=from ; id<size ; id++) {
+            final var state = BlockStateRegistry.get(id);
+            if(matches(state.name, state.block.getCompound("Properties")))
+                m[id >> 6] |= 1L << id;
+        }
+        matches = m;
+        compiled = size;
+        return m;
+    }
+}
@@ -0,0 +1,137 @@
+package mcworldinspector;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import mcworldinspector.nbt.NBTTagCompound;
+import mcworldinspector.nbt.NBTTagList;
+
+/**
+ * Interns the block states of all palettes. Each distinct combination of
+ * block name and properties gets a dense id and each block name a dense
+ * name id, so sub-chunks can store their palettes as id arrays and compare
+ * blocks as integers. Ids are never reused.
+ *
+ * @author matthias
+ */
+public final class BlockStateRegistry {
+
+    public static final class BlockState {
+        public final int id;
+        public final int nameId;
+        public final String name;
+        /** the palette entry which registered this state */
+        public final NBTTagCompound block;
+        /** one of {@link SubChunk#NORMAL}, {@link SubChunk#AIR} or {@link SubChunk#WATER} */
+        public final byte type;
+
+        BlockState(int id, int nameId, String name, NBTTagCompound block) {
+            this.id = id;
+            this.nameId = nameId;
+            this.name = name;
+            this.block = block;
+            this.type = typeOf(name);
+        }
+
+        private static byte typeOf(String name) {
+            switch (name) {
+                case "minecraft:cave_air":
+                case "minecraft:air":
+                    return SubChunk.AIR;
+                case "minecraft:water":
+                case "minecraft:bubble_column":
+                    return SubChunk.WATER;
+                default:
+                    return SubChunk.NORMAL;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return SubChunk.BlockInfo.blockToString(block, new StringBuilder()).toString();
+        }
+    }
+
+    private static final ConcurrentHashMap<String, BlockState> states = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Integer> nameIds = new ConcurrentHashMap<>();
+    private static volatile BlockState[] byId = new BlockState[256];
+    private static volatile String[] names = new String[256];
+    private static volatile int stateCount;
+    private static volatile int nameCount;
+
+    private BlockStateRegistry() {
+    }
+
+    private static String key(String name, NBTTagCompound properties) {
+        if(properties.isEmpty())
+            return name;
+        final StringBuilder sb = new StringBuilder(name);
+        properties.entries().sorted(Map.Entry.comparingByKey()).forEachOrdered(e -> {
+            sb.append(sb.length() == name.length() ? '[' : ',')
+                    .append(e.getKey()).append('=').append(e.getValue());
+        });
+        return sb.append(']').toString();
+    }
+
+    public static int register(NBTTagCompound block) {
+        final String name = Objects.toString(block.getString("Name"), "");
+        final String key = key(name, block.getCompound("Properties"));
+        final BlockState state = states.get(key);
+        return (state != null) ? state.id : add(key, name, block);
+    }
+
+    public static int[] register(NBTTagList<NBTTagCompound> palette) {
+        final int[] ids = new int[palette.size()];
+        for(int idx=0 ; idx<ids.length ; idx++)
+            ids[idx] = register(palette.get(idx));
+        return ids;
+    }
+
+    private static synchronized int add(String key, String name, NBTTagCompound block) {
+        final BlockState existing = states.get(key);
+        if(existing != null)
+            return existing.id;
+        Integer nameId = nameIds.get(name);
+        if(nameId == null) {
+            nameId = nameCount;
+            if(nameId == names.length)
+                names = Arrays.copyOf(names, nameId * 2);
+            names[nameId] = name;
+            nameIds.put(name, nameId);
+            nameCount = nameId + 1;
+        }
+        final int id = stateCount;
+        if(id == byId.length)
+            byId = Arrays.copyOf(byId, id * 2);
+        final BlockState state = new BlockState(id, nameId, name, block);
+        byId[id] = state;
+        stateCount = id + 1;
+        states.put(key, state);
+        return id;
+    }
+
+    public static BlockState get(int id) {
+        return byId[id];
+    }
+
+    public static int size() {
+        return stateCount;
+    }
+
+    public static int getNameCount() {
+        return nameCount;
+    }
+
+    public static String getName(int nameId) {
+        return names[nameId];
+    }
+
+    /**
+     * @return the name id or -1 when no state with this name was registered
+     */
+    public static int getNameId(String name) {
+        final Integer nameId = nameIds.get(name);
+        return (nameId != null) ? nameId : -1;
+    }
+}
@@ -0,0 +1,154 @@
+package mcworldinspector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted index from block type to the chunks which contain it. Each chunk
+ * gets a dense id and each block type a posting list of chunk ids with a
+ * mask of the sections which contain the block, so a query for a range of
+ * sections only visits the postings of the selected block types.
+ *
+ * The postings are rebuilt on the first query after chunks were added or
+ * removed - during loading chunks are only recorded.
+ *
+ * @author matthias
+ */
+public class BlockTypeIndex {
+
+    private static final int[] NO_NAMES = new int[0];
+    private static final long[] NO_MASKS = new long[0];
+
+    private final HashMap<String, Integer> nameIds = new HashMap<>();
+    private final HashMap<XZPosition, Integer> chunkIds = new HashMap<>();
+    private final ArrayList<XZPosition> positions = new ArrayList<>();
+    private int[][] chunkNames = new int[256][];
+    private long[][] chunkMasks = new long[256][];
+    private Postings postings;
+
+    private static class Postings {
+        final int[][] chunks;
+        final long[][] masks;
+
+        Postings(int[][] chunks, long[][] masks) {
+            this.chunks = chunks;
+            this.masks = masks;
+        }
+    }
+
+    /**
+     * Records the block types of a chunk, replacing an older version of
+     * the chunk.
+     */
+    public void add(Chunk chunk) {
+        final var sections = chunk.blockTypeSections();
+        synchronized(this) {
+            final int[] names = new int[sections.size()];
+            final long[] masks = new long[names.length];
+            int idx = 0;
+            for(Map.Entry<String, Long> e : sections.entrySet()) {
+                names[idx] = nameIds.computeIfAbsent(e.getKey(), k -> nameIds.size());
+                masks[idx++] = e.getValue();
+            }
+            final int id = getChunkId(new XZPosition(chunk.x, chunk.z));
+            chunkNames[id] = names;
+            chunkMasks[id] = masks;
+            postings = null;
+        }
+    }
+
+    public synchronized void remove(XZPosition pos) {
+        final Integer id = chunkIds.get(pos);
+        if(id != null) {
+            chunkNames[id] = NO_NAMES;
+            chunkMasks[id] = NO_MASKS;
+            postings = null;
+        }
+    }
+
+    private int getChunkId(XZPosition pos) {
+        final Integer existing = chunkIds.get(pos);
+        if(existing != null)
+            return existing;
+        final int id = positions.size();
+        if(id == chunkNames.length) {
+            chunkNames = Arrays.copyOf(chunkNames, id * 2);
+            chunkMasks = Arrays.copyOf(chunkMasks, id * 2);
+        }
+        positions.add(pos);
+        chunkIds.put(pos, id);
+        return id;
+    }
+
+    public synchronized int size() {
+        return chunkIds.size();
+    }
+
+    /**
+     * Returns the chunks which contain any of the block types in one of
+     * the sections {@code lower} (inclusive) to {@code upper} (exclusive).
+     */
+    public synchronized List<XZPosition> find(Collection<String> blockTypes, int lower, int upper) {
+        final long range = sectionMask(lower, upper);
+        final Postings p = getPostings();
+        final BitSet result = new BitSet(positions.size());
+        for(String blockType : blockTypes) {
+            final Integer nameId = nameIds.get(blockType);
+            if(nameId == null)
+                continue;
+            final int[] chunks = p.chunks[nameId];
+            final long[] masks = p.masks[nameId];
+            for(int i=0 ; i<chunks.length ; i++)
+                if((masks[i] & range) != 0)
+                    result.set(chunks[i]);
+        }
+        final ArrayList<XZPosition> list = new ArrayList<>(result.cardinality());
+        for(int id=result.nextSetBit(0) ; id>=0 ; id=result.nextSetBit(id+1))
+            list.add(positions.get(id));
+        return list;
+    }
+
+    private static long sectionMask(int lower, int upper) {
+        final int from = Math.max(0, lower + Chunk.SECTION_OFFSET);
+        final int to = Math.min(64, upper + Chunk.SECTION_OFFSET);
+        if(from >= to)
+            return 0;
+        final long bits = (to - from == 64) ? -1L : (1L << (to - from)) - 1;
+        return bits << from;
+    }
+
+    private Postings getPostings() {
+        if(postings != null)
+            return postings;
+        final int nameCount = nameIds.size();
+        final int chunkCount = positions.size();
+        final int[] counts = new int[nameCount];
+        for(int id=0 ; id<chunkCount ; id++)
+            for(int nameId : chunkNames[id])
+                counts[nameId]++;
+        final int[][] chunks = new int[nameCount][];
+        final long[][] masks = new long[nameCount][];
+        for(int nameId=0 ; nameId<nameCount ; nameId++) {
+            chunks[nameId] = new int[counts[nameId]];
+            masks[nameId] = new long[counts[nameId]];
+        }
+        Arrays.fill(counts, 0);
+        for(int id=0 ; id<chunkCount ; id++) {
+            final int[] names = chunkNames[id];
+            final long[] chunkMask = chunkMasks[id];
+            for(int i=0 ; i<names.length ; i++) {
+                final int nameId = names[i];
+                final int pos = counts[nameId]++;
+                chunks[nameId][pos] = id;
+                masks[nameId][pos] = chunkMask[i];
+            }
+        }
+        postings = new Postings(chunks, masks);
+        return postings;
+    }
+}
@@ -4,14 +4,12 @@ import java.awt.Component;
 import java.awt.Dialog;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.swing.AbstractAction;
 import javax.swing.GroupLayout;
@@ -23,7 +21,6 @@ import javax.swing.JScrollPane;
 import javax.swing.JTree;
 import javax.swing.LayoutStyle;
 import javax.swing.SwingUtilities;
-import mcworldinspector.utils.AsyncExecution;
 import mcworldinspector.utils.MapTreeModel;
 import mcworldinspector.utils.RangeSlider;
 import mcworldinspector.utils.StringHelpers;
@@ -93,25 +90,31 @@ public class BlockTypesPanel extends AbstractFilteredPanel<String> {
     @Override
     public void setWorld(World world, WorldRenderer renderer) {
         super.setWorld(world, renderer);
-        AsyncExecution.submitNoThrow(executorService, () -> {
-            return world.chunks()
-                    .flatMap(Chunk::subChunks)
-                    .flatMap(SubChunk::getBlockTypes)
-                    .collect(Collectors.toCollection(TreeSet::new));
-        }, result -> {
+        updateList();
+        subChunkSlider.setMin(world.is18() ? -4 : 0);
+        subChunkSlider.setLower(subChunkSlider.getMin());
+        subChunkSlider.setUpper(subChunkSlider.getMax());
+    }
+
+    @Override
+    protected void updateList() {
+        updateListFromSummaries(executorService, ChunkSummary::blockTypes, result -> {
             result.remove("minecraft:air");
             result.remove("minecraft:cave_air");
             result.remove("minecraft:bedrock");
             blockTypes = result;
             buildListModel();
         });
-        subChunkSlider.setMin(world.is18() ? -4 : 0);
-        subChunkSlider.setLower(subChunkSlider.getMin());
-        subChunkSlider.setUpper(subChunkSlider.getMax());
     }
 
     @Override
     protected List<String> filteredList(String filter) {
+        if(BlockStateQuery.isPattern(filter) && BlockStateQuery.isValid(filter)) {
+            // the pattern itself is the first entry
+            final List<String> list = BlockStateQuery.of(List.of(filter)).matchingNames(blockTypes);
+            list.add(0, filter);
+            return list;
+        }
         return filteredStringList(blockTypes, filter);
     }
 
@@ -119,8 +122,16 @@ public class BlockTypesPanel extends AbstractFilteredPanel<String> {
     protected Stream<? extends WorldRenderer.HighlightEntry> createHighlighter(List<String> selected) {
         final var lower = subChunkSlider.getLower();
         final var upper = subChunkSlider.getUpper();
+        final var query = BlockStateQuery.of(selected);
+        final var names = query.matchingNames(blockTypes);
+        final var index = world.getBlockTypeIndex();
+        final Stream<Chunk> candidates = (index != null)
+                ? index.find(names, lower, upper).stream()
+                        .map(pos -> world.getChunk(pos.x, pos.z))
+                        .filter(Objects::nonNull)
+                : world.chunks(s -> s.hasAnyBlockType(names));
         if (btnShowCount.isSelected()) {
-            return world.getChunks().parallelStream()
+            return candidates.parallel()
                     .map(chunk -> {
                         final var count = chunk.subChunks(lower, upper)
                                 .mapToLong(sc -> sc.countBlocks(selected))
@@ -136,11 +147,17 @@ public class BlockTypesPanel extends AbstractFilteredPanel<String> {
                     }).filter(che -> che != null).sorted();
         }
 
-        return world.getChunks().parallelStream()
-                .filter(chunk -> chunk.subChunks(lower, upper)
-                .flatMap(SubChunk::getBlockTypes)
-                .anyMatch(selected::contains))
-                .map(chunk -> new ChunkHighlightEntry(chunk) {
+        final Stream<Chunk> matching;
+        if (query.hasPropertyFilter())
+            matching = candidates.parallel().filter(chunk -> chunk.subChunks(lower, upper)
+                    .anyMatch(sc -> sc.countBlocks(selected) > 0));
+        else if (index != null)
+            matching = candidates;  // the index already checked the sections
+        else
+            matching = candidates.parallel().filter(chunk -> chunk.subChunks(lower, upper)
+                    .flatMap(SubChunk::getBlockTypes)
+                    .anyMatch(names::contains));
+        return matching.map(chunk -> new ChunkHighlightEntry(chunk) {
             @Override
             public void showDetailsFor(Component parent) {
                 showDetails(parent, this, lower, upper, selected);
@@ -149,12 +166,21 @@ public class BlockTypesPanel extends AbstractFilteredPanel<String> {
     }
 
     private static void showDetails(Component parent, ChunkHighlightEntry entry, int lower, int upper, List<String> blockTypes) {
-        final TreeMap<Integer, ArrayList<SubChunk.BlockInfo>> blocks = new TreeMap<>();
+        final FoundBlocks found = new FoundBlocks();
         final int x = entry.chunk.x << 4;
         final int z = entry.chunk.z << 4;
-        entry.chunk.subChunks(lower, upper).flatMap(sc
-                -> sc.findBlocks(blockTypes, new BlockPos(x, sc.getGlobalY(), z)))
-                .forEach(b -> blocks.computeIfAbsent(b.y, k -> new ArrayList<>()).add(b));
+        entry.chunk.subChunks(lower, upper).forEachOrdered(sc
+                -> sc.findBlocks(blockTypes, new BlockPos(x, sc.getGlobalY(), z), found));
+        // the hits are sorted by Y - the tree only creates the BlockInfo of visible rows
+        final TreeMap<Integer, List<SubChunk.BlockInfo>> blocks = new TreeMap<>();
+        for(int from=0 ; from<found.size() ;) {
+            final int y = found.getY(from);
+            int to = from + 1;
+            while(to < found.size() && found.getY(to) == y)
+                to++;
+            blocks.put(y, found.subList(from, to));
+            from = to;
+        }
         final var highestCount = StringHelpers.widthForCount(blocks.values().stream().mapToInt(v -> v.size()).max());
         final MapTreeModel<Integer, SubChunk.BlockInfo> model = new MapTreeModel<>(blocks,
                 e -> String.format("Y=%3d  %s", e.getKey(), StringHelpers.formatCount(e.getValue().size(), "Block", highestCount)));
@@ -162,6 +188,8 @@ public class BlockTypesPanel extends AbstractFilteredPanel<String> {
         tree.setRootVisible(false);
         tree.setShowsRootHandles(true);
         tree.setFont(new Font( "Monospaced", Font.PLAIN, tree.getFont().getSize()));
+        tree.setRowHeight(tree.getFontMetrics(tree.getFont()).getHeight());
+        tree.setLargeModel(true);
         if (model.getChildCount(model.getRoot()) == 1)
             tree.expandRow(0);
         final JScrollPane sp = new JScrollPane(tree);
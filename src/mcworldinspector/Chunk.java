@@ -1,10 +1,14 @@
 package mcworldinspector;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.IntStream;
@@ -12,8 +16,11 @@ import java.util.stream.Stream;
 import mcworldinspector.nbt.NBTByteArray;
 import mcworldinspector.nbt.NBTIntArray;
 import mcworldinspector.nbt.NBTLongArray;
+import mcworldinspector.nbt.NBTProjection;
+import mcworldinspector.nbt.NBTQuery;
 import mcworldinspector.nbt.NBTTagCompound;
 import mcworldinspector.nbt.NBTTagList;
+import mcworldinspector.utils.OffHeapArena;
 
 /**
  *
@@ -26,19 +33,95 @@ public class Chunk extends XZPosition {
     private static final String HEIGHTMAP_MOTION_BLOCKING_NO_LEAVES = "MOTION_BLOCKING_NO_LEAVES";
     private static final String HEIGHTMAP_MOTION_BLOCKING = "MOTION_BLOCKING";
 
+    /**
+     * The tags read by each part of a chunk. The paths are relative to the
+     * chunk root of 1.18+ chunks and to the Level compound of older ones.
+     * Lazy parts are only decoded when they are accessed.
+     */
+    public static enum Part {
+        BLOCKS(false, "sections.Y", "sections.block_states.palette", "sections.block_states.data",
+                "Sections.Y", "Sections.Palette", "Sections.BlockStates",
+                "Sections.Blocks", "Sections.Add"),
+        BIOMES(false, "biomes", "Biomes"),
+        HEIGHTMAPS(false, Chunk.HEIGHTMAPS + '.' + HEIGHTMAP_MOTION_BLOCKING,
+                Chunk.HEIGHTMAPS + '.' + HEIGHTMAP_MOTION_BLOCKING_NO_LEAVES, HEIGHTMAP),
+        ENTITIES(true, "Entities"),
+        TILE_ENTITIES(true, "block_entities", "TileEntities"),
+        STRUCTURES(true, "structures.starts", "Structures.Starts");
+
+        private final boolean lazy;
+        private final String[] paths;
+
+        private Part(boolean lazy, String... paths) {
+            this.lazy = lazy;
+            this.paths = paths;
+        }
+    }
+
+    /**
+     * Parses everything a chunk uses and skips light data, ticks, carving
+     * masks and the other heightmaps.
+     */
+    public static final NBTProjection PROJECTION = projection(EnumSet.allOf(Part.class));
+
+    /**
+     * Creates a projection which parses the given parts. The heightmaps are
+     * always included as they decide whether a chunk is empty.
+     */
+    public static NBTProjection projection(Set<Part> parts) {
+        final EnumSet<Part> selected = EnumSet.of(Part.HEIGHTMAPS);
+        selected.addAll(parts);
+        final ArrayList<String> paths = new ArrayList<>();
+        final ArrayList<String> lazyPaths = new ArrayList<>();
+        paths.add("DataVersion");
+        for(Part part : selected) {
+            final var list = part.lazy ? lazyPaths : paths;
+            for(String path : part.paths) {
+                list.add(path);
+                list.add("Level." + path);
+            }
+        }
+        return NBTProjection.of(paths, lazyPaths);
+    }
+
+    /**
+     * Projection for the chunks of the entity region files of 1.17+ worlds.
+     */
+    public static final NBTProjection ENTITIES_PROJECTION = NBTProjection.of(
+            Arrays.asList("DataVersion", "Position"), Arrays.asList("Entities"));
+
+    /**
+     * Added to the section number for the bits of {@link #blockTypeSections}
+     * - the lowest section of 1.18+ worlds is -4.
+     */
+    public static final int SECTION_OFFSET = 4;
+
     private final int dataVersion;
     private final NBTTagCompound level;
     private NBTTagCompound extra;
     private final int y_offset;
     private final SubChunk[] subchunks;
+    private final boolean offHeap;
 
     public Chunk(int globalX, int globalZ, NBTTagCompound nbt) {
+        this(globalX, globalZ, nbt, null);
+    }
+
+    /**
+     * @param arena when not null the block states of the sub-chunks are
+     * copied into this arena
+     */
+    public Chunk(int globalX, int globalZ, NBTTagCompound nbt, OffHeapArena arena) {
         super(globalX, globalZ);
         this.dataVersion = nbt.get("DataVersion", Integer.class, 0);
-        this.level = is18() ? nbt : nbt.getCompound("Level");
+        final NBTTagCompound root = is18() ? nbt : nbt.getCompound("Level");
+        final String sections = is18() ? "sections" : "Sections";
+        // the sub-chunks keep what they need - the palettes are interned
+        this.level = root.without(sections);
         this.y_offset = is18() ? 4 : 0;
         this.subchunks = new SubChunk[is18() ? 24 : 16];
-        for(NBTTagCompound s : level.getList(is18() ? "sections" : "Sections", NBTTagCompound.class)) {
+        this.offHeap = arena != null;
+        for(NBTTagCompound s : root.getList(sections, NBTTagCompound.class)) {
             int y = ((Number)s.get("Y")).intValue();
             int yc = y + y_offset;
             if(yc >= 0 && yc < subchunks.length) {
@@ -49,15 +132,15 @@ public class Chunk extends XZPosition {
                     if (data == null || data.isEmpty())
                         subchunks[yc] = new SubChunkSingle(palette, (short)(y << 4));
                     else
-                        subchunks[yc] = new SubChunk16(palette, data, (short)(y << 4));
+                        subchunks[yc] = new SubChunk16(palette, offHeap(data, arena), (short)(y << 4));
                 } else {
                     NBTTagList<NBTTagCompound> palette = s.getList("Palette", NBTTagCompound.class);
                     NBTLongArray blockStates = s.get("BlockStates", NBTLongArray.class);
                     if(!palette.isEmpty() && blockStates != null && !blockStates.isEmpty())
                         if (dataVersion >= 0xA18)
-                            subchunks[yc] = new SubChunk16(palette, blockStates, (short)(y << 4));
+                            subchunks[yc] = new SubChunk16(palette, offHeap(blockStates, arena), (short)(y << 4));
                         else
-                            subchunks[yc] = new SubChunk14(palette, blockStates, (byte)(y << 4));
+                            subchunks[yc] = new SubChunk14(palette, offHeap(blockStates, arena), (byte)(y << 4));
                     else {
                         NBTByteArray blocks = s.get("Blocks", NBTByteArray.class);
                         NBTByteArray add = s.get("Add", NBTByteArray.class);
@@ -69,6 +152,10 @@ public class Chunk extends XZPosition {
         }
     }
 
+    private static NBTLongArray offHeap(NBTLongArray data, OffHeapArena arena) {
+        return (arena != null) ? data.copyTo(arena) : data;
+    }
+
     public final boolean is18() {
         return dataVersion >= World.DATAVERSION_18;
     }
@@ -114,10 +201,34 @@ public class Chunk extends XZPosition {
         return getHeightmap(true) == null;
     }
 
+    /**
+     * Returns true if the block states were copied into an off-heap arena.
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
     public SubChunk getSubChunk(int y) {
         return subchunks[y + y_offset];
     }
     
+    /**
+     * Returns a mask for each block type with one bit for each sub-chunk
+     * which contains it. Bit {@code n} is the sub-chunk at section
+     * {@code n - }{@link #SECTION_OFFSET} independent of the world version.
+     */
+    public HashMap<String, Long> blockTypeSections() {
+        final HashMap<String, Long> result = new HashMap<>();
+        for(int idx=0 ; idx<subchunks.length ; idx++) {
+            final SubChunk sc = subchunks[idx];
+            if(sc != null) {
+                final long bit = 1L << (idx - y_offset + SECTION_OFFSET);
+                sc.getBlockTypes().forEach(name -> result.merge(name, bit, (m, n) -> m | n));
+            }
+        }
+        return result;
+    }
+
     public SubChunk getSubChunkCheck(int y) {
         y += y_offset;
         return (y >= 0 && y < subchunks.length) ? subchunks[y] : null;
@@ -207,9 +318,11 @@ public class Chunk extends XZPosition {
             return;
         final SubChunk scAirCheck = getSubChunkCheck(layer >> 4);
         if(scAirCheck != null) {
+            final short[] indices = new short[256];
+            scAirCheck.getLayerBlockIndices(layer, indices);
             if(layer <= y_offset * -16 + 15) {
                 for(int idx=0 ; idx<256 ; idx++) {
-                    byte blockType = scAirCheck.getBlockType(idx, layer);
+                    byte blockType = scAirCheck.getBlockType(indices[idx] & 0xFFFF);
                     if(blockType != SubChunk.NORMAL) {
                         final int index = scAirCheck.
                                 getTopBlockIndexBelowLayer(idx, layer - 1,
@@ -220,7 +333,7 @@ public class Chunk extends XZPosition {
                 }
             } else {
                 for(int idx=0 ; idx<256 ; idx++) {
-                    byte blockType = scAirCheck.getBlockType(idx, layer);
+                    byte blockType = scAirCheck.getBlockType(indices[idx] & 0xFFFF);
                     if(blockType != SubChunk.NORMAL)
                         getTopBlockBelowLayer(idx, layer - 1,
                                 blockType | SubChunk.AIR, wrap);
@@ -285,6 +398,45 @@ public class Chunk extends XZPosition {
         return structures().filter(filterByID(id));
     }
 
+    /**
+     * Checks if {@link #query} supports a root. Only the entity, tile entity
+     * and structure lists are kept by {@link #PROJECTION} - the other tags
+     * of the chunk are not parsed.
+     */
+    public static boolean isQueryRoot(String root) {
+        switch (root) {
+            case "Entities":
+            case "TileEntities":
+            case "block_entities":
+            case "Structures":
+            case "structures":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the elements of the query root which match. The roots
+     * Entities, TileEntities and Structures work for all world versions.
+     *
+     * @throws IllegalArgumentException if {@link #isQueryRoot} rejects the root
+     */
+    public Stream<NBTTagCompound> query(NBTQuery query) {
+        switch (query.getRoot()) {
+            case "Entities":
+                return entities().filter(query);
+            case "TileEntities":
+            case "block_entities":
+                return tileEntities().filter(query);
+            case "Structures":
+            case "structures":
+                return structures().filter(query);
+            default:
+                throw new IllegalArgumentException("Unsupported query root " + query.getRoot());
+        }
+    }
+
     public IntStream biomes() {
         final var biomes = getBiomes();
         return (biomes == null) ? IntStream.empty() : biomes.stream();
@@ -0,0 +1,162 @@
+package mcworldinspector;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A bounded LRU cache of decoded chunks. Each chunk is weighted by the size
+ * of its uncompressed NBT data and the least recently used chunks are
+ * evicted when the total weight exceeds the budget. A chunk can carry an
+ * action which is run when it is evicted, e.g. to spill its data.
+ *
+ * All accesses share one lock because a get reorders the LRU list. This is
+ * cheap compared to loading a chunk but parallel streams over the cached
+ * chunks contend on it.
+ *
+ * @author matthias
+ */
+public class ChunkCache {
+
+    // parsed NBT objects need roughly twice the memory of the encoded data
+    private static final int OVERHEAD_FACTOR = 2;
+
+    private final LinkedHashMap<XZPosition, Entry> map = new LinkedHashMap<>(4096, 0.75f, true);
+    private long budget;
+    private long used;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ChunkCache(long budget) {
+        this.budget = budget;
+    }
+
+    public static long defaultBudget() {
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    public synchronized Chunk get(XZPosition pos) {
+        final Entry e = map.get(pos);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.chunk;
+    }
+
+    /**
+     * Adds a chunk to the cache. If another thread has loaded the same chunk
+     * in the meantime then that chunk is kept and returned instead.
+     */
+    public Chunk put(Chunk chunk, long size) {
+        return put(chunk, size, null);
+    }
+
+    /**
+     * Adds a chunk like {@link #put(Chunk, long)}. The onEvict action is run
+     * outside of the cache lock when the chunk is evicted because the budget
+     * is exceeded, but not when it is removed.
+     */
+    public Chunk put(Chunk chunk, long size, Runnable onEvict) {
+        final ArrayList<Runnable> evicted;
+        synchronized (this) {
+            final Entry old = map.get(chunk);
+            if (old != null) {
+                return old.chunk;
+            }
+            final long weight = size * OVERHEAD_FACTOR;
+            map.put(chunk, new Entry(chunk, weight, onEvict));
+            used += weight;
+            evicted = evict();
+        }
+        evicted.forEach(Runnable::run);
+        return chunk;
+    }
+
+    public synchronized void remove(XZPosition pos) {
+        final Entry e = map.remove(pos);
+        if (e != null) {
+            used -= e.weight;
+        }
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        used = 0;
+    }
+
+    private ArrayList<Runnable> evict() {
+        final ArrayList<Runnable> evicted = new ArrayList<>();
+        final Iterator<Entry> it = map.values().iterator();
+        // always keep the most recently added chunk
+        while (used > budget && map.size() > 1) {
+            final Entry e = it.next();
+            it.remove();
+            used -= e.weight;
+            evictions++;
+            if (e.onEvict != null) {
+                evicted.add(e.onEvict);
+            }
+        }
+        return evicted;
+    }
+
+    public synchronized List<Chunk> residentChunks() {
+        final ArrayList<Chunk> result = new ArrayList<>(map.size());
+        map.values().forEach(e -> result.add(e.chunk));
+        return result;
+    }
+
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    public void setBudget(long budget) {
+        final ArrayList<Runnable> evicted;
+        synchronized (this) {
+            this.budget = budget;
+            evicted = evict();
+        }
+        evicted.forEach(Runnable::run);
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized double getHitRate() {
+        final long total = hits + misses;
+        return (total > 0) ? hits / (double) total : 0.0;
+    }
+
+    private static class Entry {
+        final Chunk chunk;
+        final long weight;
+        final Runnable onEvict;
+
+        Entry(Chunk chunk, long weight, Runnable onEvict) {
+            this.chunk = chunk;
+            this.weight = weight;
+            this.onEvict = onEvict;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package mcworldinspector;
+
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import mcworldinspector.utils.OffHeapArena;
+
+/**
+ * Map of chunks keyed by their position. Chunks are grouped by region into
+ * fixed 32x32 grids which are found through an open addressing hash table
+ * keyed by the packed region position, so lookups don't allocate and box
+ * queries only visit regions which exist.
+ *
+ * Reads are lock free and may run concurrently with puts and removes from
+ * the loader threads. Empty regions are kept and skipped.
+ *
+ * @author matthias
+ */
+public class ChunkMap {
+
+    private static final int REGION_SHIFT = 5;
+    private static final int REGION_MASK = (1 << REGION_SHIFT) - 1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile AtomicReferenceArray<Region> table =
+            new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private volatile int regionCount;
+    private final AtomicInteger size = new AtomicInteger();
+
+    private static final class Region {
+        final long key;
+        final int x;
+        final int z;
+        final AtomicReferenceArray<Chunk> chunks = new AtomicReferenceArray<>(1 << (2 * REGION_SHIFT));
+        volatile OffHeapArena arena;
+
+        Region(int x, int z) {
+            this.key = key(x, z);
+            this.x = x;
+            this.z = z;
+        }
+
+        Stream<Chunk> chunks() {
+            return IntStream.range(0, chunks.length())
+                    .mapToObj(chunks::get)
+                    .filter(Objects::nonNull);
+        }
+
+        Stream<Chunk> chunks(int x0, int z0, int x1, int z1) {
+            final int cx0 = Math.max(x0, x << REGION_SHIFT) & REGION_MASK;
+            final int cz0 = Math.max(z0, z << REGION_SHIFT) & REGION_MASK;
+            final int cx1 = Math.min(x1, (x << REGION_SHIFT) + REGION_MASK) & REGION_MASK;
+            final int cz1 = Math.min(z1, (z << REGION_SHIFT) + REGION_MASK) & REGION_MASK;
+            return IntStream.rangeClosed(cz0, cz1)
+                    .flatMap(cz -> IntStream.rangeClosed(cx0, cx1)
+                            .map(cx -> (cz << REGION_SHIFT) | cx))
+                    .mapToObj(chunks::get)
+                    .filter(Objects::nonNull);
+        }
+
+        boolean overlaps(int rx0, int rz0, int rx1, int rz1) {
+            return x >= rx0 && x <= rx1 && z >= rz0 && z <= rz1;
+        }
+    }
+
+    private static long key(int rx, int rz) {
+        return ((long) rx << 32) | (rz & 0xFFFFFFFFL);
+    }
+
+    private static int slot(long key, int mask) {
+        return Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+    }
+
+    private static int indexOf(int x, int z) {
+        return ((z & REGION_MASK) << REGION_SHIFT) | (x & REGION_MASK);
+    }
+
+    private static Region find(AtomicReferenceArray<Region> t, int rx, int rz) {
+        final long key = key(rx, rz);
+        final int mask = t.length() - 1;
+        for (int i = slot(key, mask);; i = (i + 1) & mask) {
+            final var region = t.get(i);
+            if (region == null || region.key == key) {
+                return region;
+            }
+        }
+    }
+
+    private Region getOrCreate(int rx, int rz) {
+        final var region = find(table, rx, rz);
+        if (region != null) {
+            return region;
+        }
+        synchronized (this) {
+            var t = table;
+            final var existing = find(t, rx, rz);
+            if (existing != null) {
+                return existing;
+            }
+            if ((regionCount + 1) * 2 > t.length()) {
+                final var grown = new AtomicReferenceArray<Region>(t.length() * 2);
+                for (int i = 0; i < t.length(); i++) {
+                    final var r = t.get(i);
+                    if (r != null) {
+                        insert(grown, r);
+                    }
+                }
+                table = t = grown;
+            }
+            final var created = new Region(rx, rz);
+            insert(t, created);
+            regionCount++;
+            return created;
+        }
+    }
+
+    private static void insert(AtomicReferenceArray<Region> t, Region region) {
+        final int mask = t.length() - 1;
+        int i = slot(region.key, mask);
+        while (t.get(i) != null) {
+            i = (i + 1) & mask;
+        }
+        t.set(i, region);
+    }
+
+    private Stream<Region> regions() {
+        final var t = table;
+        return IntStream.range(0, t.length())
+                .mapToObj(t::get)
+                .filter(Objects::nonNull);
+    }
+
+    public Chunk get(int x, int z) {
+        final var region = find(table, x >> REGION_SHIFT, z >> REGION_SHIFT);
+        return (region != null) ? region.chunks.get(indexOf(x, z)) : null;
+    }
+
+    /**
+     * Adds or replaces the chunk at the position of the chunk.
+     * @return the previous chunk at that position or null
+     */
+    public Chunk put(Chunk chunk) {
+        final var region = getOrCreate(chunk.x >> REGION_SHIFT, chunk.z >> REGION_SHIFT);
+        final var old = region.chunks.getAndSet(indexOf(chunk.x, chunk.z), chunk);
+        if (old == null) {
+            size.incrementAndGet();
+        }
+        return old;
+    }
+
+    public Chunk remove(int x, int z) {
+        final var region = find(table, x >> REGION_SHIFT, z >> REGION_SHIFT);
+        if (region == null) {
+            return null;
+        }
+        final var old = region.chunks.getAndSet(indexOf(x, z), null);
+        if (old != null) {
+            size.decrementAndGet();
+        }
+        return old;
+    }
+
+    /**
+     * Returns the arena for the off-heap data of the chunks in the region
+     * of the chunk position. The arena lives as long as the region or until
+     * it is released by {@link #releaseArena}.
+     */
+    public OffHeapArena getArena(int x, int z) {
+        final var region = getOrCreate(x >> REGION_SHIFT, z >> REGION_SHIFT);
+        var arena = region.arena;
+        if (arena == null) {
+            synchronized (region) {
+                arena = region.arena;
+                if (arena == null) {
+                    region.arena = arena = new OffHeapArena();
+                }
+            }
+        }
+        return arena;
+    }
+
+    /**
+     * Drops the arena of a region once no chunk of the region uses it. The
+     * slabs are freed when the replaced chunks become unreachable.
+     */
+    public void releaseArena(XZPosition regionStart) {
+        final var region = find(table, regionStart.x >> REGION_SHIFT,
+                regionStart.z >> REGION_SHIFT);
+        if (region != null && region.arena != null
+                && region.chunks().noneMatch(Chunk::isOffHeap)) {
+            synchronized (region) {
+                region.arena = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the direct memory held by the arenas of all regions.
+     */
+    public long getOffHeapSize() {
+        return regions().map(r -> r.arena).filter(Objects::nonNull)
+                .mapToLong(OffHeapArena::getReserved).sum();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    /**
+     * Streams all chunks region by region. Parallel streams split at region
+     * granularity.
+     */
+    public Stream<Chunk> stream() {
+        return regions().flatMap(Region::chunks);
+    }
+
+    /**
+     * Streams the chunks inside the inclusive box. Only regions which
+     * overlap the box and contain chunks are visited.
+     */
+    public Stream<Chunk> chunks(int x0, int z0, int x1, int z1) {
+        if (x1 < x0 || z1 < z0) {
+            return Stream.empty();
+        }
+        final int rx0 = x0 >> REGION_SHIFT;
+        final int rz0 = z0 >> REGION_SHIFT;
+        final int rx1 = x1 >> REGION_SHIFT;
+        final int rz1 = z1 >> REGION_SHIFT;
+        final long cells = (long) (rx1 - rx0 + 1) * (rz1 - rz0 + 1);
+        final Stream<Region> candidates;
+        if (cells <= regionCount) {
+            final var t = table;
+            final int width = rx1 - rx0 + 1;
+            candidates = IntStream.range(0, (int) cells)
+                    .mapToObj(idx -> find(t, rx0 + idx % width, rz0 + idx / width))
+                    .filter(Objects::nonNull);
+        } else {
+            candidates = regions().filter(r -> r.overlaps(rx0, rz0, rx1, rz1));
+        }
+        return candidates.flatMap(r -> r.chunks(x0, z0, x1, z1));
+    }
+
+    /**
+     * Returns the chunk positions of the starts of all regions which
+     * contain chunks.
+     */
+    public ArrayList<XZPosition> getRegionStarts() {
+        final ArrayList<XZPosition> result = new ArrayList<>();
+        regions().filter(r -> r.chunks().findAny().isPresent())
+                .forEach(r -> result.add(new XZPosition(
+                        r.x << REGION_SHIFT, r.z << REGION_SHIFT)));
+        return result;
+    }
+
+    public ArrayList<Chunk> getRegionChunks(XZPosition regionStart) {
+        final ArrayList<Chunk> result = new ArrayList<>();
+        final var region = find(table, regionStart.x >> REGION_SHIFT,
+                regionStart.z >> REGION_SHIFT);
+        if (region != null) {
+            region.chunks().forEach(result::add);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,235 @@
+package mcworldinspector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the projected, uncompressed NBT data of decoded chunks in memory
+ * mapped temp files. Chunks which were evicted from the {@link ChunkCache}
+ * are parsed again from the mapping instead of being read and inflated from
+ * the region file. Like the summaries each entry carries the chunk
+ * timestamps so that changed chunks are not used.
+ *
+ * The data is appended to fixed size segments. Once at least half of a
+ * segment belongs to replaced or outdated entries its remaining entries are
+ * copied to the current segment and its file is deleted.
+ *
+ * @author matthias
+ */
+public class ChunkSpillStore {
+
+    private static final int SEGMENT_SIZE = 64 << 20;
+
+    private final File folder;
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    private final ConcurrentHashMap<XZPosition, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private Segment current;
+    private boolean closed;
+
+    public static class Spilled {
+        public final ByteBuffer chunk;
+        public final ByteBuffer extra;
+
+        Spilled(ByteBuffer chunk, ByteBuffer extra) {
+            this.chunk = chunk;
+            this.extra = extra;
+        }
+    }
+
+    private static class Entry {
+        final Segment segment;
+        final int offset;
+        final int chunkSize;
+        final int extraSize;
+        final int timestamp;
+        final int entityTimestamp;
+
+        Entry(Segment segment, int offset, int chunkSize, int extraSize, int timestamp, int entityTimestamp) {
+            this.segment = segment;
+            this.offset = offset;
+            this.chunkSize = chunkSize;
+            this.extraSize = extraSize;
+            this.timestamp = timestamp;
+            this.entityTimestamp = entityTimestamp;
+        }
+
+        int size() {
+            return chunkSize + extraSize;
+        }
+    }
+
+    private static class Segment {
+        final File file;
+        final MappedByteBuffer data;
+        int used;
+        int live;
+
+        Segment(File file, MappedByteBuffer data) {
+            this.file = file;
+            this.data = data;
+        }
+    }
+
+    /**
+     * @param folder where the temp files are created, null for the default
+     * temp folder
+     */
+    public ChunkSpillStore(File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Returns the spilled data of a chunk if it is still valid.
+     */
+    public Spilled get(XZPosition pos, int timestamp, int entityTimestamp) {
+        final Entry e = entries.get(pos);
+        if(e == null || e.timestamp != timestamp || e.entityTimestamp != entityTimestamp) {
+            if(e != null && entries.remove(pos, e))
+                release(e);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        final ByteBuffer chunk = e.segment.data.slice(e.offset, e.chunkSize);
+        final ByteBuffer extra = (e.extraSize > 0)
+                ? e.segment.data.slice(e.offset + e.chunkSize, e.extraSize) : null;
+        return new Spilled(chunk, extra);
+    }
+
+    /**
+     * Stores the data of a chunk. Chunks which don't fit into a segment or
+     * can't be written are not stored.
+     */
+    public void put(XZPosition pos, int timestamp, int entityTimestamp, ByteBuffer chunk, ByteBuffer extra) {
+        final int chunkSize = chunk.remaining();
+        final int extraSize = (extra != null) ? extra.remaining() : 0;
+        if(chunkSize + extraSize > SEGMENT_SIZE)
+            return;
+        final Entry e;
+        synchronized(this) {
+            e = allocate(chunkSize, extraSize, timestamp, entityTimestamp);
+        }
+        if(e == null)
+            return;
+        e.segment.data.put(e.offset, chunk.duplicate(), 0, chunkSize);
+        if(extra != null)
+            e.segment.data.put(e.offset + chunkSize, extra.duplicate(), 0, extraSize);
+        final Entry old = entries.put(pos, e);
+        if(old != null)
+            release(old);
+    }
+
+    private Entry allocate(int chunkSize, int extraSize, int timestamp, int entityTimestamp) {
+        final int size = chunkSize + extraSize;
+        if(closed)
+            return null;
+        if(current == null || SEGMENT_SIZE - current.used < size) {
+            try {
+                current = createSegment();
+            } catch(IOException ex) {
+                Logger.getLogger(ChunkSpillStore.class.getName()).log(Level.WARNING,
+                        "Could not create chunk spill file", ex);
+                return null;
+            }
+        }
+        final Entry e = new Entry(current, current.used, chunkSize, extraSize, timestamp, entityTimestamp);
+        current.used += size;
+        current.live += size;
+        return e;
+    }
+
+    private synchronized void release(Entry e) {
+        final Segment segment = e.segment;
+        segment.live -= e.size();
+        if(!closed && segment != current && segment.live <= segment.used / 2)
+            compact(segment);
+    }
+
+    /**
+     * Moves the live entries of a segment to the current segment and deletes
+     * its file. Readers which still use a slice of it are not affected as the
+     * mapping stays valid until it is garbage collected.
+     */
+    private void compact(Segment segment) {
+        if(!segments.remove(segment))
+            return;
+        for(Map.Entry<XZPosition, Entry> me : entries.entrySet()) {
+            final Entry e = me.getValue();
+            if(e.segment != segment)
+                continue;
+            final Entry moved = allocate(e.chunkSize, e.extraSize, e.timestamp, e.entityTimestamp);
+            if(moved == null) {
+                entries.remove(me.getKey(), e);
+                continue;
+            }
+            moved.segment.data.put(moved.offset, segment.data, e.offset, e.size());
+            if(!entries.replace(me.getKey(), e, moved))
+                moved.segment.live -= moved.size();
+        }
+        segment.file.delete();
+    }
+
+    private Segment createSegment() throws IOException {
+        final File file = File.createTempFile("chunks", ".spill", folder);
+        file.deleteOnExit();
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final var data = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            final Segment segment = new Segment(file, data);
+            segments.add(segment);
+            return segment;
+        }
+    }
+
+    /**
+     * Deletes the temp files. Mappings which are still in use stay valid
+     * until they are garbage collected.
+     */
+    public synchronized void close() {
+        closed = true;
+        current = null;
+        entries.clear();
+        segments.forEach(s -> s.file.delete());
+        segments.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public synchronized long getFileSize() {
+        return (long)segments.size() * SEGMENT_SIZE;
+    }
+
+    /**
+     * Returns the size of the entries which are still valid.
+     */
+    public synchronized long getUsed() {
+        return segments.stream().mapToLong(s -> s.live).sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        final long h = hits.sum();
+        final long total = h + misses.sum();
+        return (total > 0) ? h / (double) total : 0.0;
+    }
+}
@@ -0,0 +1,388 @@
+package mcworldinspector;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Data derived from a chunk which is needed to build the type lists of the
+ * info panels and to render the surface map and which can be stored in a
+ * {@link SummaryCache}.
+ *
+ * @author matthias
+ */
+public class ChunkSummary extends XZPosition {
+
+    private static final int SURFACE_NONE = 0;
+    private static final int SURFACE_SAME = 1;
+    private static final int SURFACE_OWN = 2;
+
+    private final int timestamp;
+    private final int entityTimestamp;
+    private final String[] blockTypes;
+    private final Surface surface;
+    private final Surface surfaceNoLeaves;
+    private final int[] biomes;
+    private final int[] biomeCounts;
+    private final byte[] columnBiomes;
+    private final String[] entityTypes;
+    private final int[] entityCounts;
+    private final String[] tileEntityTypes;
+    private final int[] tileEntityCounts;
+
+    private ChunkSummary(int x, int z, int timestamp, int entityTimestamp,
+            String[] blockTypes, Surface surface, Surface surfaceNoLeaves,
+            int[] biomes, int[] biomeCounts, byte[] columnBiomes,
+            String[] entityTypes, int[] entityCounts,
+            String[] tileEntityTypes, int[] tileEntityCounts) {
+        super(x, z);
+        this.timestamp = timestamp;
+        this.entityTimestamp = entityTimestamp;
+        this.blockTypes = blockTypes;
+        this.surface = surface;
+        this.surfaceNoLeaves = surfaceNoLeaves;
+        this.biomes = biomes;
+        this.biomeCounts = biomeCounts;
+        this.columnBiomes = columnBiomes;
+        this.entityTypes = entityTypes;
+        this.entityCounts = entityCounts;
+        this.tileEntityTypes = tileEntityTypes;
+        this.tileEntityCounts = tileEntityCounts;
+    }
+
+    public static ChunkSummary of(Chunk chunk, int timestamp, int entityTimestamp) {
+        final String[] blockTypes = chunk.subChunks().flatMap(SubChunk::getBlockTypes)
+                .distinct().sorted().toArray(String[]::new);
+
+        final Surface surface = Surface.of(chunk, true);
+        Surface surfaceNoLeaves = Surface.of(chunk, false);
+        if(surface != null && surface.sameAs(surfaceNoLeaves))
+            surfaceNoLeaves = surface;
+
+        final TreeMap<Integer, Integer> biomeMap = new TreeMap<>();
+        chunk.biomes().forEach(b -> biomeMap.merge(b, 1, Integer::sum));
+        final int[] biomes = biomeMap.keySet().stream().mapToInt(Integer::intValue).toArray();
+        byte[] columnBiomes = null;
+        final var chunkBiomes = chunk.getBiomes();
+        if(chunkBiomes != null) {
+            columnBiomes = new byte[256];
+            for(int xz=0 ; xz<256 ; xz++)
+                columnBiomes[xz] = (byte)Arrays.binarySearch(biomes, chunkBiomes.getBiome(xz));
+        }
+
+        final var entityMap = count(chunk.entityTypes());
+        final var tileEntityMap = count(chunk.tileEntityTypes());
+
+        return new ChunkSummary(chunk.x, chunk.z, timestamp, entityTimestamp,
+                blockTypes, surface, surfaceNoLeaves,
+                biomes, biomeMap.values().stream().mapToInt(Integer::intValue).toArray(),
+                columnBiomes,
+                entityMap.keySet().toArray(String[]::new),
+                entityMap.values().stream().mapToInt(Integer::intValue).toArray(),
+                tileEntityMap.keySet().toArray(String[]::new),
+                tileEntityMap.values().stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Creates the summary of a chunk which has no height map.
+     */
+    public static ChunkSummary empty(int x, int z, int timestamp, int entityTimestamp) {
+        return new ChunkSummary(x, z, timestamp, entityTimestamp, new String[0],
+                null, null, new int[0], new int[0], null,
+                new String[0], new int[0], new String[0], new int[0]);
+    }
+
+    private static TreeMap<String, Integer> count(Stream<String> types) {
+        return types.collect(Collectors.toMap(t -> t, t -> 1, Integer::sum, TreeMap::new));
+    }
+
+    public boolean isValid(int timestamp, int entityTimestamp) {
+        return this.timestamp == timestamp && this.entityTimestamp == entityTimestamp;
+    }
+
+    public int getTimestamp() {
+        return timestamp;
+    }
+
+    public int getEntityTimestamp() {
+        return entityTimestamp;
+    }
+
+    /**
+     * Returns true if the chunk has no height map. Such chunks are not
+     * loaded and not shown.
+     */
+    public boolean isEmpty() {
+        return surface == null;
+    }
+
+    public Stream<String> blockTypes() {
+        return Arrays.stream(blockTypes);
+    }
+
+    public boolean hasAnyBlockType(List<String> types) {
+        return types.stream().anyMatch(t -> Arrays.binarySearch(blockTypes, t) >= 0);
+    }
+
+    /**
+     * Returns the heights and top blocks of the columns or null if the chunk
+     * has no such height map.
+     */
+    public Surface getSurface(boolean withLeaves) {
+        return withLeaves ? surface : surfaceNoLeaves;
+    }
+
+    public IntStream biomes() {
+        return IntStream.of(biomes);
+    }
+
+    /**
+     * Returns the number of columns with the given biome.
+     */
+    public int getBiomeCount(int biome) {
+        final int idx = Arrays.binarySearch(biomes, biome);
+        return (idx >= 0) ? biomeCounts[idx] : 0;
+    }
+
+    /**
+     * Returns the biome of each column or null if the chunk has no biomes.
+     */
+    public Chunk.Biomes getColumnBiomes() {
+        if(columnBiomes == null)
+            return null;
+        return new Chunk.Biomes() {
+            @Override
+            public int getBiome(int xz) {
+                return biomes[columnBiomes[xz] & 255];
+            }
+
+            @Override
+            public IntStream stream() {
+                return IntStream.range(0, 256).map(this::getBiome);
+            }
+        };
+    }
+
+    public Stream<String> entityTypes() {
+        return Arrays.stream(entityTypes);
+    }
+
+    public int getEntityCount(String type) {
+        final int idx = Arrays.binarySearch(entityTypes, type);
+        return (idx >= 0) ? entityCounts[idx] : 0;
+    }
+
+    public boolean hasAnyEntityType(List<String> types) {
+        return types.stream().anyMatch(t -> Arrays.binarySearch(entityTypes, t) >= 0);
+    }
+
+    public Stream<String> tileEntityTypes() {
+        return Arrays.stream(tileEntityTypes);
+    }
+
+    public int getTileEntityCount(String type) {
+        final int idx = Arrays.binarySearch(tileEntityTypes, type);
+        return (idx >= 0) ? tileEntityCounts[idx] : 0;
+    }
+
+    public boolean hasAnyTileEntityType(List<String> types) {
+        return types.stream().anyMatch(t -> Arrays.binarySearch(tileEntityTypes, t) >= 0);
+    }
+
+    /**
+     * Writes the summary. Strings are written as indices into a table which
+     * is stored separately by the caller.
+     */
+    public void write(DataOutput out, ToIntFunction<String> strings) throws IOException {
+        out.writeShort(x & 31 | (z & 31) << 5);
+        out.writeInt(timestamp);
+        out.writeInt(entityTimestamp);
+        writeStrings(out, blockTypes, strings);
+        out.writeBoolean(surface != null);
+        if(surface != null)
+            surface.write(out, strings);
+        if(surfaceNoLeaves == null)
+            out.writeByte(SURFACE_NONE);
+        else if(surfaceNoLeaves == surface)
+            out.writeByte(SURFACE_SAME);
+        else {
+            out.writeByte(SURFACE_OWN);
+            surfaceNoLeaves.write(out, strings);
+        }
+        writeCounts(out, biomes, biomeCounts);
+        out.writeBoolean(columnBiomes != null);
+        if(columnBiomes != null)
+            out.write(columnBiomes);
+        writeStrings(out, entityTypes, strings);
+        writeCounts(out, null, entityCounts);
+        writeStrings(out, tileEntityTypes, strings);
+        writeCounts(out, null, tileEntityCounts);
+    }
+
+    public static ChunkSummary read(DataInput in, int regionX, int regionZ, String[] strings) throws IOException {
+        final int idx = in.readUnsignedShort();
+        if(idx >= 32 * 32)
+            throw new IOException("Invalid chunk index " + idx);
+        final int timestamp = in.readInt();
+        final int entityTimestamp = in.readInt();
+        final String[] blockTypes = readStrings(in, strings);
+        final Surface surface = in.readBoolean() ? Surface.read(in, strings) : null;
+        final Surface surfaceNoLeaves = switch(in.readUnsignedByte()) {
+            case SURFACE_NONE -> null;
+            case SURFACE_SAME -> surface;
+            case SURFACE_OWN -> Surface.read(in, strings);
+            default -> throw new IOException("Invalid surface type");
+        };
+        final int[] biomes = readInts(in, in.readUnsignedShort());
+        final int[] biomeCounts = readInts(in, biomes.length);
+        byte[] columnBiomes = null;
+        if(in.readBoolean()) {
+            columnBiomes = new byte[256];
+            in.readFully(columnBiomes);
+            for(byte b : columnBiomes)
+                if((b & 255) >= biomes.length)
+                    throw new IOException("Invalid biome index");
+        }
+        final String[] entityTypes = readStrings(in, strings);
+        final int[] entityCounts = readInts(in, entityTypes.length);
+        final String[] tileEntityTypes = readStrings(in, strings);
+        final int[] tileEntityCounts = readInts(in, tileEntityTypes.length);
+        return new ChunkSummary(regionX + (idx & 31), regionZ + (idx >> 5),
+                timestamp, entityTimestamp, blockTypes, surface, surfaceNoLeaves,
+                biomes, biomeCounts, columnBiomes, entityTypes, entityCounts,
+                tileEntityTypes, tileEntityCounts);
+    }
+
+    private static void writeStrings(DataOutput out, String[] values, ToIntFunction<String> strings) throws IOException {
+        out.writeShort(values.length);
+        for(String s : values)
+            out.writeInt(strings.applyAsInt(s));
+    }
+
+    private static String[] readStrings(DataInput in, String[] strings) throws IOException {
+        final String[] result = new String[in.readUnsignedShort()];
+        for(int i=0 ; i<result.length ; i++) {
+            final int idx = in.readInt();
+            if(idx < 0 || idx >= strings.length)
+                throw new IOException("Invalid string index " + idx);
+            result[i] = strings[idx];
+        }
+        return result;
+    }
+
+    private static void writeCounts(DataOutput out, int[] keys, int[] counts) throws IOException {
+        if(keys != null) {
+            out.writeShort(keys.length);
+            for(int k : keys)
+                out.writeInt(k);
+        }
+        for(int c : counts)
+            out.writeInt(c);
+    }
+
+    private static int[] readInts(DataInput in, int count) throws IOException {
+        final int[] result = new int[count];
+        for(int i=0 ; i<count ; i++)
+            result[i] = in.readInt();
+        return result;
+    }
+
+    /**
+     * The height map of a chunk together with the name of the block at the
+     * top of each column.
+     */
+    public static class Surface implements Chunk.HeightMap {
+        private final short[] heights;
+        private final String[] palette;
+        private final byte[] blocks;
+
+        private Surface(short[] heights, String[] palette, byte[] blocks) {
+            this.heights = heights;
+            this.palette = palette;
+            this.blocks = blocks;
+        }
+
+        static Surface of(Chunk chunk, boolean withLeaves) {
+            final var hm = chunk.getHeightmap(withLeaves);
+            if(hm == null)
+                return null;
+            final short[] heights = new short[256];
+            final String[] names = new String[256];
+            final TreeSet<String> sorted = new TreeSet<>();
+            for(int xz=0 ; xz<256 ; xz++) {
+                heights[xz] = (short)hm.getHeight(xz);
+                final String name = chunk.getTopBlock(hm, xz, (idx, y, sc, index) -> {
+                    final var block = sc.getBlockFromPalette(index);
+                    return (block != null) ? block.getString("Name") : null;
+                });
+                // an empty name marks columns without a surface block
+                names[xz] = (name != null) ? name : "";
+                sorted.add(names[xz]);
+            }
+            final String[] palette = sorted.toArray(String[]::new);
+            final byte[] blocks = new byte[256];
+            for(int xz=0 ; xz<256 ; xz++)
+                blocks[xz] = (byte)Arrays.binarySearch(palette, names[xz]);
+            return new Surface(heights, palette, blocks);
+        }
+
+        boolean sameAs(Surface other) {
+            return other != null && Arrays.equals(heights, other.heights)
+                    && Arrays.equals(palette, other.palette)
+                    && Arrays.equals(blocks, other.blocks);
+        }
+
+        /**
+         * Returns the height map value (one above the top block) of a column.
+         */
+        @Override
+        public int getHeight(int xz) {
+            return heights[xz];
+        }
+
+        /**
+         * Returns the names of the top blocks. Columns without a top block
+         * use an empty name.
+         */
+        public String[] getPalette() {
+            return palette;
+        }
+
+        public int getBlockIndex(int xz) {
+            return blocks[xz] & 255;
+        }
+
+        public String getBlock(int xz) {
+            final String name = palette[getBlockIndex(xz)];
+            return name.isEmpty() ? null : name;
+        }
+
+        void write(DataOutput out, ToIntFunction<String> strings) throws IOException {
+            for(short h : heights)
+                out.writeShort(h);
+            writeStrings(out, palette, strings);
+            out.write(blocks);
+        }
+
+        static Surface read(DataInput in, String[] strings) throws IOException {
+            final short[] heights = new short[256];
+            for(int i=0 ; i<256 ; i++)
+                heights[i] = in.readShort();
+            final String[] palette = readStrings(in, strings);
+            final byte[] blocks = new byte[256];
+            in.readFully(blocks);
+            for(byte b : blocks)
+                if((b & 255) >= palette.length)
+                    throw new IOException("Invalid surface block index");
+            return new Surface(heights, palette, blocks);
+        }
+    }
+}
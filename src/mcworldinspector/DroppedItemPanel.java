@@ -4,12 +4,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import mcworldinspector.nbt.NBTTagCompound;
-import mcworldinspector.utils.AsyncExecution;
 
 /**
  *
@@ -35,13 +32,14 @@ public class DroppedItemPanel extends AbstractFilteredPanel<String> {
     @Override
     public void setWorld(World world, WorldRenderer renderer) {
         super.setWorld(world, renderer);
-        AsyncExecution.submitNoThrow(executorService, () -> {
-            return world.chunks()
-                    .flatMap(chunk -> chunk.getEntities(MINECRAFT_ITEM))
-                    .map(DroppedItemPanel::getItemID)
-                    .filter(Objects::nonNull)
-                .collect(Collectors.toCollection(TreeSet::new));
-        }, result -> {
+        updateList();
+    }
+
+    @Override
+    protected void updateList() {
+        updateListFromChunks(executorService, chunk -> chunk.getEntities(MINECRAFT_ITEM)
+                .map(DroppedItemPanel::getItemID)
+                .filter(Objects::nonNull), result -> {
             items = result;
             buildListModel();
         });
@@ -63,7 +61,7 @@ public class DroppedItemPanel extends AbstractFilteredPanel<String> {
 
     @Override
     protected Stream<? extends WorldRenderer.HighlightEntry> createHighlighter(List<String> selected) {
-        return EntityTypesPanel.createHighlighter(world,
+        return EntityTypesPanel.createHighlighter(world, List.of(MINECRAFT_ITEM),
                 e -> isDroppedItem(e, selected), "Dropped item details for ");
     }
 }
@@ -6,7 +6,6 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -14,7 +13,6 @@ import java.util.stream.Stream;
 import mcworldinspector.nbt.NBTDoubleArray;
 import mcworldinspector.nbt.NBTTagCompound;
 import mcworldinspector.nbttree.NBTTreeModel;
-import mcworldinspector.utils.AsyncExecution;
 
 /**
  *
@@ -38,10 +36,12 @@ public class EntityTypesPanel extends AbstractFilteredPanel<String> {
     @Override
     public void setWorld(World world, WorldRenderer renderer) {
         super.setWorld(world, renderer);
-        AsyncExecution.submitNoThrow(executorService, () -> {
-            return world.chunks().flatMap(Chunk::entityTypes)
-                    .collect(Collectors.toCollection(TreeSet::new));
-        }, result -> {
+        updateList();
+    }
+
+    @Override
+    protected void updateList() {
+        updateListFromSummaries(executorService, ChunkSummary::entityTypes, result -> {
             entities = result;
             buildListModel();
         });
@@ -54,13 +54,16 @@ public class EntityTypesPanel extends AbstractFilteredPanel<String> {
 
     @Override
     protected Stream<? extends WorldRenderer.HighlightEntry> createHighlighter(List<String> selected) {
-        return createHighlighter(world, Chunk.filterByID(selected),
+        return createHighlighter(world, selected, Chunk.filterByID(selected),
                 "Entity details for ");
     }
 
+    /**
+     * @param types only chunks with one of these entity types are searched
+     */
     public static Stream<? extends WorldRenderer.HighlightEntry> createHighlighter(
-            World world, Predicate<NBTTagCompound> filter, String titlePrefix) {
-        return world.getChunks().parallelStream()
+            World world, List<String> types, Predicate<NBTTagCompound> filter, String titlePrefix) {
+        return world.chunks(s -> s.hasAnyEntityType(types)).parallel()
                 .filter(chunk -> chunk.entities().anyMatch(filter))
                 .map(chunk -> new ChunkHighlightEntry(chunk) {
                     @Override
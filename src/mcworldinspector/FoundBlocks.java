@@ -0,0 +1,149 @@
+package mcworldinspector;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Growable result buffer for block searches. Each hit is stored as a packed
+ * position and the id of its block state in the {@link BlockStateRegistry},
+ * so a search doesn't create an object per block. {@link SubChunk.BlockInfo}
+ * objects are only created when a hit is accessed.
+ *
+ * Positions use 26 bits for X and Z and 12 bits for Y.
+ *
+ * @author matthias
+ */
+public class FoundBlocks {
+
+    private long[] positions;
+    private int[] states;
+    private int size;
+
+    public FoundBlocks() {
+        this(64);
+    }
+
+    public FoundBlocks(int capacity) {
+        positions = new long[Math.max(capacity, 16)];
+        states = new int[positions.length];
+    }
+
+    public static long pack(int x, int y, int z) {
+        return ((long)(x & 0x3FFFFFF) << 38) | ((long)(z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    public static int unpackX(long pos) {
+        return (int)(pos >> 38);
+    }
+
+    public static int unpackY(long pos) {
+        return (int)(pos << 52 >> 52);
+    }
+
+    public static int unpackZ(long pos) {
+        return (int)(pos << 26 >> 38);
+    }
+
+    /**
+     * Makes room for {@code count} more hits.
+     */
+    public void ensureCapacity(int count) {
+        final int required = size + count;
+        if(required > positions.length) {
+            final int capacity = Math.max(required, positions.length * 2);
+            positions = Arrays.copyOf(positions, capacity);
+            states = Arrays.copyOf(states, capacity);
+        }
+    }
+
+    public void add(long pos, int stateId) {
+        if(size == positions.length)
+            ensureCapacity(1);
+        positions[size] = pos;
+        states[size++] = stateId;
+    }
+
+    public void add(int x, int y, int z, int stateId) {
+        add(pack(x, y, z), stateId);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public long getPosition(int idx) {
+        return positions[checkIndex(idx)];
+    }
+
+    public int getX(int idx) {
+        return unpackX(getPosition(idx));
+    }
+
+    public int getY(int idx) {
+        return unpackY(getPosition(idx));
+    }
+
+    public int getZ(int idx) {
+        return unpackZ(getPosition(idx));
+    }
+
+    public int getStateId(int idx) {
+        return states[checkIndex(idx)];
+    }
+
+    public BlockStateRegistry.BlockState getBlockState(int idx) {
+        return BlockStateRegistry.get(getStateId(idx));
+    }
+
+    public SubChunk.BlockInfo getBlockInfo(int idx) {
+        final long pos = getPosition(idx);
+        return new SubChunk.BlockInfo(unpackX(pos), unpackY(pos), unpackZ(pos),
+                BlockStateRegistry.get(states[idx]).block);
+    }
+
+    private int checkIndex(int idx) {
+        if(idx < 0 || idx >= size)
+            throw new IndexOutOfBoundsException(idx);
+        return idx;
+    }
+
+    /**
+     * Returns a view of the hits {@code from} (inclusive) to {@code to}
+     * (exclusive) which creates the {@link SubChunk.BlockInfo} on access.
+     */
+    public List<SubChunk.BlockInfo> subList(int from, int to) {
+        if(from < 0 || from > to || to > size)
+            throw new IndexOutOfBoundsException(from);
+        return new AbstractList<>() {
+            @Override
+            public SubChunk.BlockInfo get(int index) {
+                if(index < 0 || index >= to - from)
+                    throw new IndexOutOfBoundsException(index);
+                return getBlockInfo(from + index);
+            }
+
+            @Override
+            public int size() {
+                return to - from;
+            }
+        };
+    }
+
+    public List<SubChunk.BlockInfo> asList() {
+        return subList(0, size);
+    }
+
+    public Stream<SubChunk.BlockInfo> stream() {
+        return asList().stream();
+    }
+}
@@ -0,0 +1,248 @@
+package mcworldinspector;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import mcworldinspector.utils.AsyncPendingCounter;
+
+/**
+ * Schedules the loading of region files in two stages. The I/O stage reads
+ * the raw chunk data of a region file and hands each chunk to the decode
+ * stage which decompresses and parses it. Only a limited number of chunks
+ * may wait for decoding - when the decode stage can't keep up the I/O stage
+ * blocks. The number of region files in flight is adjusted to the measured
+ * chunk throughput.
+ *
+ * @author matthias
+ */
+public class LoadScheduler {
+
+    public static final int MIN_REGIONS = 1;
+    public static final int MAX_REGIONS = 32;
+    private static final int INITIAL_REGIONS = 4;
+    private static final int TUNE_INTERVAL = 4;
+
+    private final ThreadPoolExecutor ioExecutor;
+    private final ThreadPoolExecutor decodeExecutor;
+    private final Executor completion;
+    private final int maxQueuedChunks;
+    private final Semaphore decodeSlots;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder ioNanos = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private final LongAdder chunksDecoded = new LongAdder();
+    private final long startTime = System.nanoTime();
+
+    // only accessed on the completion executor
+    private volatile int regionLimit = INITIAL_REGIONS;
+    private int direction = 1;
+    private int windowRegions;
+    private int windowChunks;
+    private long windowStart = startTime;
+    private double lastThroughput;
+
+    /**
+     * @param name prefix for the thread names
+     * @param completion executes the completion callbacks sequentially
+     */
+    public LoadScheduler(String name, Executor completion) {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        this.completion = completion;
+        this.maxQueuedChunks = threads * 2;
+        this.decodeSlots = new Semaphore(threads + maxQueuedChunks);
+        this.ioExecutor = new ThreadPoolExecutor(MAX_REGIONS, MAX_REGIONS,
+                10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                threadFactory(name + " I/O thread "));
+        this.ioExecutor.allowCoreThreadTimeOut(true);
+        this.decodeExecutor = new ThreadPoolExecutor(threads, threads,
+                0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                threadFactory(name + " decode thread "));
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        return r -> new Thread(r, prefix + threadNumber.getAndIncrement());
+    }
+
+    public Executor getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Returns true if another region can be submitted without exceeding
+     * the current limit of regions in flight.
+     */
+    public boolean hasCapacity() {
+        return inFlight.get() < regionLimit;
+    }
+
+    /**
+     * Returns the executor of the decode stage for short tasks like loading
+     * level.dat. These tasks don't count against the region limit.
+     */
+    public Executor getExecutor() {
+        return decodeExecutor;
+    }
+
+    /**
+     * Submits a region to the I/O stage. The reader runs on an I/O thread
+     * and may hand chunks to {@link Region#decode}. The runnable it returns
+     * is executed on the completion executor once all these chunks have
+     * been decoded. When the reader fails {@code failed} is called instead.
+     */
+    public void submitRegion(RegionReader reader, Consumer<Exception> failed) {
+        inFlight.incrementAndGet();
+        ioExecutor.execute(() -> {
+            final Region region = new Region();
+            final long start = System.nanoTime();
+            try {
+                region.done = reader.read(region);
+            } catch (Exception ex) {
+                region.done = () -> failed.accept(ex);
+            } finally {
+                ioNanos.add(System.nanoTime() - start - region.blocked);
+            }
+            region.pending.decrement();
+        });
+    }
+
+    public void shutdown() {
+        ioExecutor.shutdown();
+        decodeExecutor.shutdown();
+    }
+
+    /**
+     * Drops all queued work and interrupts the I/O threads. Regions which
+     * are in flight never complete.
+     */
+    public void cancel() {
+        ioExecutor.shutdownNow();
+        decodeExecutor.shutdownNow();
+    }
+
+    private void regionFinished(Region region) {
+        inFlight.decrementAndGet();
+        windowRegions++;
+        windowChunks += region.chunks;
+        if (windowRegions < Math.max(TUNE_INTERVAL, regionLimit)) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final double throughput = windowChunks * 1e9 / Math.max(1, now - windowStart);
+        if (throughput < lastThroughput * 1.05) {
+            // no improvement - try the other direction
+            direction = -direction;
+        }
+        regionLimit = Math.max(MIN_REGIONS, Math.min(MAX_REGIONS, regionLimit + direction));
+        lastThroughput = throughput;
+        windowRegions = 0;
+        windowChunks = 0;
+        windowStart = now;
+    }
+
+    public int getRegionLimit() {
+        return regionLimit;
+    }
+
+    public int getRegionsInFlight() {
+        return inFlight.get();
+    }
+
+    public int getIOQueueDepth() {
+        return ioExecutor.getQueue().size();
+    }
+
+    public int getDecodeQueueDepth() {
+        return decodeExecutor.getQueue().size();
+    }
+
+    public long getChunksDecoded() {
+        return chunksDecoded.sum();
+    }
+
+    /**
+     * Time spent by the I/O threads reading, excluding the time they were
+     * blocked by a full decode queue.
+     */
+    public long getIOMillis() {
+        return ioNanos.sum() / 1000000;
+    }
+
+    public long getDecodeMillis() {
+        return decodeNanos.sum() / 1000000;
+    }
+
+    public long getBlockedMillis() {
+        return blockedNanos.sum() / 1000000;
+    }
+
+    public String getStatusText() {
+        return String.format("%d/%d region files in flight, %d waiting for I/O, %d chunks waiting for decode",
+                getRegionsInFlight(), getRegionLimit(), getIOQueueDepth(), getDecodeQueueDepth());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d chunks in %d ms, I/O %d ms, decode %d ms, " +
+                "blocked by decode %d ms, region limit %d",
+                getChunksDecoded(), (System.nanoTime() - startTime) / 1000000,
+                getIOMillis(), getDecodeMillis(), getBlockedMillis(), getRegionLimit());
+    }
+
+    public @FunctionalInterface
+    interface RegionReader {
+        public Runnable read(Region region) throws Exception;
+    }
+
+    public final class Region {
+        private final AsyncPendingCounter pending = new AsyncPendingCounter(
+                this::finished, 1, completion);
+        private volatile Runnable done;
+        private long blocked;
+        private int chunks;
+
+        private Region() {
+        }
+
+        /**
+         * Queues a chunk for decoding. Blocks while the decode queue is full.
+         */
+        public void decode(Runnable task) throws InterruptedIOException {
+            final long start = System.nanoTime();
+            try {
+                decodeSlots.acquire();
+            } catch (InterruptedException ex) {
+                throw new InterruptedIOException();
+            }
+            final long waited = System.nanoTime() - start;
+            blocked += waited;
+            blockedNanos.add(waited);
+            chunks++;
+            pending.incrementAndGet();
+            decodeExecutor.execute(() -> {
+                final long decodeStart = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    decodeNanos.add(System.nanoTime() - decodeStart);
+                    chunksDecoded.increment();
+                    decodeSlots.release();
+                    pending.decrement();
+                }
+            });
+        }
+
+        private void finished() {
+            regionFinished(this);
+            done.run();
+        }
+    }
+}
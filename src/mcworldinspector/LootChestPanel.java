@@ -3,11 +3,8 @@ package mcworldinspector;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import mcworldinspector.utils.AsyncExecution;
 
 /**
  *
@@ -31,12 +28,13 @@ public class LootChestPanel extends AbstractFilteredPanel<String> {
     @Override
     public void setWorld(World world, WorldRenderer renderer) {
         super.setWorld(world, renderer);
-        AsyncExecution.submitNoThrow(executorService, () -> {
-            return world.chunks().flatMap(Chunk::tileEntities)
-                    .flatMap(t -> t.getStringAsStream("LootTable"))
-                    .distinct()
-                    .collect(Collectors.toCollection(TreeSet::new));
-        }, result -> {
+        updateList();
+    }
+
+    @Override
+    protected void updateList() {
+        updateListFromChunks(executorService, chunk -> chunk.tileEntities()
+                .flatMap(t -> t.getStringAsStream("LootTable")), result -> {
             tileEntities = result;
             buildListModel();
         });
@@ -49,7 +47,7 @@ public class LootChestPanel extends AbstractFilteredPanel<String> {
 
     @Override
     protected Stream<? extends WorldRenderer.HighlightEntry> createHighlighter(List<String> selected) {
-        return world.getChunks().parallelStream()
+        return world.chunks().parallel()
                 .filter(chunk -> chunk.tileEntities().flatMap(t -> t.getStringAsStream("LootTable")).anyMatch(selected::contains))
                 .map(chunk -> new TileEntityTypesPanel.TileEntityHighlightEntry(chunk,
                         "Tile entity details for ",
@@ -26,9 +26,12 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.prefs.Preferences;
 import java.util.stream.Collectors;
 import javax.swing.AbstractAction;
+import javax.swing.ButtonGroup;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.GroupLayout;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
@@ -39,6 +42,8 @@ import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
@@ -52,8 +57,11 @@ import javax.swing.filechooser.FileView;
 import javax.swing.table.AbstractTableModel;
 import static mcworldinspector.CreateColorMapDialog.BCM_EXTENSION_FILTER;
 import static mcworldinspector.CreateColorMapDialog.RECENT_FOLDER_COLORMAP_KEY;
+import mcworldinspector.nbt.NBTStringPool;
 import mcworldinspector.nbt.NBTTagCompound;
 import mcworldinspector.nbttree.NBTTreeModel;
+import mcworldinspector.utils.AsyncExecution;
+import mcworldinspector.utils.DecompressionPool;
 import mcworldinspector.utils.FileError;
 import mcworldinspector.utils.FileHelpers;
 import mcworldinspector.utils.MemoryUsageIndicator;
@@ -67,6 +75,14 @@ import mcworldinspector.utils.StatusBar;
 public class MCWorldInspector extends javax.swing.JFrame {
 
     private static final String ACTIVE_COLOR_MAP_KEY = "active_color_map";
+    private static final String READ_STRATEGY_KEY = "region_read_strategy";
+    private static final String LAZY_LOADING_KEY = "lazy_chunk_loading";
+    private static final String SUMMARY_CACHE_KEY = "chunk_summary_cache";
+    private static final String PROGRESSIVE_LOADING_KEY = "progressive_loading";
+    private static final String OFF_HEAP_KEY = "off_heap_block_data";
+    private static final String CACHE_BUDGET_KEY = "chunk_cache_budget_mb";
+    private static final String SPILL_KEY = "spill_evicted_chunks";
+    private static final long PANEL_UPDATE_INTERVAL = 2000000000L;  // 2s
 
     private final Preferences preferences;
     private final ExecutorService workerPool;
@@ -78,10 +94,13 @@ public class MCWorldInspector extends javax.swing.JFrame {
     private final JTextField statusBarCursorPos = new JTextField();
     private final JTextField statusBarBiome = new JTextField();
     private final JTextField statusBarBlockInfo = new JTextField();
+    private final JProgressBar statusBarProgress = new JProgressBar();
     private File worldFolder;
     private World world;
     private WorldRenderer renderer;
     private BlockColorMap blockColorMap = BlockColorMap.EMPTY;
+    private World.AsyncLoading activeLoading;
+    private long nextPanelUpdate;
 
     public MCWorldInspector(String[] args) {
         super("MC World Inspector");
@@ -111,6 +130,7 @@ public class MCWorldInspector extends javax.swing.JFrame {
         infoPanels.add(new BiomeTypesPanel(workerPool));
         infoPanels.add(new StructureTypesPanel(workerPool));
         infoPanels.add(new SimpleThingsPanel(workerPool));
+        infoPanels.add(new QueryPanel(workerPool));
         infoPanels.add(new MapsPanel());
 
         EventQueue.invokeLater(() -> {
@@ -163,11 +183,10 @@ public class MCWorldInspector extends javax.swing.JFrame {
     }
 
     private void scrollToPlayerorSpawn() {
-        Chunk chunk = world.getPlayerChunk();
-        if(chunk == null)
-            chunk = world.getSpawnChunk();
-        if(chunk != null)
-            renderer.scrollTo(chunk, true);
+        // the chunk may not be loaded yet while loading progressively
+        final XZPosition pos = world.getPlayerOrSpawnPos();
+        if(pos != null)
+            renderer.scrollTo(new XZPosition(pos.x >> 4, pos.z >> 4), true);
     }
 
     private void openWorld() {
@@ -205,8 +224,29 @@ public class MCWorldInspector extends javax.swing.JFrame {
         }
     }
 
+    private String getChunkCacheStatus() {
+        if(world == null || !world.isLazy())
+            return null;
+        final var cache = world.getChunkCache();
+        final var store = world.getSpillStore();
+        if(store == null)
+            return String.format("%d chunks, %.0f%% hits", cache.size(),
+                    cache.getHitRate() * 100.0);
+        return String.format("%d resident, %d spilled, %.0f%% hits", cache.size(),
+                Math.max(0, store.size() - cache.size()), cache.getHitRate() * 100.0);
+    }
+
     private void closeWorld() {
+        if(activeLoading != null) {
+            activeLoading.cancel();
+            activeLoading = null;
+            statusBarProgress.setVisible(false);
+        }
         World oldWorld = world;
+        if(oldWorld != null) {
+            oldWorld.saveSummaries();
+            oldWorld.close();
+        }
         renderer = null;
         world = null;
         mainarea.setViewportView(null);
@@ -216,8 +256,35 @@ public class MCWorldInspector extends javax.swing.JFrame {
     }
 
     private void reloadWorld() {
-        if(world == null)
+        if(world == null || activeLoading != null || world.isReloading())
             return;
+        if(world.isLazy() != preferences.getBoolean(LAZY_LOADING_KEY, false)) {
+            reloadWorldFully();
+            return;
+        }
+        final World reloading = world;
+        reloading.reload(AsyncExecution.EDT, changes -> {
+            if(world != reloading)
+                return;
+            if(!changes.getChunks().stream().allMatch(renderer::contains)) {
+                // the world grew beyond the area of the renderer
+                Point scrollPos = mainarea.getViewport().getViewPosition();
+                int zoom = renderer.getZoom();
+                finishedLoadingWorld(world);
+                renderer.setZoom(zoom);
+                mainarea.getViewport().setViewPosition(scrollPos);
+            } else if(!changes.isEmpty()) {
+                renderer.renderRegions(changes.getRegions());
+                renderer.repaint();
+                infoPanels.forEach(p -> p.worldChanged(changes));
+            }
+            if(!changes.getErrors().isEmpty())
+                MultipleErrorsDialog.show(this,
+                        "Errors reloading world " + world.getName(), true, changes.getErrors());
+        });
+    }
+
+    private void reloadWorldFully() {
         Point scrollPos = mainarea.getViewport().getViewPosition();
         int zoom = renderer.getZoom();
         loadWorld(() -> {
@@ -231,8 +298,12 @@ public class MCWorldInspector extends javax.swing.JFrame {
             return;
         // free up memory
         closeWorld();
+        if(preferences.getBoolean(PROGRESSIVE_LOADING_KEY, true)) {
+            loadWorldProgressive(postLoadCB);
+            return;
+        }
         final ProgressBarDialog dialog = new ProgressBarDialog(this, true);
-        final World.AsyncLoading loading = new World.AsyncLoading((newWorld, errors) -> {
+        final World.AsyncLoading loading = createLoading((newWorld, errors) -> {
             dialog.setVisible(false);
             dialog.dispose();
             finishedLoadingWorld(newWorld);
@@ -244,7 +315,10 @@ public class MCWorldInspector extends javax.swing.JFrame {
         loading.addPropertyChangeListener(e -> {
             switch(e.getPropertyName()) {
                 case "total": dialog.setMaximum(loading.getTotal()); break;
-                case "progress": dialog.setValue(loading.getProgress()); break;
+                case "progress":
+                    dialog.setValue(loading.getProgress());
+                    dialog.setText(loading.getScheduler().getStatusText());
+                    break;
                 case "levelName": dialog.setTitle("Loading world " + loading.getLevelName()); break;
             }
         });
@@ -254,11 +328,88 @@ public class MCWorldInspector extends javax.swing.JFrame {
         }
     }
 
+    /**
+     * Shows the world as soon as level.dat is loaded and renders each region
+     * when its chunks are complete. The info panels are updated periodically.
+     */
+    private void loadWorldProgressive(Runnable postLoadCB) {
+        final World.AsyncLoading loading = createLoading((newWorld, errors) -> {
+            activeLoading = null;
+            statusBarProgress.setVisible(false);
+            infoPanels.forEach(p -> p.worldChanged(new World.Reloaded()));
+            if(!errors.isEmpty())
+                MultipleErrorsDialog.show(this,
+                        "Errors loading world " + newWorld.getName(), true, errors);
+        });
+        loading.addPropertyChangeListener(e -> {
+            if(activeLoading != loading)
+                return;
+            switch(e.getPropertyName()) {
+                case "total": statusBarProgress.setMaximum(loading.getTotal()); break;
+                case "progress":
+                    statusBarProgress.setValue(loading.getProgress());
+                    statusBarProgress.setToolTipText(loading.getScheduler().getStatusText());
+                    break;
+                case "levelName": statusBarProgress.setString("Loading " + loading.getLevelName()); break;
+                case "world":
+                    showWorld(loading.getWorld(), new WorldRenderer(
+                            loading.getWorld(), loading.getRegionStarts()));
+                    postLoadCB.run();
+                    nextPanelUpdate = System.nanoTime() + PANEL_UPDATE_INTERVAL;
+                    break;
+                case "regionsLoaded":
+                    if(renderer != null) {
+                        final var changes = (World.Reloaded)e.getNewValue();
+                        renderer.renderRegions(changes.getRegions());
+                        final long now = System.nanoTime();
+                        if(now - nextPanelUpdate >= 0) {
+                            nextPanelUpdate = now + PANEL_UPDATE_INTERVAL;
+                            infoPanels.forEach(p -> p.worldChanged(changes));
+                        }
+                    }
+                    break;
+            }
+        });
+        activeLoading = loading;
+        if(loading.start(worldFolder)) {
+            statusBarProgress.setValue(0);
+            statusBarProgress.setString("Loading world");
+            statusBarProgress.setVisible(true);
+        } else
+            activeLoading = null;
+    }
+
+    private World.AsyncLoading createLoading(BiConsumer<World, ArrayList<FileError>> done) {
+        final World.AsyncLoading loading = new World.AsyncLoading(done);
+        loading.setReadStrategy(getReadStrategy());
+        loading.setLazy(preferences.getBoolean(LAZY_LOADING_KEY, false));
+        loading.setOffHeap(preferences.getBoolean(OFF_HEAP_KEY, false));
+        loading.setCacheBudget(preferences.getLong(CACHE_BUDGET_KEY, 0) << 20);
+        loading.setSpill(preferences.getBoolean(SPILL_KEY, false));
+        if(preferences.getBoolean(SUMMARY_CACHE_KEY, true))
+            loading.setSummaryFolder(SummaryCache.defaultFolder(worldFolder));
+        loading.setSnapshotFile(WorldSnapshot.defaultFile(worldFolder));
+        return loading;
+    }
+
+    private RegionFile.ReadStrategy getReadStrategy() {
+        try {
+            return RegionFile.ReadStrategy.valueOf(preferences.get(
+                    READ_STRATEGY_KEY, RegionFile.ReadStrategy.SECTORS.name()));
+        } catch(IllegalArgumentException ex) {
+            return RegionFile.ReadStrategy.SECTORS;
+        }
+    }
+
     private void finishedLoadingWorld(World world) {
+        showWorld(world, new WorldRenderer(world));
+    }
+
+    private void showWorld(World world, WorldRenderer renderer) {
         World oldWorld = this.world;
         this.world = world;
+        this.renderer = renderer;
         renderOptionsPanel.updateWorld(world);
-        renderer = new WorldRenderer(world);
         renderer.setBlockColorMap(blockColorMap);
         mainarea.setViewportView(renderer);
         renderChunks();
@@ -392,12 +543,10 @@ public class MCWorldInspector extends javax.swing.JFrame {
         renderer.setRenderPlayerMarker(renderOptionsPanel.getPlayerMarker());
         switch (renderOptionsPanel.getMode()) {
             case SURFACE:
-                renderer.startChunkRendering((w,c) ->
-                        WorldRenderer.renderChunksSurface(w, c, true));
+                renderer.startChunkRendering(WorldRenderer.surfaceRenderer(true));
                 break;
             case SURFACE_NO_LEAVES:
-                renderer.startChunkRendering((w,c) ->
-                        WorldRenderer.renderChunksSurface(w, c, false));
+                renderer.startChunkRendering(WorldRenderer.surfaceRenderer(false));
                 break;
             case UNDERGROUND: {
                 final int layer = renderOptionsPanel.getLayer();
@@ -427,6 +576,25 @@ public class MCWorldInspector extends javax.swing.JFrame {
     }
 
 
+    private void writeSnapshot() {
+        if(world == null || activeLoading != null)
+            return;
+        final World snapshotWorld = world;
+        final File file = WorldSnapshot.defaultFile(worldFolder);
+        final ProgressBarDialog dialog = new ProgressBarDialog(this, true);
+        dialog.setTitle("Writing snapshot of " + world.getName());
+        dialog.setText(file.getPath());
+        dialog.setMaximum(world.getRegionFilesCount());
+        AsyncExecution.submit(workerPool, () -> snapshotWorld.writeSnapshot(file, regions ->
+                    EventQueue.invokeLater(() -> dialog.setValue(regions))), result -> {
+            dialog.setVisible(false);
+            dialog.dispose();
+            result.andThen(f -> {}, ex -> MultipleErrorsDialog.show(this,
+                    "Error while writing snapshot", true, new FileError(file, ex)));
+        });
+        dialog.setVisible(true);
+    }
+
     @SuppressWarnings("UseSpecificCatch")
     private void openMCMap() {
         JFileChooser jfc = new JFileChooser(preferences.get("recent_folder_nbt", "."));
@@ -499,6 +667,63 @@ public class MCWorldInspector extends javax.swing.JFrame {
             }
         });
         loadBCM.setMnemonic('b');
+        final var readStrategyMenu = new JMenu("Region file reading");
+        final var readStrategyGroup = new ButtonGroup();
+        final var activeReadStrategy = getReadStrategy();
+        for(RegionFile.ReadStrategy strategy : RegionFile.ReadStrategy.values()) {
+            final var item = new JRadioButtonMenuItem(new AbstractAction(strategy.toString()) {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    preferences.put(READ_STRATEGY_KEY, strategy.name());
+                }
+            });
+            item.setSelected(strategy == activeReadStrategy);
+            readStrategyGroup.add(item);
+            readStrategyMenu.add(item);
+        }
+        fileMenu.add(readStrategyMenu);
+        final var lazyLoading = new JCheckBoxMenuItem("Load chunks on demand",
+                preferences.getBoolean(LAZY_LOADING_KEY, false));
+        lazyLoading.addActionListener(e -> preferences.putBoolean(
+                LAZY_LOADING_KEY, lazyLoading.isSelected()));
+        fileMenu.add(lazyLoading);
+        fileMenu.add(new AbstractAction("Chunk cache budget...") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                final var value = JOptionPane.showInputDialog(MCWorldInspector.this,
+                        "Memory budget for chunks loaded on demand in MB (0 = automatic)",
+                        preferences.getLong(CACHE_BUDGET_KEY, 0));
+                if(value == null)
+                    return;
+                try {
+                    preferences.putLong(CACHE_BUDGET_KEY, Math.max(0, Long.parseLong(value.trim())));
+                } catch(NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(MCWorldInspector.this,
+                            "Invalid number: " + value, "Chunk cache budget",
+                            JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        });
+        final var spill = new JCheckBoxMenuItem("Spill evicted chunks to disk",
+                preferences.getBoolean(SPILL_KEY, false));
+        spill.addActionListener(e -> preferences.putBoolean(
+                SPILL_KEY, spill.isSelected()));
+        fileMenu.add(spill);
+        final var offHeap = new JCheckBoxMenuItem("Store block data off-heap",
+                preferences.getBoolean(OFF_HEAP_KEY, false));
+        offHeap.addActionListener(e -> preferences.putBoolean(
+                OFF_HEAP_KEY, offHeap.isSelected()));
+        fileMenu.add(offHeap);
+        final var summaryCache = new JCheckBoxMenuItem("Cache chunk summaries",
+                preferences.getBoolean(SUMMARY_CACHE_KEY, true));
+        summaryCache.addActionListener(e -> preferences.putBoolean(
+                SUMMARY_CACHE_KEY, summaryCache.isSelected()));
+        fileMenu.add(summaryCache);
+        final var progressiveLoading = new JCheckBoxMenuItem("Show world while loading",
+                preferences.getBoolean(PROGRESSIVE_LOADING_KEY, true));
+        progressiveLoading.addActionListener(e -> preferences.putBoolean(
+                PROGRESSIVE_LOADING_KEY, progressiveLoading.isSelected()));
+        fileMenu.add(progressiveLoading);
         fileMenu.addSeparator();
         final var openNBT = fileMenu.add(new AbstractAction("Open NBT") {
             @Override
@@ -602,7 +827,9 @@ public class MCWorldInspector extends javax.swing.JFrame {
                 final var model = new AbstractTableModel() {
                     @Override
                     public int getRowCount() {
-                        return 4;
+                        if(!world.isLazy())
+                            return 9;
+                        return (world.getSpillStore() != null) ? 12 : 11;
                     }
                     @Override
                     public int getColumnCount() {
@@ -632,6 +859,46 @@ public class MCWorldInspector extends javax.swing.JFrame {
                                 long wasted = total - world.getRegionFilesUsed();
                                 return String.format("%d (%4.1f%%)", wasted,
                                         wasted * 100.0 / total);
+                            case 8: return "Inflater pool";
+                            case 9:
+                                return String.format("%d hits, %d misses",
+                                        DecompressionPool.getInflaterHits(),
+                                        DecompressionPool.getInflaterMisses());
+                            case 10: return "Decompression buffer pool";
+                            case 11:
+                                return String.format("%d hits, %d misses",
+                                        DecompressionPool.getBufferHits(),
+                                        DecompressionPool.getBufferMisses());
+                            case 12: return "NBT name pool";
+                            case 13:
+                                return String.format("%d hits, %d misses",
+                                        NBTStringPool.NAMES.getHits(),
+                                        NBTStringPool.NAMES.getMisses());
+                            case 14: return "NBT string pool";
+                            case 15:
+                                return String.format("%d hits, %d misses",
+                                        NBTStringPool.VALUES.getHits(),
+                                        NBTStringPool.VALUES.getMisses());
+                            case 16: return "Off-heap block data";
+                            case 17: return world.getOffHeapSize();
+                            case 18: return "Cached chunks";
+                            case 19:
+                                final var cache = world.getChunkCache();
+                                return String.format("%d (%.1f of %.1f MB)", cache.size(),
+                                        cache.getUsed() / (double)(1 << 20),
+                                        cache.getBudget() / (double)(1 << 20));
+                            case 20: return "Chunk cache hit rate";
+                            case 21:
+                                return String.format("%4.1f%% (%d evicted)",
+                                        world.getChunkCache().getHitRate() * 100.0,
+                                        world.getChunkCache().getEvictions());
+                            case 22: return "Spilled chunks";
+                            case 23:
+                                final var store = world.getSpillStore();
+                                return String.format("%d (%.1f of %.1f MB, %4.1f%% hits)",
+                                        store.size(), store.getUsed() / (double)(1 << 20),
+                                        store.getFileSize() / (double)(1 << 20),
+                                        store.getHitRate() * 100.0);
                             default:
                                 throw new AssertionError();
                         }
@@ -645,6 +912,51 @@ public class MCWorldInspector extends javax.swing.JFrame {
             }
         });
         viewWorldStats.setMnemonic('S');
+        final var viewBlockTotals = viewMenu.add(new WorldAction("Block totals") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if(world == null)
+                    return;
+                final World totalsWorld = world;
+                setEnabled(false);
+                AsyncExecution.submitNoThrow(workerPool, totalsWorld::getBlockTotals, totals -> {
+                    setEnabled(world != null);
+                    if(world != totalsWorld)
+                        return;
+                    final var names = new ArrayList<>(totals.keySet());
+                    final var model = new AbstractTableModel() {
+                        @Override
+                        public int getRowCount() {
+                            return names.size();
+                        }
+                        @Override
+                        public int getColumnCount() {
+                            return 2;
+                        }
+                        @Override
+                        public String getColumnName(int column) {
+                            return (column == 0) ? "Block" : "Count";
+                        }
+                        @Override
+                        public Class<?> getColumnClass(int column) {
+                            return (column == 0) ? String.class : Long.class;
+                        }
+                        @Override
+                        public Object getValueAt(int rowIndex, int columnIndex) {
+                            final String name = names.get(rowIndex);
+                            return (columnIndex == 0) ? name : totals.get(name);
+                        }
+                    };
+                    final var table = new JTable(model);
+                    table.setAutoCreateRowSorter(true);
+                    JOptionPane.showMessageDialog(MCWorldInspector.this,
+                            NBTTreeModel.wrapInScrollPane(table),
+                            "Block totals for " + totalsWorld.getName(),
+                            JOptionPane.INFORMATION_MESSAGE);
+                });
+            }
+        });
+        viewBlockTotals.setMnemonic('B');
         return viewMenu;
     }
 
@@ -655,6 +967,14 @@ public class MCWorldInspector extends javax.swing.JFrame {
         toolsMenu.setMnemonic('T');
         final var createColorMap = toolsMenu.add(createColorMapAction);
         createColorMap.setMnemonic('C');
+        final var writeSnapshot = toolsMenu.add(new WorldAction("Write world snapshot") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                writeSnapshot();
+            }
+        });
+        writeSnapshot.setMnemonic('W');
+        writeSnapshot.setToolTipText("Unchanged chunks are read from the snapshot instead of the region files");
         return toolsMenu;
     }
 
@@ -680,10 +1000,21 @@ public class MCWorldInspector extends javax.swing.JFrame {
         JSplitPane mainSplitpane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, mainarea, infoSplitpane);
         mainSplitpane.setDividerLocation(1300);
         mainSplitpane.setResizeWeight(1.0);
+        // while loading the regions around the visible area are loaded first
+        mainarea.getViewport().addChangeListener(e -> {
+            if(activeLoading != null && renderer != null) {
+                final Point center = renderer.getViewportCenter();
+                activeLoading.prioritize(center.x, center.y);
+            }
+        });
 
         MemoryUsageIndicator statusBarMemoryUsage = new MemoryUsageIndicator(20);
+        statusBarMemoryUsage.setDetails(this::getChunkCacheStatus);
         statusBarMemoryUsage.start();
         statusBar.addElement(new StatusBar.Element(StatusBar.Alignment.RIGHT, statusBarMemoryUsage));
+        statusBarProgress.setStringPainted(true);
+        statusBarProgress.setVisible(false);
+        statusBar.addElement(new StatusBar.Element(StatusBar.Alignment.RIGHT, statusBarProgress));
         statusBarCursorPos.setEditable(false);
         statusBarCursorPos.setColumns(16);
         statusBar.addElement(new StatusBar.Element(StatusBar.Alignment.RIGHT, statusBarCursorPos));
@@ -710,6 +1041,13 @@ public class MCWorldInspector extends javax.swing.JFrame {
         setSize(1600, 1200);
         setVisible(true);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                if(world != null)
+                    world.saveSummaries();
+            }
+        });
     }
     
     public static void main(String[] args) {
@@ -802,6 +1140,7 @@ public class MCWorldInspector extends javax.swing.JFrame {
     public interface InfoPanel {
         public void reset();
         public void setWorld(World world, WorldRenderer renderer);
+        public default void worldChanged(World.Reloaded changes) {}
         public JComponent getTabComponent();
     }
 }
@@ -67,6 +67,15 @@ public class MapsPanel extends JPanel implements MCWorldInspector.InfoPanel {
         btnFindMapMarkers.setEnabled(true);
     }
 
+    @Override
+    public void worldChanged(World.Reloaded changes) {
+        if(world == null)
+            return;
+        model.maps = new ArrayList<>(world.getMaps().values());
+        model.fireTableDataChanged();
+        updateMapDisplay();
+    }
+
     private void updateMapDisplay(int[] selected) {
         mapDisplay.setMap((selected.length == 1)
                 ? model.maps.get(selected[0]) : null);
@@ -4,12 +4,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import mcworldinspector.nbt.NBTTagCompound;
-import mcworldinspector.utils.AsyncExecution;
 
 /**
  *
@@ -41,13 +38,14 @@ public class MobSpawnerPanel extends AbstractFilteredPanel<String> {
     @Override
     public void setWorld(World world, WorldRenderer renderer) {
         super.setWorld(world, renderer);
-        AsyncExecution.submitNoThrow(executorService, () -> {
-            return world.chunks().flatMap(c -> c.getTileEntities(ID))
-                    .map(MobSpawnerPanel::getSpawnDataID)
-                    .filter(Objects::nonNull)
-                    .distinct()
-                    .collect(Collectors.toCollection(TreeSet::new));
-        }, result -> {
+        updateList();
+    }
+
+    @Override
+    protected void updateList() {
+        updateListFromChunks(executorService, chunk -> chunk.getTileEntities(ID)
+                .map(MobSpawnerPanel::getSpawnDataID)
+                .filter(Objects::nonNull), result -> {
             tileEntities = result;
             buildListModel();
         });
@@ -60,7 +58,7 @@ public class MobSpawnerPanel extends AbstractFilteredPanel<String> {
 
     @Override
     protected Stream<? extends WorldRenderer.HighlightEntry> createHighlighter(List<String> selected) {
-        return world.getChunks().parallelStream()
+        return world.chunks().parallel()
                 .filter(chunk -> chunk.getTileEntities(ID).map(MobSpawnerPanel::getSpawnDataID).anyMatch(selected::contains))
                 .map(chunk -> new TileEntityTypesPanel.TileEntityHighlightEntry(chunk,
                         "Tile entity details for ",
@@ -0,0 +1,165 @@
+package mcworldinspector;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.swing.GroupLayout;
+import javax.swing.JButton;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.LayoutStyle;
+import mcworldinspector.nbt.NBTQuery;
+import mcworldinspector.nbt.NBTTagCompound;
+import mcworldinspector.nbttree.NBTTreeModel;
+import mcworldinspector.utils.AsyncExecution;
+
+/**
+ * Runs {@link NBTQuery} path queries over all chunks and highlights the
+ * chunks with matches.
+ *
+ * @author matthias
+ */
+public class QueryPanel extends JPanel implements MCWorldInspector.InfoPanel {
+    private final ExecutorService executorService;
+    private final JTextField queryTF = new JTextField();
+    private final JButton btnSearch = new JButton("Search");
+    private final JLabel statusLabel = new JLabel(" ");
+    private final Color statusColor = statusLabel.getForeground();
+    private World world;
+    private WorldRenderer renderer;
+
+    public QueryPanel(ExecutorService executorService) {
+        this.executorService = executorService;
+        setName("Query");
+
+        queryTF.setToolTipText("<html>Examples:<br>"
+                + "Entities[id=minecraft:villager].VillagerData.profession = \"minecraft:librarian\"<br>"
+                + "TileEntities[id=minecraft:chest].Items[id=minecraft:diamond, Count >= 10]<br>"
+                + "Entities[id=minecraft:*horse].Pos[1] < 0</html>");
+        queryTF.addActionListener(e -> search());
+        btnSearch.addActionListener(e -> search());
+        final JLabel help = new JLabel("<html>Path from Entities, TileEntities or Structures "
+                + "with [conditions], .keys and an optional comparison (= != &lt; &lt;= &gt; &gt;=)."
+                + " Lists match if any element matches, * is a wildcard in strings.</html>");
+
+        final GroupLayout layout = new GroupLayout(this);
+        layout.setHorizontalGroup(layout.createParallelGroup()
+                .addGroup(layout.createSequentialGroup()
+                        .addComponent(queryTF)
+                        .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(btnSearch))
+                .addComponent(statusLabel, 0, 0, Short.MAX_VALUE)
+                .addComponent(help, 0, 0, Short.MAX_VALUE));
+        layout.setVerticalGroup(layout.createSequentialGroup()
+                .addGroup(layout.createParallelGroup(GroupLayout.Alignment.BASELINE)
+                        .addComponent(queryTF, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
+                        .addComponent(btnSearch))
+                .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(statusLabel)
+                .addPreferredGap(LayoutStyle.ComponentPlacement.UNRELATED)
+                .addComponent(help)
+                .addGap(0, 0, Short.MAX_VALUE));
+        setLayout(layout);
+        setWorld(null, null);
+    }
+
+    @Override
+    public JComponent getTabComponent() {
+        return this;
+    }
+
+    @Override
+    public void reset() {
+        setWorld(null, null);
+    }
+
+    @Override
+    public void setWorld(World world, WorldRenderer renderer) {
+        this.world = world;
+        this.renderer = renderer;
+        btnSearch.setEnabled(world != null);
+        setStatus(" ", false);
+    }
+
+    private void setStatus(String text, boolean error) {
+        statusLabel.setForeground(error ? Color.RED : statusColor);
+        statusLabel.setText(text);
+    }
+
+    private void search() {
+        final World w = this.world;
+        final WorldRenderer r = this.renderer;
+        if(w == null || r == null)
+            return;
+        final NBTQuery query;
+        try {
+            query = NBTQuery.compile(queryTF.getText());
+        } catch(IllegalArgumentException ex) {
+            setStatus(ex.getMessage(), true);
+            return;
+        }
+        if(!Chunk.isQueryRoot(query.getRoot())) {
+            setStatus("Unsupported root " + query.getRoot()
+                    + " - use Entities, TileEntities or Structures", true);
+            return;
+        }
+        setStatus("Searching ...", false);
+        btnSearch.setEnabled(false);
+        AsyncExecution.submitNoThrow(executorService, () -> w.chunks().parallel()
+                .map(chunk -> {
+                    final long count = chunk.query(query).count();
+                    return (count > 0) ? new ResultEntry(w, chunk, query, count) : null;
+                })
+                .filter(Objects::nonNull)
+                .sorted()
+                .collect(Collectors.toList()), result -> {
+            if(w != world)
+                return;
+            btnSearch.setEnabled(true);
+            r.highlight(result.stream());
+            setStatus(result.stream().mapToLong(ResultEntry::getCount).sum()
+                    + " matches in " + result.size() + " chunks", false);
+        });
+    }
+
+    static class ResultEntry extends ChunkHighlightEntry.WithCount {
+        private final World world;
+        private final NBTQuery query;
+
+        ResultEntry(World world, Chunk chunk, NBTQuery query, long count) {
+            super(chunk, count);
+            this.world = world;
+            this.query = query;
+        }
+
+        @Override
+        public void showDetailsFor(Component parent) {
+            final Function<NBTTagCompound, Map.Entry<String, NBTTagCompound>> label;
+            switch (query.getRoot()) {
+                case "Entities":
+                    label = EntityTypesPanel::addEntityLabel;
+                    break;
+                case "TileEntities":
+                case "block_entities":
+                    label = TileEntityTypesPanel::addTileEntityLabel;
+                    break;
+                default:
+                    label = e -> new AbstractMap.SimpleImmutableEntry<>(
+                            Objects.toString(e.getString("id"), query.getRoot()), e);
+                    break;
+            }
+            final List<Map.Entry<String, NBTTagCompound>> list = chunk.query(query)
+                    .map(label).collect(Collectors.toList());
+            NBTTreeModel.displayNBT(parent, list, "Query results for " + this,
+                    e -> MCItem.createChestView(world, e, null));
+        }
+    }
+}
@@ -5,43 +5,111 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import java.util.zip.DataFormatException;
+import mcworldinspector.nbt.NBTProjection;
 import mcworldinspector.nbt.NBTTagCompound;
-import mcworldinspector.utils.AsyncExecution;
+import mcworldinspector.utils.DecompressionPool;
 import mcworldinspector.utils.Expected;
+import mcworldinspector.utils.FileHelpers;
 import mcworldinspector.utils.IOExceptionWithOffset;
+import mcworldinspector.utils.LZ4Block;
+import mcworldinspector.utils.OffHeapArena;
 
 /**
  *
  * @author matthias
  */
-public class RegionFile {
+public class RegionFile implements AutoCloseable {
 
+    private static final int EXTERNAL_FLAG = 0x80;
     private static final Pattern NAME_PATTERN = Pattern.compile("^r\\.(-?[0-9]+)\\.(-?[0-9]+)\\.mca$");
 
+    private final File file;
     private final RandomAccessFile raf;
     private final long fileSize;
+    private final ReadStrategy strategy;
+    private final Batch[] batches;
+    private ByteBuffer mapped;
     private long fileUsed;
 
-    private RegionFile(File file) throws IOException {
+    public enum ReadStrategy {
+        SECTORS("One read per chunk sector run"),
+        MMAP("Memory map region files"),
+        COALESCED("Coalesce neighbouring chunks");
+
+        private final String label;
+
+        private ReadStrategy(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private RegionFile(File file, ReadStrategy strategy) throws IOException {
+        this.file = file;
         this.raf = new RandomAccessFile(file, "r");
         this.fileSize = raf.length();
+        this.strategy = strategy;
+        this.batches = (strategy == ReadStrategy.COALESCED) ? new Batch[32 * 32] : null;
         this.fileUsed = 4096;   // size of the offset table
     }
 
-    private void close() {
+    @Override
+    public void close() {
         try {
             raf.close();
         } catch (IOException ex) {
         }
     }
 
+    private boolean isOpen() {
+        return raf.getChannel().isOpen();
+    }
+
+    private void map() throws IOException {
+        try {
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        } catch (IOException ex) {
+            throw new IOException("Could not map region file", ex);
+        }
+    }
+
+    /**
+     * Reads the chunk offset table followed by the chunk timestamp table.
+     * The timestamps are zero when the file is too short to contain them.
+     */
+    private void readHeader(ByteBuffer header) throws IOException {
+        if (fileSize < 4096) {
+            throw new EOFException("Could not read chunk offsets");
+        }
+        final int size = (int) Math.min(fileSize, header.capacity());
+        if (mapped != null) {
+            header.put(mapped.slice(0, size)).flip();
+        } else {
+            header.limit(size);
+            read(header, 0, "Could not read chunk offsets");
+        }
+        header.limit(header.capacity());
+        for (int pos = size; pos < header.capacity(); pos += 4) {
+            header.putInt(pos, 0);
+        }
+    }
+
     private void read(ByteBuffer bb, long offset, String msg) throws IOException {
         try {
             raf.getChannel().read(bb, offset);
@@ -55,8 +123,6 @@ public class RegionFile {
     }
 
     private static class ChunkBuffers {
-        final ByteBuffer header = ByteBuffer.allocateDirect(5);
-        final ByteBuffer uncompressed = ByteBuffer.allocateDirect(1 << 20);
         private ByteBuffer compressed;
 
         public ByteBuffer getCompressed(int size) {
@@ -66,93 +132,588 @@ public class RegionFile {
             compressed.clear().limit(size);
             return compressed;
         }
+
+        public ByteBuffer growCompressed(int size) {
+            if (compressed.capacity() < size) {
+                final var old = compressed;
+                compressed = ByteBuffer.allocateDirect((size + 4095) & -4096);
+                compressed.put(old);
+            }
+            compressed.limit(size);
+            return compressed;
+        }
     }
 
-    private static final ThreadLocalOffsets OFFSETS = new ThreadLocalOffsets();
-    private static final ThreadLocalChunkBuffers BUFFERS = new ThreadLocalChunkBuffers();
+    /**
+     * A run of neighbouring chunks which is read with a single call by the
+     * first chunk task which needs it. The buffer is released once every
+     * chunk of the batch has been parsed.
+     */
+    private static class Batch {
+        private static final int MAX_SIZE = 2 << 20;
+        private static final int MAX_GAP = 8 * 4096;
 
-    private @FunctionalInterface
-    interface ChunkIterator<T> {
-        public T load(RegionFile rf, int offset, int chunkX, int chunkZ) throws IOException;
-    }
+        final long start;
+        int length;
+        private int pending;
+        private ByteBuffer data;
 
-    private static <T> int loadAsyncImpl(File file, ExecutorService e, AtomicInteger openFiles, ChunkIterator<T> iter, LoadCompleted<T> c) throws IOException {
-        Matcher matcher = NAME_PATTERN.matcher(file.getName());
-        if (!matcher.matches()) {
-            throw new IOException("Invalid file name: " + file);
+        Batch(long start, int length) {
+            this.start = start;
+            this.length = length;
         }
 
-        final RegionFile rf = new RegionFile(file);
-        if (rf.fileSize == 0) {
-            rf.close();
-            return 0;
+        synchronized ByteBuffer acquire(RegionFile rf) throws IOException {
+            if (data == null) {
+                final var bb = ByteBuffer.allocate(length);
+                rf.read(bb, start, "Could not read chunk batch");
+                data = bb;
+            }
+            return data;
         }
 
-        int globalX = Integer.parseInt(matcher.group(1)) * 32;
-        int globalZ = Integer.parseInt(matcher.group(2)) * 32;
-        ByteBuffer offsets = OFFSETS.get();
+        synchronized void release() {
+            if (--pending == 0) {
+                data = null;
+            }
+        }
+    }
 
-        try {
-            rf.read(offsets, 0, "Could not read chunk offsets");
-        } catch (IOException ex) {
-            rf.close();
-            throw ex;
+    private void planBatches(ByteBuffer offsets) {
+        final long[] chunks = new long[32 * 32];
+        int count = 0;
+        for (int idx = 0; idx < 32 * 32; idx++) {
+            final int offset = offsets.getInt(idx * 4);
+            if (offset > 0) {
+                chunks[count++] = ((long) (offset >>> 8) << 20) | ((long) (offset & 255) << 10) | idx;
+            }
+        }
+        Arrays.sort(chunks, 0, count);
+        Batch batch = null;
+        for (int i = 0; i < count; i++) {
+            final long start = (chunks[i] >>> 20) * 4096L;
+            final int length = (int) Math.min(((chunks[i] >>> 10) & 255) * 4096L, fileSize - start);
+            final int idx = (int) (chunks[i] & 1023);
+            if (length <= 0) {
+                continue;
+            }
+            final long end = start + length;
+            if (batch == null || start - (batch.start + batch.length) > Batch.MAX_GAP
+                    || end - batch.start > Batch.MAX_SIZE) {
+                batch = new Batch(start, length);
+            } else {
+                batch.length = (int) Math.max(batch.length, end - batch.start);
+            }
+            batch.pending++;
+            batches[idx] = batch;
+        }
+    }
+
+    private static final ThreadLocalHeader HEADER = new ThreadLocalHeader();
+    private static final ThreadLocalChunkBuffers BUFFERS = new ThreadLocalChunkBuffers();
+    private static final int MAX_OPEN_READERS = 64;
+    private static final ArrayDeque<Index> OPEN_READERS = new ArrayDeque<>();
+
+    private static Matcher matchName(File file) throws IOException {
+        Matcher matcher = NAME_PATTERN.matcher(file.getName());
+        if (!matcher.matches()) {
+            throw new IOException("Invalid file name: " + file);
         }
+        return matcher;
+    }
+
+    private static <T> void loadAsyncImpl(File file, LoadScheduler scheduler, ReadStrategy strategy, NBTProjection projection, ChunkSource source, ChunkDecoder<T> decoder, LoadListener<T> l) {
+        scheduler.submitRegion(region -> {
+            final Matcher matcher = matchName(file);
+            final long lastModified = file.lastModified();
+            final int globalX = Integer.parseInt(matcher.group(1)) * 32;
+            final int globalZ = Integer.parseInt(matcher.group(2)) * 32;
+            final ByteBuffer offsets = HEADER.get();
 
-        openFiles.incrementAndGet();
-        return AsyncExecution.<T>submit(e,
-                IntStream.range(0, 32 * 32).mapToObj(idx -> {
-                    final int offset = offsets.getInt(idx * 4);
-                    if (offset <= 0) {
-                        return null;
+            try (RegionFile rf = new RegionFile(file, strategy)) {
+                if (rf.fileSize == 0) {
+                    offsets.limit(0);
+                } else {
+                    if (strategy == ReadStrategy.MMAP) {
+                        rf.map();
                     }
-                    final int chunkZ = globalZ + (idx >> 5);
+                    rf.readHeader(offsets);
+                    if (rf.batches != null) {
+                        rf.planBatches(offsets);
+                    }
+                }
+                final Index index = new Index(file, globalX, globalZ, offsets, rf.fileSize, lastModified);
+                final int count = (int) index.chunkIndices().count();
+                l.opened(count);
+
+                final ArrayList<Exception> errors = new ArrayList<>();
+                for (int idx : index.chunkIndices().toArray()) {
+                    final int offset = index.offsets[idx];
                     final int chunkX = globalX + (idx & 31);
-                    return () -> {
+                    final int chunkZ = globalZ + (idx >> 5);
+                    final ByteBuffer stored = (source != null)
+                            ? source.get(chunkX, chunkZ, index.getTimestamp(idx)) : null;
+                    if (stored != null) {
+                        if (rf.batches != null && rf.batches[idx] != null) {
+                            rf.batches[idx].release();
+                        }
+                        rf.fileUsed += (offset & 255) * 4096L;
+                        region.decode(() -> {
+                            final T chunk;
+                            try {
+                                chunk = decoder.create(chunkX, chunkZ,
+                                        NBTTagCompound.parse(stored.duplicate(), projection));
+                            } catch (Exception ex) {
+                                synchronized (errors) {
+                                    errors.add(new IOExceptionWithOffset(offset, ex));
+                                }
+                                return;
+                            }
+                            l.loaded(chunk);
+                        });
+                        continue;
+                    }
+                    final RawChunk raw;
+                    try {
+                        raw = rf.readRaw(idx, offset, BUFFERS.get(), true);
+                    } catch (IOException ex) {
+                        synchronized (errors) {
+                            errors.add(new IOExceptionWithOffset(offset, ex));
+                        }
+                        continue;
+                    }
+                    region.decode(() -> {
+                        final T chunk;
                         try {
-                            return iter.load(rf, offset, chunkX, chunkZ);
-                        } catch (IOException ex) {
-                            throw new IOExceptionWithOffset(offset, ex);
+                            chunk = decoder.create(chunkX, chunkZ, raw.parse(projection));
+                        } catch (Exception ex) {
+                            synchronized (errors) {
+                                errors.add(new IOExceptionWithOffset(offset, ex));
+                            }
+                            return;
                         }
-                    };
-                }), results -> {
-            openFiles.decrementAndGet();
-            rf.close();
-            c.loadCompleted(results, rf.fileSize, rf.fileUsed);
-        });
+                        l.loaded(chunk);
+                    });
+                }
+                rf.mapped = null;
+                final long used = rf.fileUsed;
+                return () -> l.loadCompleted(errors, index, used);
+            }
+        }, l::failed);
     }
 
-    public static int loadAsync(File file, ExecutorService e, AtomicInteger openFiles, LoadCompleted<Chunk> c) throws IOException {
-        return loadAsyncImpl(file, e, openFiles, (rf, offset, globalX, globalZ) -> new Chunk(globalX, globalZ, rf.loadNBT(offset)), c);
+    /**
+     * @param projection the tags of each chunk which are parsed, null
+     * parses everything
+     */
+    public static void loadAsync(File file, LoadScheduler scheduler, ReadStrategy strategy, NBTProjection projection, LoadListener<Chunk> l) {
+        loadAsync(file, scheduler, strategy, projection, null, l);
     }
 
-    public static int loadExtraAsync(File file, ExecutorService e, AtomicInteger openFiles, LoadCompleted<ChunkExtraNBT> c) throws IOException {
-        return loadAsyncImpl(file, e, openFiles, (rf, offset, globalX, globalZ) -> new ChunkExtraNBT(globalX, globalZ, rf.loadNBT(offset)), c);
+    /**
+     * @param arena when not null the block data of the chunks is stored in
+     * this arena
+     */
+    public static void loadAsync(File file, LoadScheduler scheduler, ReadStrategy strategy, NBTProjection projection, OffHeapArena arena, LoadListener<Chunk> l) {
+        loadAsync(file, scheduler, strategy, projection, arena, null, l);
     }
 
-    private NBTTagCompound loadNBT(int offset) throws IOException {
-        final var buffers = BUFFERS.get();
-        final var file_offset = (long) (offset >> 8) * 4096L;
-        read(buffers.header, file_offset, "Could not read chunk header");
-        final var size = buffers.header.getInt(0) - 1;
-        final var type = buffers.header.get(4);
-        final var compressed = buffers.getCompressed(size);
-        read(compressed, file_offset + 5, "Could not read compressed chunk");
-        fileUsed += (size + 5 + 4095) & - 4096;
+    /**
+     * @param source when not null chunks which it provides are parsed from
+     * its data instead of being read from the region file
+     */
+    public static void loadAsync(File file, LoadScheduler scheduler, ReadStrategy strategy, NBTProjection projection, OffHeapArena arena, ChunkSource source, LoadListener<Chunk> l) {
+        loadAsyncImpl(file, scheduler, strategy, projection, source,
+                (x, z, nbt) -> new Chunk(x, z, nbt, arena), l);
+    }
 
+    public static void loadExtraAsync(File file, LoadScheduler scheduler, ReadStrategy strategy, NBTProjection projection, LoadListener<ChunkExtraNBT> l) {
+        loadAsyncImpl(file, scheduler, strategy, projection, null, ChunkExtraNBT::new, l);
+    }
+
+    /**
+     * Returns the chunk data starting with the 5 byte chunk header. The
+     * returned buffer has at least the size given in the header remaining.
+     */
+    private ByteBuffer readChunk(int idx, int offset, ChunkBuffers buffers) throws IOException {
+        final var file_offset = (long) (offset >>> 8) * 4096L;
+        final var available = fileSize - file_offset;
+        if (available < 5) {
+            throw new EOFException("Could not read chunk header");
+        }
+        final var batch = (batches != null) ? batches[idx] : null;
+        final ByteBuffer data;
+        if (mapped != null) {
+            data = mapped.slice((int) file_offset, (int) available);
+        } else if (batch != null) {
+            final var bb = batch.acquire(this);
+            data = bb.slice((int) (file_offset - batch.start), (int) Math.min(
+                    batch.length - (file_offset - batch.start), available));
+        } else {
+            final var run = (int) Math.min(Math.max((offset & 255) * 4096L, 5), available);
+            data = buffers.getCompressed(run);
+            read(data, file_offset, "Could not read compressed chunk");
+        }
+        final var size = data.getInt(0) + 4;
+        if (size < 5 || size > available) {
+            throw new EOFException("Invalid chunk size");
+        }
+        if (data.remaining() < size) {
+            if (batch != null) {
+                // the sector count was wrong - fall back to a direct read
+                final var bb = buffers.getCompressed(size);
+                read(bb, file_offset, "Could not read compressed chunk");
+                return bb;
+            }
+            final var bb = buffers.growCompressed(size);
+            bb.position(data.limit());
+            read(bb, file_offset + data.limit(), "Could not read compressed chunk");
+            return bb;
+        }
+        return data.limit(size);
+    }
+
+    /**
+     * Reads the compressed data of a chunk. With {@code copy} the data is
+     * copied out of the reusable buffers so that it can be decoded later on
+     * another thread.
+     */
+    private RawChunk readRaw(int idx, int offset, ChunkBuffers buffers, boolean copy) throws IOException {
+        final ByteBuffer compressed;
         try {
-            return NBTTagCompound.parseInflate(compressed, buffers.uncompressed, switch (type) {
-                case 1 ->
-                    true;
-                case 2 ->
-                    false;
-                default ->
-                    throw new IOException("Unsupported chunk compression type: " + type);
-            });
-        } catch (DataFormatException e) {
-            throw new IOException(e);
-        } catch (java.nio.BufferUnderflowException e) {
-            throw new IOException("NBT data corrupted");
+            compressed = readChunk(idx, offset, buffers);
+        } finally {
+            if (batches != null && batches[idx] != null) {
+                batches[idx].release();
+            }
+        }
+        final var size = compressed.remaining() - 5;
+        final var type = compressed.get(4) & 255;
+        compressed.position(5);
+        fileUsed += (size + 5 + 4095) & - 4096;
+
+        if ((type & EXTERNAL_FLAG) != 0) {
+            return new RawChunk(type & ~EXTERNAL_FLAG, loadExternal(idx));
+        }
+        // coalesced reads are private heap buffers - everything else is reused or mapped
+        if (copy && compressed.isDirect()) {
+            final ByteBuffer data = ByteBuffer.allocate(size);
+            data.put(compressed).flip();
+            return new RawChunk(type, data);
+        }
+        return new RawChunk(type, compressed);
+    }
+
+    private static class RawChunk {
+        final int type;
+        final ByteBuffer data;
+        int size;
+
+        RawChunk(int type, ByteBuffer data) {
+            this.type = type;
+            this.data = data;
+        }
+
+        /**
+         * Uncompressed chunks are parsed directly from the read buffer
+         * because the NBT parser copies all values out of it.
+         */
+        NBTTagCompound parse(NBTProjection projection) throws IOException {
+            return decode(uncompressed -> NBTTagCompound.parse(uncompressed, projection));
+        }
+
+        ByteBuffer project(NBTProjection projection) throws IOException {
+            return decode(uncompressed -> NBTTagCompound.project(uncompressed, projection));
+        }
+
+        private <R> R decode(Function<ByteBuffer, R> parser) throws IOException {
+            ByteBuffer buffer = null;
+            try {
+                final ByteBuffer uncompressed;
+                switch (type) {
+                    case 1, 2 -> {
+                        buffer = DecompressionPool.acquireBuffer(data.remaining() * 8);
+                        uncompressed = buffer = NBTTagCompound.inflate(data, buffer, type == 1);
+                    }
+                    case 3 ->
+                        uncompressed = data.slice();
+                    case 4 -> {
+                        buffer = DecompressionPool.acquireBuffer(data.remaining() * 4);
+                        uncompressed = buffer = LZ4Block.decode(data, buffer, NBTTagCompound.MAX_UNCOMPRESSED_SIZE);
+                    }
+                    default ->
+                        throw new IOException("Unsupported chunk compression type: " + type);
+                }
+                size = uncompressed.remaining();
+                return parser.apply(uncompressed);
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            } catch (java.nio.BufferUnderflowException e) {
+                throw new IOException("NBT data corrupted");
+            } finally {
+                if (buffer != null) {
+                    DecompressionPool.releaseBuffer(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads a chunk which was too big for the region file. Minecraft stores
+     * these in a c.X.Z.mcc file next to the region file.
+     */
+    private ByteBuffer loadExternal(int idx) throws IOException {
+        final Matcher matcher = matchName(file);
+        final int chunkX = Integer.parseInt(matcher.group(1)) * 32 + (idx & 31);
+        final int chunkZ = Integer.parseInt(matcher.group(2)) * 32 + (idx >> 5);
+        final File external = new File(file.getParentFile(), "c." + chunkX + "." + chunkZ + ".mcc");
+        return FileHelpers.loadFile(external, NBTTagCompound.MAX_UNCOMPRESSED_SIZE);
+    }
+
+    /**
+     * Reads only the chunk offset and timestamp tables of a region file. The
+     * chunks can later be loaded one at a time with {@link Index#load}.
+     */
+    public static Index readIndex(File file) throws IOException {
+        final Matcher matcher = matchName(file);
+        final long lastModified = file.lastModified();
+        final ByteBuffer header = HEADER.get();
+        final long fileSize;
+        try (RegionFile rf = new RegionFile(file, ReadStrategy.SECTORS)) {
+            fileSize = rf.fileSize;
+            if (fileSize > 0) {
+                rf.readHeader(header);
+            } else {
+                header.limit(0);
+            }
+        }
+        return new Index(file, Integer.parseInt(matcher.group(1)) * 32,
+                Integer.parseInt(matcher.group(2)) * 32, header, fileSize, lastModified);
+    }
+
+    public static XZPosition getRegionStart(File file) throws IOException {
+        final Matcher matcher = matchName(file);
+        return new XZPosition(Integer.parseInt(matcher.group(1)) * 32,
+                Integer.parseInt(matcher.group(2)) * 32);
+    }
+
+    public @FunctionalInterface
+    interface ChunkFactory<T> {
+        public T create(int chunkX, int chunkZ, NBTTagCompound nbt, int size) throws IOException;
+    }
+
+    public static class Index {
+        private final File file;
+        private final int globalX;
+        private final int globalZ;
+        private final int[] offsets = new int[32 * 32];
+        private final int[] timestamps = new int[32 * 32];
+        private final long fileSize;
+        private final long lastModified;
+        private final BitSet empty = new BitSet(32 * 32);
+        private RegionFile reader;
+        private boolean closed;
+
+        /**
+         * @param header the 8 KiB region file header or an empty buffer
+         */
+        Index(File file, int globalX, int globalZ, ByteBuffer header, long fileSize, long lastModified) {
+            this.file = file;
+            this.globalX = globalX;
+            this.globalZ = globalZ;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            if (header.limit() >= 8192) {
+                header.asIntBuffer().get(offsets).get(timestamps);
+            }
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public XZPosition getRegionStart() {
+            return new XZPosition(globalX, globalZ);
+        }
+
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Checks if the file still has the size and modification time it had
+         * when this index was read.
+         */
+        public boolean isUpToDate(File file) {
+            return file.lastModified() == lastModified && file.length() == fileSize;
+        }
+
+        /**
+         * Checks if a chunk has the same location and timestamp in both
+         * indexes. A missing index has no chunks.
+         */
+        public static boolean isSameChunk(Index a, Index b, int idx) {
+            final int offsetA = (a != null) ? a.offsets[idx] : 0;
+            final int offsetB = (b != null) ? b.offsets[idx] : 0;
+            if (offsetA <= 0 || offsetB <= 0) {
+                return offsetA <= 0 && offsetB <= 0;
+            }
+            return offsetA == offsetB && a.timestamps[idx] == b.timestamps[idx];
+        }
+
+        public long getFileUsed() {
+            return 4096 + IntStream.of(offsets).filter(o -> o > 0)
+                    .mapToLong(o -> (o & 255) * 4096L).sum();
+        }
+
+        /**
+         * Returns the last modification time of a chunk in seconds since
+         * the epoch as stored in the region file header.
+         */
+        public int getTimestamp(int idx) {
+            return timestamps[idx];
+        }
+
+        public static int indexOf(int chunkX, int chunkZ) {
+            return ((chunkZ & 31) << 5) | (chunkX & 31);
+        }
+
+        public boolean hasChunk(int idx) {
+            if (offsets[idx] <= 0) {
+                return false;
+            }
+            synchronized (empty) {
+                return !empty.get(idx);
+            }
+        }
+
+        public void setEmpty(int idx) {
+            synchronized (empty) {
+                empty.set(idx);
+            }
+        }
+
+        public IntStream chunkIndices() {
+            return IntStream.range(0, 32 * 32).filter(this::hasChunk);
+        }
+
+        public Stream<XZPosition> chunkPositions() {
+            return chunkIndices().mapToObj(idx -> new XZPosition(
+                    globalX + (idx & 31), globalZ + (idx >> 5)));
+        }
+
+        public <T> T load(int idx, ChunkFactory<T> factory) throws IOException {
+            return load(idx, null, factory);
+        }
+
+        /**
+         * Returns the uncompressed NBT data of a chunk reduced to the tags
+         * selected by the projection.
+         */
+        public ByteBuffer loadProjected(int idx, NBTProjection projection) throws IOException {
+            final int offset = offsets[idx];
+            try {
+                return readRaw(idx, offset).project(projection);
+            } catch (IOException ex) {
+                throw new IOExceptionWithOffset(offset, ex);
+            }
+        }
+
+        public <T> T load(int idx, NBTProjection projection, ChunkFactory<T> factory) throws IOException {
+            final int offset = offsets[idx];
+            try {
+                final var raw = readRaw(idx, offset);
+                final var nbt = raw.parse(projection);
+                return factory.create(globalX + (idx & 31), globalZ + (idx >> 5), nbt, raw.size);
+            } catch (IOException ex) {
+                throw new IOExceptionWithOffset(offset, ex);
+            }
+        }
+
+        /**
+         * Reads a chunk with positional reads on the shared file handle, so
+         * loading chunks on demand doesn't open the file for every chunk.
+         * An interrupted reader closes the channel for all threads, in that
+         * case the file is opened again.
+         */
+        private RawChunk readRaw(int idx, int offset) throws IOException {
+            RegionFile rf = reader(null);
+            if (rf != null) {
+                try {
+                    return rf.readRaw(idx, offset, BUFFERS.get(), false);
+                } catch (IOException ex) {
+                    if (rf.isOpen()) {
+                        throw ex;
+                    }
+                }
+                rf = reader(rf);
+            }
+            if (rf != null) {
+                return rf.readRaw(idx, offset, BUFFERS.get(), false);
+            }
+            // closed - a reload replaced this index while it was still used
+            try (RegionFile tmp = new RegionFile(file, ReadStrategy.SECTORS)) {
+                return tmp.readRaw(idx, offset, BUFFERS.get(), false);
+            }
+        }
+
+        private RegionFile reader(RegionFile failed) throws IOException {
+            final RegionFile rf;
+            synchronized (this) {
+                if (closed) {
+                    return null;
+                }
+                if (reader != null && reader != failed) {
+                    return reader;
+                }
+                if (reader != null) {
+                    reader.close();
+                }
+                rf = reader = new RegionFile(file, ReadStrategy.SECTORS);
+            }
+            readerOpened(this);
+            return rf;
+        }
+
+        private synchronized void releaseReader() {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+
+        /**
+         * Closes the file handle used by {@link #load}. Later loads open the
+         * file for each chunk.
+         */
+        public void close() {
+            synchronized (this) {
+                closed = true;
+            }
+            releaseReader();
+            synchronized (OPEN_READERS) {
+                OPEN_READERS.remove(this);
+            }
+        }
+    }
+
+    /**
+     * Keeps the file handles of the most recently opened indexes. Without a
+     * limit a large world would run out of file handles.
+     */
+    private static void readerOpened(Index index) {
+        final Index eldest;
+        synchronized (OPEN_READERS) {
+            OPEN_READERS.remove(index);
+            OPEN_READERS.addLast(index);
+            eldest = (OPEN_READERS.size() > MAX_OPEN_READERS) ? OPEN_READERS.removeFirst() : null;
+        }
+        if (eldest != null) {
+            eldest.releaseReader();
         }
     }
 
@@ -173,15 +734,47 @@ public class RegionFile {
         }
     }
 
-    public @FunctionalInterface
-    interface LoadCompleted<T> {
-        public void loadCompleted(List<Expected<T>> chunks, long fileSize, long used);
+    /**
+     * Receives the chunks of a region file. {@link #opened} is called on the
+     * I/O thread, {@link #loaded} on the decode threads and the remaining
+     * methods on the completion executor.
+     */
+    public interface LoadListener<T> {
+        /**
+         * Called when the header has been read, before any chunk is loaded.
+         */
+        public void opened(int chunks);
+        public void loaded(T chunk);
+        /**
+         * Called after all chunks have been passed to {@link #loaded}.
+         * @param errors the chunks which could not be loaded
+         */
+        public void loadCompleted(List<Exception> errors, Index index, long used);
+        public void failed(Exception ex);
+    }
+
+    /**
+     * Provides the uncompressed data of unchanged chunks, e.g. from a
+     * {@link WorldSnapshot}, so that they are not read and inflated.
+     */
+    public interface ChunkSource {
+        /**
+         * @param timestamp the timestamp of the chunk in the region file
+         * @return the data or null if the chunk has to be read from the
+         * region file
+         */
+        public ByteBuffer get(int chunkX, int chunkZ, int timestamp);
     }
 
-    private static class ThreadLocalOffsets extends ThreadLocal<ByteBuffer> {
+    private @FunctionalInterface
+    interface ChunkDecoder<T> {
+        public T create(int chunkX, int chunkZ, NBTTagCompound nbt) throws IOException;
+    }
+
+    private static class ThreadLocalHeader extends ThreadLocal<ByteBuffer> {
         @Override
         protected ByteBuffer initialValue() {
-            return ByteBuffer.allocateDirect(4096);
+            return ByteBuffer.allocateDirect(8192);
         }
 
         @Override
@@ -198,12 +791,5 @@ public class RegionFile {
             return new ChunkBuffers();
         }
 
-        @Override
-        public ChunkBuffers get() {
-            final ChunkBuffers buffers = super.get();
-            buffers.header.clear();
-            buffers.uncompressed.clear();
-            return buffers;
-        }
     }
 }
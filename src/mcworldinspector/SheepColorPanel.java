@@ -3,12 +3,10 @@ package mcworldinspector;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import mcworldinspector.nbt.NBTTagCompound;
-import mcworldinspector.utils.AsyncExecution;
 
 /**
  *
@@ -34,12 +32,13 @@ public class SheepColorPanel extends AbstractFilteredPanel<MCColor> {
     @Override
     public void setWorld(World world, WorldRenderer renderer) {
         super.setWorld(world, renderer);
-        AsyncExecution.submitNoThrow(executorService, () -> {
-            return world.chunks()
-                    .flatMap(chunk -> chunk.getEntities(MINECRAFT_SHEEP))
-                    .flatMap(v -> MCColor.asStream(v.get("Color", Byte.class)))
-                .collect(Collectors.toCollection(TreeSet::new));
-        }, result -> {
+        updateList();
+    }
+
+    @Override
+    protected void updateList() {
+        updateListFromChunks(executorService, chunk -> chunk.getEntities(MINECRAFT_SHEEP)
+                .flatMap(v -> MCColor.asStream(v.get("Color", Byte.class))), result -> {
             colors = result;
             buildListModel();
         });
@@ -64,7 +63,7 @@ public class SheepColorPanel extends AbstractFilteredPanel<MCColor> {
 
     @Override
     protected Stream<? extends WorldRenderer.HighlightEntry> createHighlighter(List<MCColor> selected) {
-        return EntityTypesPanel.createHighlighter(world,
+        return EntityTypesPanel.createHighlighter(world, List.of(MINECRAFT_SHEEP),
                 e -> isSheepColor(e, selected), "Sheep details for ");
     }
 }
@@ -186,7 +186,7 @@ public class SimpleThingsPanel extends JPanel implements MCWorldInspector.InfoPa
         if(optPlains.isPresent()) {
             final Noise noise = new Noise(new Random(2345));
             int plainsID = optPlains.get().numericID;
-            highlight(world.getChunks().parallelStream().flatMap(chunk -> {
+            highlight(world.chunks().parallel().flatMap(chunk -> {
                 final var biomes = chunk.getBiomes();
                 if(biomes == null)
                     return Stream.empty();
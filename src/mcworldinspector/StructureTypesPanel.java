@@ -9,7 +9,6 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -22,7 +21,6 @@ import javax.swing.tree.TreePath;
 import mcworldinspector.nbt.NBTIntArray;
 import mcworldinspector.nbt.NBTTagCompound;
 import mcworldinspector.nbttree.NBTTreeModel;
-import mcworldinspector.utils.AsyncExecution;
 
 /**
  *
@@ -61,10 +59,12 @@ public class StructureTypesPanel extends AbstractFilteredPanel<String> {
     @Override
     public void setWorld(World world, WorldRenderer renderer) {
         super.setWorld(world, renderer);
-        AsyncExecution.submitNoThrow(executorService, () -> {
-            return world.chunks().flatMap(Chunk::structureTypes)
-                    .collect(Collectors.toCollection(TreeSet::new));
-        }, result -> {
+        updateList();
+    }
+
+    @Override
+    protected void updateList() {
+        updateListFromChunks(executorService, Chunk::structureTypes, result -> {
             structureTypes = result;
             buildListModel();
         });
@@ -78,7 +78,7 @@ public class StructureTypesPanel extends AbstractFilteredPanel<String> {
     @Override
     protected Stream<? extends WorldRenderer.HighlightEntry> createHighlighter(List<String> selected) {
         final var mode = (Mode)cbHighlightMode.getSelectedItem();
-        return world.getChunks().parallelStream()
+        return world.chunks().parallel()
                 .flatMap(chunk -> chunk.structures()
                         .filter(Chunk.filterByID(selected))
                         .flatMap(structure -> mode.create(world, chunk, structure)));
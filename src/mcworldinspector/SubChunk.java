@@ -1,12 +1,14 @@
 package mcworldinspector;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import mcworldinspector.nbt.NBTTagCompound;
-import mcworldinspector.nbt.NBTTagList;
 
 /**
  *
@@ -18,6 +20,12 @@ public interface SubChunk {
     public static final byte AIR = 1;
     public static final byte WATER = 2;
 
+    /**
+     * Per thread buffer for the block indices of a whole sub-chunk. It must
+     * not escape the method which unpacks into it.
+     */
+    public static final ThreadLocal<short[]> BLOCK_BUFFER = ThreadLocal.withInitial(() -> new short[4096]);
+
     int getGlobalY();
 
     Stream<String> getBlockTypes();
@@ -26,6 +34,15 @@ public interface SubChunk {
 
     int getBlockIndex(int xz, int y);
 
+    /**
+     * Stores the block indices of the 256 blocks of layer {@code y} in
+     * {@code dst} - use {@code dst[xz] & 0xFFFF}.
+     */
+    default void getLayerBlockIndices(int y, short[] dst) {
+        for(int xz=0 ; xz<256 ; xz++)
+            dst[xz] = (short)getBlockIndex(xz, y);
+    }
+
     byte getBlockType(int index);
 
     default byte getBlockType(int xz, int y) {
@@ -40,7 +57,25 @@ public interface SubChunk {
 
     long countBlocks(List<String> blockTypes);
 
-    Stream<BlockInfo> findBlocks(List<String> blockTypes, BlockPos offset);
+    /**
+     * Passes the block name and the number of blocks of each palette entry
+     * which occurs in this sub-chunk. A name can be passed more than once.
+     */
+    void forEachBlockCount(ObjIntConsumer<String> consumer);
+
+    /**
+     * Appends the blocks which match one of the given names or
+     * {@link BlockStateQuery} patterns to {@code result}.
+     * They are appended in ascending Y, Z, X order and {@code offset} is
+     * added to their position.
+     */
+    void findBlocks(List<String> blockTypes, BlockPos offset, FoundBlocks result);
+
+    default Stream<BlockInfo> findBlocks(List<String> blockTypes, BlockPos offset) {
+        final FoundBlocks result = new FoundBlocks();
+        findBlocks(blockTypes, offset, result);
+        return result.stream();
+    }
 
     public static class BlockInfo extends BlockPos {
         public final NBTTagCompound block;
@@ -85,21 +120,51 @@ public interface SubChunk {
         }
     }
     
-    public static byte[] createBlockTypes(NBTTagList<NBTTagCompound> palette) {
-        byte[] blockTypes = new byte[palette.size()];
-        for(int idx=0 ; idx<palette.size() ; ++idx) {
-            String name = palette.get(idx).getString("Name");
-            switch (name) {
-                case "minecraft:cave_air":
-                case "minecraft:air":
-                    blockTypes[idx] = AIR;
-                    break;
-                case "minecraft:water":
-                case "minecraft:bubble_column":
-                    blockTypes[idx] = WATER;
-                    break;
-            }
-        }
+    public static byte[] createBlockTypes(int[] palette) {
+        final byte[] blockTypes = new byte[palette.length];
+        for(int idx=0 ; idx<palette.length ; ++idx)
+            blockTypes[idx] = BlockStateRegistry.get(palette[idx]).type;
         return blockTypes;
     }
+
+    /**
+     * Sums the block counts of the given palette indices.
+     */
+    public static long countInHistogram(int[] histogram, IntStream paletteIndices) {
+        return paletteIndices.filter(idx -> idx < histogram.length)
+                .mapToLong(idx -> histogram[idx]).sum();
+    }
+
+    /**
+     * Returns a table with {@code size} entries which maps the palette
+     * indices of the given block names to their state id and all other
+     * indices to -1.
+     */
+    public static int[] findStatesInPalette(int[] palette, List<String> blockTypes, int size) {
+        final int[] stateIds = new int[size];
+        Arrays.fill(stateIds, -1);
+        findInPalette(palette, blockTypes).forEach(idx -> stateIds[idx] = palette[idx]);
+        return stateIds;
+    }
+
+    /**
+     * Appends all blocks whose index maps to a state id in {@code stateIds}.
+     */
+    public static void collectBlocks(short[] blocks, int[] stateIds, BlockPos offset, FoundBlocks result) {
+        for(int pos=0 ; pos<4096 ; pos++) {
+            final int stateId = stateIds[blocks[pos] & 0xFFFF];
+            if(stateId >= 0)
+                result.add((pos & 15) + offset.x, (pos >> 8) + offset.y,
+                        ((pos >> 4) & 15) + offset.z, stateId);
+        }
+    }
+
+    /**
+     * Returns the indices of the palette entries which match one of the
+     * given block names or {@link BlockStateQuery} patterns.
+     */
+    public static IntStream findInPalette(int[] palette, List<String> blockTypes) {
+        final BlockStateQuery query = BlockStateQuery.of(blockTypes);
+        return IntStream.range(0, palette.length).filter(idx -> query.matches(palette[idx]));
+    }
 }
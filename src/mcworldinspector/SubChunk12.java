@@ -5,9 +5,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.ObjIntConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -17,7 +19,6 @@ import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import mcworldinspector.nbt.NBTByteArray;
 import mcworldinspector.nbt.NBTTagCompound;
-import mcworldinspector.utils.IntPredicateBuilder;
 
 /**
  *
@@ -30,6 +31,7 @@ public class SubChunk12 implements SubChunk {
     private final int[] palette;
     private GlobalMapping mapping;
     private BlockColorMap.MappedBlockPalette mappedPalette = BlockColorMap.MappedBlockPalette.EMPTY;
+    private volatile int[] histogram;
 
     public SubChunk12(NBTByteArray blocks, NBTByteArray add, byte globalY) {
         this.gbi = (add == null) ? pos -> blocks.getUnsigned(pos)
@@ -114,79 +116,74 @@ public class SubChunk12 implements SubChunk {
         int get(int pos);
     }
 
+    /**
+     * Returns the number of blocks of each palette entry. It is computed in
+     * one pass over the blocks when it is first needed.
+     */
+    private int[] histogram() {
+        int[] h = histogram;
+        if(h == null) {
+            final int[] counts = new int[1 << 12];
+            for(int pos=0 ; pos<4096 ; pos++)
+                counts[gbi.get(pos)]++;
+            h = new int[palette.length];
+            for(int idx=0 ; idx<palette.length ; idx++)
+                h[idx] = counts[palette[idx]];
+            histogram = h;
+        }
+        return h;
+    }
+
     @Override
     public long countBlocks(List<String> blockTypes) {
         if (mapping == null)
             return 0l;
         final var pal = mapping.palette;
-        class Builder extends IntPredicateBuilder<Long> {
-            @Override
-            public Long build() {
-                return 0l;
-            }
-
-            @Override
-            public Long build(int index) {
-                final var gbi = SubChunk12.this.gbi;
-                return IntStream.range(0, 4096)
-                        .filter(pos -> index == gbi.get(pos))
-                        .count();
-            }
+        final var query = BlockStateQuery.of(blockTypes);
+        return SubChunk.countInHistogram(histogram(), IntStream.range(0, palette.length)
+                .filter(idx -> pal[palette[idx]] != null && query.matchesName(pal[palette[idx]])));
+    }
 
-            @Override
-            public Long build(int[] array, int count) {
-                final var gbi = SubChunk12.this.gbi;
-                return IntStream.range(0, 4096).filter(pos -> {
-                    final var value = gbi.get(pos);
-                    for (int idx = 0; idx < count; ++idx) {
-                        if (array[idx] == value)
-                            return true;
-                    }
-                    return false;
-                }).count();
-            }
+    @Override
+    public void forEachBlockCount(ObjIntConsumer<String> consumer) {
+        if(mapping == null)
+            return;
+        final var pal = mapping.palette;
+        final int[] h = histogram();
+        for(int idx=0 ; idx<palette.length ; idx++) {
+            final String name = pal[palette[idx]];
+            if(name != null && h[idx] > 0)
+                consumer.accept(name, h[idx]);
         }
-        final var b = new Builder();
-        return IntPredicateBuilder.of(blockTypes.stream().flatMapToInt(
-                blockType -> IntStream.range(0, pal.length).filter(
-                        idx -> blockType.equals(pal[idx]))), b);
     }
 
     @Override
-    public Stream<BlockInfo> findBlocks(List<String> blockTypes, BlockPos offset) {
+    public void findBlocks(List<String> blockTypes, BlockPos offset, FoundBlocks result) {
         if(mapping == null)
-            return Stream.empty();
+            return;
         final var pal = mapping.palette;
-        class Builder extends IntPredicateBuilder<Stream<BlockInfo>> {
-            @Override
-            public Stream<BlockInfo> build() {
-                return Stream.empty();
-            }
-            @Override
-            public Stream<BlockInfo> build(int index) {
-                final var block = NBTTagCompound.of("Name", pal[index]);
-                final var gbi = SubChunk12.this.gbi;
-                return IntStream.range(0, 4096)
-                        .filter(pos -> index == gbi.get(pos))
-                        .mapToObj(pos -> new BlockInfo(pos, offset, block));
-            }
-            @Override
-            public Stream<BlockInfo> build(int[] array, int count) {
-                final var gbi = SubChunk12.this.gbi;
-                return IntStream.range(0, 4096).mapToObj(pos -> {
-                    final var value = gbi.get(pos);
-                    for(int idx=0 ; idx<count ; ++idx)
-                        if(array[idx] == value)
-                            return new BlockInfo(pos, offset,
-                                    NBTTagCompound.of("Name", pal[value]));
-                    return null;
-                }).filter(Objects::nonNull);
+        final var query = BlockStateQuery.of(blockTypes);
+        final int[] h = histogram();
+        // the state ids are only registered for the block ids which match
+        final int[] stateIds = new int[1 << 12];
+        Arrays.fill(stateIds, -1);
+        int count = 0;
+        for(int idx=0 ; idx<palette.length ; idx++) {
+            final String name = pal[palette[idx]];
+            if(name != null && h[idx] > 0 && query.matchesName(name)) {
+                stateIds[palette[idx]] = BlockStateRegistry.register(NBTTagCompound.of("Name", name));
+                count += h[idx];
             }
         }
-        final var b = new Builder();
-        return IntPredicateBuilder.of(blockTypes.stream().flatMapToInt(
-                blockType -> IntStream.range(0, pal.length).filter(
-                        idx -> blockType.equals(pal[idx]))), b);
+        if(count == 0)
+            return;
+        result.ensureCapacity(count);
+        for(int pos=0 ; pos<4096 ; pos++) {
+            final int stateId = stateIds[gbi.get(pos)];
+            if(stateId >= 0)
+                result.add((pos & 15) + offset.x, (pos >> 8) + offset.y,
+                        ((pos >> 4) & 15) + offset.z, stateId);
+        }
     }
 
     public static class GlobalMapping {
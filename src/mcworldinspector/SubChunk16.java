@@ -1,13 +1,12 @@
 package mcworldinspector;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.IntStream;
+import java.util.function.ObjIntConsumer;
 import java.util.stream.Stream;
 import mcworldinspector.nbt.NBTLongArray;
 import mcworldinspector.nbt.NBTTagCompound;
 import mcworldinspector.nbt.NBTTagList;
-import mcworldinspector.utils.IntPredicateBuilder;
 
 /**
  *
@@ -15,18 +14,26 @@ import mcworldinspector.utils.IntPredicateBuilder;
  */
 public class SubChunk16 implements SubChunk {
 
-    private final NBTTagList<NBTTagCompound> palette;
+    /** {@code (pos * RECIPROCALS[n]) >>> 32} is {@code pos / n} for all positions */
+    private static final long[] RECIPROCALS = new long[65];
+    static {
+        for(int n=1 ; n<RECIPROCALS.length ; n++)
+            RECIPROCALS[n] = (1L << 32) / n + 1;
+    }
+
+    private final int[] palette;
     private final NBTLongArray blockStates;
     private final byte[] blockTypes;
     private final short globalY;
     private final byte bits_per_blockstate;
     private final byte blocks_per_long;
     private BlockColorMap.MappedBlockPalette mappedPalette = BlockColorMap.MappedBlockPalette.EMPTY;
+    private volatile int[] histogram;
 
     public SubChunk16(NBTTagList<NBTTagCompound> palette, NBTLongArray blockStates, short globalY) {
-        this.palette = palette;
+        this.palette = BlockStateRegistry.register(palette);
         this.blockStates = blockStates;
-        this.blockTypes = SubChunk.createBlockTypes(palette);
+        this.blockTypes = SubChunk.createBlockTypes(this.palette);
         this.bits_per_blockstate = (byte) Math.max(4, 32 - Integer.numberOfLeadingZeros(palette.size() - 1));
         this.blocks_per_long = (byte) (64 / (bits_per_blockstate & 255));
         this.globalY = globalY;
@@ -42,13 +49,18 @@ public class SubChunk16 implements SubChunk {
 
     @Override
     public Stream<String> getBlockTypes() {
-        return palette.stream().map(e -> e.getString("Name"));
+        return Arrays.stream(palette).mapToObj(id -> BlockStateRegistry.get(id).name);
     }
 
     private int getBlockIndex(int pos) {
         final int bits = bits_per_blockstate & 255;
         final int bpl = blocks_per_long & 255;
-        return (int) (blockStates.get(pos / bpl) >>> (bits * (pos % bpl))) & ((1 << bits) - 1);
+        final int idx = (int) ((pos * RECIPROCALS[bpl]) >>> 32);
+        return (int) (blockStates.getLong(idx) >>> (bits * (pos - idx * bpl))) & ((1 << bits) - 1);
+    }
+
+    private void unpack(short[] dst, int from, int count) {
+        blockStates.unpack(bits_per_blockstate & 255, true, dst, from, count);
     }
 
     @Override
@@ -56,9 +68,14 @@ public class SubChunk16 implements SubChunk {
         return getBlockIndex(xz + ((y & 15) << 8));
     }
 
+    @Override
+    public void getLayerBlockIndices(int y, short[] dst) {
+        unpack(dst, (y & 15) << 8, 256);
+    }
+
     @Override
     public NBTTagCompound getBlockFromPalette(int index) {
-        return (index >= 0 && index < palette.size()) ? palette.get(index) : null;
+        return (index >= 0 && index < palette.length) ? BlockStateRegistry.get(palette[index]).block : null;
     }
 
     @Override
@@ -86,72 +103,52 @@ public class SubChunk16 implements SubChunk {
         return mappedPalette;
     }
 
+    /**
+     * Returns the number of blocks of each palette entry. It is computed in
+     * one pass over the block states when it is first needed.
+     */
+    private int[] histogram() {
+        int[] h = histogram;
+        if (h == null) {
+            final short[] blocks = SubChunk.BLOCK_BUFFER.get();
+            unpack(blocks, 0, 4096);
+            h = new int[1 << (bits_per_blockstate & 255)];
+            for (int pos = 0; pos < 4096; pos++)
+                h[blocks[pos] & 0xFFFF]++;
+            h = Arrays.copyOf(h, palette.length);
+            histogram = h;
+        }
+        return h;
+    }
+
     @Override
     public long countBlocks(List<String> blockTypes) {
-        class Builder extends IntPredicateBuilder<Long> {
-            @Override
-            public Long build() {
-                return 0l;
-            }
-
-            @Override
-            public Long build(int index) {
-                return IntStream.range(0, 4096)
-                        .filter(pos -> index == getBlockIndex(pos))
-                        .count();
-            }
-
-            @Override
-            public Long build(int[] array, int count) {
-                return IntStream.range(0, 4096).filter(pos -> {
-                    final var value = getBlockIndex(pos);
-                    for (int idx = 0; idx < count; ++idx) {
-                        if (array[idx] == value)
-                            return true;
-                    }
-                    return false;
-                }).count();
-            }
+        return SubChunk.countInHistogram(histogram(), SubChunk.findInPalette(palette, blockTypes));
+    }
+
+    @Override
+    public void forEachBlockCount(ObjIntConsumer<String> consumer) {
+        final int[] h = histogram();
+        for (int idx = 0; idx < palette.length; idx++) {
+            if (h[idx] > 0)
+                consumer.accept(BlockStateRegistry.get(palette[idx]).name, h[idx]);
         }
-        final var b = new Builder();
-        final var pal = palette;
-        return IntPredicateBuilder.of(blockTypes.stream().flatMapToInt(
-                blockType -> IntStream.range(0, pal.size()).filter(
-                        idx -> blockType.equals(pal.get(idx).getString("Name")))), b);
     }
 
     @Override
-    public Stream<BlockInfo> findBlocks(List<String> blockTypes, BlockPos offset) {
-        class Builder extends IntPredicateBuilder<Stream<BlockInfo>> {
-            @Override
-            public Stream<BlockInfo> build() {
-                return Stream.empty();
-            }
-
-            @Override
-            public Stream<BlockInfo> build(int index) {
-                final var block = palette.get(index);
-                return IntStream.range(0, 4096)
-                        .filter(pos -> index == getBlockIndex(pos))
-                        .mapToObj(pos -> new BlockInfo(pos, offset, block));
-            }
-
-            @Override
-            public Stream<BlockInfo> build(int[] array, int count) {
-                final var pal = palette;
-                return IntStream.range(0, 4096).mapToObj(pos -> {
-                    final var value = getBlockIndex(pos);
-                    for (int idx = 0; idx < count; ++idx)
-                        if (array[idx] == value)
-                            return new BlockInfo(pos, offset, pal.get(value));
-                    return null;
-                }).filter(Objects::nonNull);
-            }
+    public void findBlocks(List<String> blockTypes, BlockPos offset, FoundBlocks result) {
+        final int[] h = histogram();
+        final int[] stateIds = SubChunk.findStatesInPalette(palette, blockTypes, 1 << (bits_per_blockstate & 255));
+        int count = 0;
+        for (int idx = 0; idx < palette.length; idx++) {
+            if (stateIds[idx] >= 0)
+                count += h[idx];
         }
-        final var b = new Builder();
-        final var pal = palette;
-        return IntPredicateBuilder.of(blockTypes.stream().flatMapToInt(
-                blockType -> IntStream.range(0, pal.size()).filter(
-                        idx -> blockType.equals(pal.get(idx).getString("Name")))), b);
+        if (count == 0)
+            return;
+        result.ensureCapacity(count);
+        final short[] blocks = SubChunk.BLOCK_BUFFER.get();
+        unpack(blocks, 0, 4096);
+        SubChunk.collectBlocks(blocks, stateIds, offset, result);
     }
 }
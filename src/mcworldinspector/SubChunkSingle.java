@@ -1,6 +1,8 @@
 package mcworldinspector;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.ObjIntConsumer;
 import java.util.stream.Stream;
 import mcworldinspector.nbt.NBTTagCompound;
 import mcworldinspector.nbt.NBTTagList;
@@ -11,15 +13,15 @@ import mcworldinspector.nbt.NBTTagList;
  */
 public class SubChunkSingle implements SubChunk {
     
-    private final NBTTagList<NBTTagCompound> palette;
+    private final int[] palette;
     private final short globalY;
     private final byte[] blockTypes;
     private BlockColorMap.MappedBlockPalette mappedPalette = BlockColorMap.MappedBlockPalette.EMPTY;
     
     public SubChunkSingle(NBTTagList<NBTTagCompound> palette, short globalY) {
-        this.palette = palette;
+        this.palette = BlockStateRegistry.register(palette);
         this.globalY = globalY;
-        this.blockTypes = SubChunk.createBlockTypes(palette);
+        this.blockTypes = SubChunk.createBlockTypes(this.palette);
     }
     
     @Override
@@ -29,7 +31,7 @@ public class SubChunkSingle implements SubChunk {
 
     @Override
     public Stream<String> getBlockTypes() {
-        return palette.stream().map(e -> e.getString("Name"));
+        return Arrays.stream(palette).mapToObj(id -> BlockStateRegistry.get(id).name);
     }
 
     @Override
@@ -39,7 +41,7 @@ public class SubChunkSingle implements SubChunk {
 
     @Override
     public NBTTagCompound getBlockFromPalette(int index) {
-        return (index >= 0 && index < palette.size()) ? palette.get(index) : null;
+        return (index >= 0 && index < palette.length) ? BlockStateRegistry.get(palette[index]).block : null;
     }
 
     @Override
@@ -66,12 +68,24 @@ public class SubChunkSingle implements SubChunk {
 
     @Override
     public long countBlocks(List<String> blockTypes) {
-        return 0l;
+        // all blocks use the first palette entry
+        return SubChunk.findInPalette(palette, blockTypes).anyMatch(idx -> idx == 0) ? 4096 : 0;
     }
 
     @Override
-    public Stream<BlockInfo> findBlocks(List<String> blockTypes, BlockPos offset) {
-        return Stream.empty();
+    public void forEachBlockCount(ObjIntConsumer<String> consumer) {
+        if(palette.length > 0)
+            consumer.accept(BlockStateRegistry.get(palette[0]).name, 4096);
+    }
+
+    @Override
+    public void findBlocks(List<String> blockTypes, BlockPos offset, FoundBlocks result) {
+        if(SubChunk.findInPalette(palette, blockTypes).noneMatch(idx -> idx == 0))
+            return;
+        result.ensureCapacity(4096);
+        for(int pos=0 ; pos<4096 ; pos++)
+            result.add((pos & 15) + offset.x, (pos >> 8) + offset.y,
+                    ((pos >> 4) & 15) + offset.z, palette[0]);
     }
     
 }
@@ -0,0 +1,197 @@
+package mcworldinspector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores {@link ChunkSummary} objects on disk - one file per region file.
+ * Each entry carries the chunk timestamps from the region file header so
+ * that changed chunks are detected and summarized again. Without a folder
+ * the summaries are only kept in memory. The file of a region is read when
+ * one of its summaries is first needed.
+ *
+ * @author matthias
+ */
+public class SummaryCache {
+
+    private static final int MAGIC = 0x4D435753;    // "MCWS"
+    private static final int VERSION = 3;
+
+    private final File folder;
+    private final ConcurrentHashMap<XZPosition, Region> regions = new ConcurrentHashMap<>();
+
+    public SummaryCache(File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Returns a folder below the users cache directory which is unique for
+     * the given region folder.
+     */
+    public static File defaultFolder(File regionFolder) {
+        String base = System.getenv("LOCALAPPDATA");
+        if(base == null)
+            base = System.getenv("XDG_CACHE_HOME");
+        if(base == null)
+            base = new File(System.getProperty("user.home"), ".cache").getPath();
+        final File absolute = regionFolder.getAbsoluteFile();
+        final File world = absolute.getParentFile();
+        final String name = ((world != null) ? world.getName() : absolute.getName())
+                .replaceAll("[^A-Za-z0-9_.-]", "_");
+        return new File(new File(base, "MCWorldInspector"),
+                name + "-" + Integer.toHexString(absolute.getPath().hashCode()));
+    }
+
+    public File getFolder() {
+        return folder;
+    }
+
+    private File getFile(XZPosition regionStart) {
+        return new File(folder, "r." + (regionStart.x >> 5) + "." + (regionStart.z >> 5) + ".summary");
+    }
+
+    /**
+     * Reads the stored summaries of one region unless that was already done.
+     */
+    public void load(XZPosition regionStart) {
+        region(regionStart);
+    }
+
+    private Region region(XZPosition regionStart) {
+        return regions.computeIfAbsent(regionStart,
+                k -> (folder != null) ? read(k) : new Region());
+    }
+
+    /**
+     * Reads the summaries of one region. A missing or damaged file results
+     * in an empty region.
+     */
+    private Region read(XZPosition regionStart) {
+        final Region region = new Region();
+        final File file = getFile(regionStart);
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file), 1 << 16)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Unsupported summary file");
+            final String[] strings = new String[in.readInt()];
+            for(int i=0 ; i<strings.length ; i++)
+                strings[i] = in.readUTF();
+            final int count = in.readUnsignedShort();
+            for(int i=0 ; i<count ; i++) {
+                final var summary = ChunkSummary.read(in, regionStart.x, regionStart.z, strings);
+                region.entries[RegionFile.Index.indexOf(summary.x, summary.z)] = summary;
+            }
+        } catch(FileNotFoundException ex) {
+        } catch(IOException ex) {
+            Logger.getLogger(SummaryCache.class.getName()).log(Level.WARNING,
+                    "Ignoring summary cache file " + file, ex);
+            region.clear();
+        }
+        return region;
+    }
+
+    public ChunkSummary get(XZPosition pos) {
+        return region(new XZPosition(pos.x & ~31, pos.z & ~31))
+                .get(RegionFile.Index.indexOf(pos.x, pos.z));
+    }
+
+    public void put(ChunkSummary summary) {
+        region(new XZPosition(summary.x & ~31, summary.z & ~31))
+                .put(RegionFile.Index.indexOf(summary.x, summary.z), summary);
+    }
+
+    /**
+     * Writes all regions which received new summaries since they were loaded.
+     */
+    public void save() {
+        if(folder == null)
+            return;
+        for(Map.Entry<XZPosition, Region> e : regions.entrySet()) {
+            final var summaries = e.getValue().takeDirty();
+            if(summaries == null)
+                continue;
+            final File file = getFile(e.getKey());
+            try {
+                write(file, summaries);
+            } catch(IOException ex) {
+                Logger.getLogger(SummaryCache.class.getName()).log(Level.WARNING,
+                        "Could not write summary cache file " + file, ex);
+            }
+        }
+    }
+
+    private void write(File file, ArrayList<ChunkSummary> summaries) throws IOException {
+        final HashMap<String, Integer> stringIds = new HashMap<>();
+        final ArrayList<String> strings = new ArrayList<>();
+        final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        final DataOutputStream entriesOut = new DataOutputStream(entries);
+        for(ChunkSummary s : summaries)
+            s.write(entriesOut, str -> stringIds.computeIfAbsent(str, k -> {
+                strings.add(k);
+                return strings.size() - 1;
+            }));
+
+        if(!folder.isDirectory() && !folder.mkdirs())
+            throw new IOException("Could not create folder " + folder);
+        final File tmp = new File(file.getPath() + ".tmp");
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(tmp), 1 << 16)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(strings.size());
+            for(String s : strings)
+                out.writeUTF(s);
+            out.writeShort(summaries.size());
+            entries.writeTo(out);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static class Region {
+        final ChunkSummary[] entries = new ChunkSummary[32 * 32];
+        private boolean dirty;
+
+        synchronized ChunkSummary get(int idx) {
+            return entries[idx];
+        }
+
+        synchronized void put(int idx, ChunkSummary summary) {
+            entries[idx] = summary;
+            dirty = true;
+        }
+
+        synchronized void clear() {
+            Arrays.fill(entries, null);
+        }
+
+        synchronized ArrayList<ChunkSummary> takeDirty() {
+            if(!dirty)
+                return null;
+            dirty = false;
+            final ArrayList<ChunkSummary> result = new ArrayList<>();
+            for(ChunkSummary s : entries)
+                if(s != null)
+                    result.add(s);
+            return result;
+        }
+    }
+}
@@ -6,7 +6,6 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -15,7 +14,6 @@ import java.util.stream.Stream;
 import javax.swing.JComponent;
 import mcworldinspector.nbt.NBTTagCompound;
 import mcworldinspector.nbttree.NBTTreeModel;
-import mcworldinspector.utils.AsyncExecution;
 
 /**
  *
@@ -39,10 +37,12 @@ public class TileEntityTypesPanel extends AbstractFilteredPanel<String> {
     @Override
     public void setWorld(World world, WorldRenderer renderer) {
         super.setWorld(world, renderer);
-        AsyncExecution.submitNoThrow(executorService, () -> {
-            return world.chunks().flatMap(Chunk::tileEntityTypes)
-                    .collect(Collectors.toCollection(TreeSet::new));
-        }, result -> {
+        updateList();
+    }
+
+    @Override
+    protected void updateList() {
+        updateListFromSummaries(executorService, ChunkSummary::tileEntityTypes, result -> {
             tileEntities = result;
             buildListModel();
         });
@@ -55,7 +55,7 @@ public class TileEntityTypesPanel extends AbstractFilteredPanel<String> {
 
     @Override
     protected Stream<? extends WorldRenderer.HighlightEntry> createHighlighter(List<String> selected) {
-        return world.getChunks().parallelStream()
+        return world.chunks(s -> s.hasAnyTileEntityType(selected)).parallel()
                 .filter(chunk -> chunk.tileEntityTypes().anyMatch(selected::contains))
                 .map(chunk -> new TileEntityHighlightEntry(chunk,
                         "Tile entity details for ", Chunk.filterByID(selected),
@@ -8,7 +8,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -22,7 +21,6 @@ import mcworldinspector.nbt.NBTDoubleArray;
 import mcworldinspector.nbt.NBTTagCompound;
 import mcworldinspector.nbt.NBTTagList;
 import mcworldinspector.nbttree.NBTTreeModel;
-import mcworldinspector.utils.AsyncExecution;
 import mcworldinspector.utils.ContextMenuMouseListener;
 
 /**
@@ -49,13 +47,14 @@ public class VillagerPanel extends AbstractFilteredPanel<String> {
     @Override
     public void setWorld(World world, WorldRenderer renderer) {
         super.setWorld(world, renderer);
-        AsyncExecution.submitNoThrow(executorService, () -> {
-            return world.chunks()
-                    .flatMap(chunk -> chunk.getEntities(MINECRAFT_VILLAGER))
-                    .map(VillagerPanel::getProfession)
-                    .filter(Objects::nonNull)
-                    .collect(Collectors.toCollection(TreeSet::new));
-        }, result -> {
+        updateList();
+    }
+
+    @Override
+    protected void updateList() {
+        updateListFromChunks(executorService, chunk -> chunk.getEntities(MINECRAFT_VILLAGER)
+                .map(VillagerPanel::getProfession)
+                .filter(Objects::nonNull), result -> {
             professions = result;
             buildListModel();
         });
@@ -74,7 +73,7 @@ public class VillagerPanel extends AbstractFilteredPanel<String> {
     protected Stream<? extends WorldRenderer.HighlightEntry> createHighlighter(List<String> selected) {
         final Predicate<NBTTagCompound> filter = villager ->
                 selected.contains(getProfession(villager));
-        return world.getChunks().parallelStream()
+        return world.chunks().parallel()
                 .filter(chunk -> chunk.getEntities(MINECRAFT_VILLAGER)
                         .anyMatch(filter))
                 .map(chunk -> new ChunkHighlightEntry(chunk) {
@@ -4,27 +4,44 @@ import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
 import mcworldinspector.nbt.NBTDoubleArray;
 import mcworldinspector.nbt.NBTFloatArray;
 import mcworldinspector.nbt.NBTIntArray;
+import mcworldinspector.nbt.NBTProjection;
 import mcworldinspector.nbt.NBTTagCompound;
 import mcworldinspector.utils.AsyncExecution;
 import mcworldinspector.utils.Expected;
@@ -39,23 +56,42 @@ import mcworldinspector.utils.IOExceptionWithFile;
 public class World {
 
     private NBTTagCompound level = NBTTagCompound.EMPTY;
-    private Map<Integer, Biome> biomeRegistry = Collections.emptyMap();
-    private final HashMap<XZPosition, Chunk> chunks = new HashMap<>();
+    private volatile Map<Integer, Biome> biomeRegistry = Collections.emptyMap();
+    private final ChunkMap chunks = new ChunkMap();
+    private final BlockTypeIndex blockTypeIndex = new BlockTypeIndex();
     private final TreeMap<Integer, MCMap> maps = new TreeMap<>();
     private File folder;
     private int dataVersion;
     private int regionFilesCount;
     private long regionFilesTotalSize;
     private long regionFilesUsed;
-    private SubChunk12.GlobalMapping globalMapping12;
+    private volatile SubChunk12.GlobalMapping globalMapping12;
+    private final ConcurrentHashMap<XZPosition, RegionFile.Index> regions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<XZPosition, RegionFile.Index> entityRegions = new ConcurrentHashMap<>();
+    private File regionFolder;
+    private File entitiesFolder;
+    private File levelDatFile;
+    private long levelDatModified;
+    private ChunkCache cache;
+    private ChunkSpillStore spillStore;
+    private volatile WorldSnapshot snapshot;
+    private SummaryCache summaryCache = new SummaryCache(null);
+    private volatile BlockColorMap blockColorMap;
+    private NBTProjection projection = Chunk.PROJECTION;
+    private volatile boolean complete;
+    private final AtomicBoolean reloading = new AtomicBoolean();
 
     public static final int DATAVERSION_18 = 0xB9F;
 
     private World() {
     }
 
-    private void finish() {
-        biomeRegistry = getRegistry("minecraft:biome", "minecraft:biomes", "minecraft:worldgen/biome")
+    /**
+     * Sets up the registries of level.dat. Chunks which are added later are
+     * prepared by {@link #prepareChunk}.
+     */
+    private void applyLevel() {
+        Map<Integer, Biome> registry = getRegistry("minecraft:biome", "minecraft:biomes", "minecraft:worldgen/biome")
                 .getList("ids", NBTTagCompound.class)
                 .stream().flatMap(biome -> {
                     Integer value = biome.get("V", Integer.class);
@@ -65,20 +101,23 @@ public class World {
                     }
                     return Stream.empty();
                 }).collect(Collectors.toMap(Biome::getNumericID, v -> v));
-        if (biomeRegistry.isEmpty()) {
-            biomeRegistry = Biome.VANILLA_BIOMES;
+        if (registry.isEmpty()) {
+            registry = Biome.VANILLA_BIOMES;
         }
+        biomeRegistry = registry;
 
         if (dataVersion <= 1343) {
             final var gm = new SubChunk12.GlobalMapping(level, folder);
             globalMapping12 = gm;
-            chunks.values().parallelStream()
+            chunks.stream().parallel()
                     .flatMap(Chunk::subChunks)
                     .forEach(sc -> {
                         if (sc instanceof SubChunk12) {
                             ((SubChunk12) sc).setGlobalMapping(gm);
                         }
                     });
+            // the block names of these chunks were unknown when they were indexed
+            chunks.stream().forEach(blockTypeIndex::add);
         }
     }
 
@@ -98,6 +137,13 @@ public class World {
         return regionFilesUsed;
     }
 
+    /**
+     * Returns the direct memory used for the block data of loaded chunks.
+     */
+    public long getOffHeapSize() {
+        return chunks.getOffHeapSize();
+    }
+
     public NBTTagCompound getLevel() {
         return level;
     }
@@ -120,8 +166,87 @@ public class World {
         return Stream.of(names).map(registries::getCompound).filter(nbt -> !nbt.isEmpty()).findFirst().orElse(NBTTagCompound.EMPTY);
     }
 
-    public Collection<Chunk> getChunks() {
-        return chunks.values();
+    public boolean isLazy() {
+        return cache != null;
+    }
+
+    /**
+     * Returns the store of evicted chunks or null when chunks are not
+     * spilled to disk.
+     */
+    public ChunkSpillStore getSpillStore() {
+        return spillStore;
+    }
+
+    /**
+     * Returns the snapshot used for loading unchanged chunks or null.
+     */
+    public WorldSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Writes the chunks of all region files into a new snapshot file next to
+     * {@code file}. The chunks are read again from the region files, so this
+     * works for lazy and fully loaded worlds. The world switches to the new
+     * snapshot, the mapping of the old one is only released by the garbage
+     * collector. Must not be called while the world is loading.
+     *
+     * @param progress receives the number of regions written
+     * @return the written snapshot file
+     */
+    public File writeSnapshot(File file, IntConsumer progress) throws IOException {
+        final File target = WorldSnapshot.nextFile(file);
+        try (WorldSnapshot.Writer writer = new WorldSnapshot.Writer(target)) {
+            int done = 0;
+            for (RegionFile.Index index : regions.values()) {
+                final var start = index.getRegionStart();
+                final var extraIndex = entityRegions.get(start);
+                for (int idx : index.chunkIndices().toArray()) {
+                    final var pos = new XZPosition(start.x + (idx & 31), start.z + (idx >> 5));
+                    try {
+                        final var data = index.loadProjected(idx, Chunk.PROJECTION);
+                        final var extraData = (extraIndex != null && extraIndex.hasChunk(idx))
+                                ? extraIndex.loadProjected(idx, Chunk.ENTITIES_PROJECTION) : null;
+                        writer.add(pos, index.getTimestamp(idx),
+                                getEntityTimestamp(start, idx), data, extraData);
+                    } catch (IOException ex) {
+                        Logger.getLogger(World.class.getName()).log(Level.WARNING,
+                                "Skipping chunk " + pos + " in snapshot", ex);
+                    }
+                }
+                progress.accept(++done);
+            }
+            writer.finish();
+        }
+        if (projection == Chunk.PROJECTION) {
+            snapshot = WorldSnapshot.open(target);
+        }
+        WorldSnapshot.deleteOlder(file, target);
+        return target;
+    }
+
+    /**
+     * Releases the resources which are not freed by the garbage collector.
+     */
+    public void close() {
+        if (spillStore != null) {
+            spillStore.close();
+        }
+        regions.values().forEach(RegionFile.Index::close);
+        entityRegions.values().forEach(RegionFile.Index::close);
+    }
+
+    /**
+     * Returns the index of the block types of all chunks or null in lazy
+     * mode, where only the loaded chunks would be indexed.
+     */
+    public BlockTypeIndex getBlockTypeIndex() {
+        return (cache == null) ? blockTypeIndex : null;
+    }
+
+    public ChunkCache getChunkCache() {
+        return cache;
     }
 
     public TreeMap<Integer, MCMap> getMaps() {
@@ -129,7 +254,302 @@ public class World {
     }
 
     public Chunk getChunk(int x, int y) {
-        return chunks.get(new XZPosition(x, y));
+        if (cache == null) {
+            return chunks.get(x, y);
+        }
+        final var index = regions.get(new XZPosition(x & ~31, y & ~31));
+        return (index != null) ? loadChunk(index, RegionFile.Index.indexOf(x, y)) : null;
+    }
+
+    private Chunk loadChunk(RegionFile.Index index, int idx) {
+        if (!index.hasChunk(idx)) {
+            return null;
+        }
+        final var start = index.getRegionStart();
+        final var pos = new XZPosition(start.x + (idx & 31), start.z + (idx >> 5));
+        final Chunk cached = cache.get(pos);
+        if (cached != null) {
+            return cached;
+        }
+        final var stored = getStoredSummary(index, idx, pos);
+        if (stored != null && stored.isEmpty()) {
+            index.setEmpty(idx);
+            return null;
+        }
+        try {
+            if (spillStore != null || snapshot != null) {
+                return loadSpillableChunk(index, idx, pos);
+            }
+            return index.load(idx, projection, (x, z, nbt, size) -> {
+                final Chunk chunk = new Chunk(x, z, nbt);
+                if (chunk.isEmpty()) {
+                    setEmpty(index, idx, chunk);
+                    return null;
+                }
+                final var extraIndex = entityRegions.get(start);
+                if (extraIndex != null && extraIndex.hasChunk(idx)) {
+                    size += extraIndex.load(idx, Chunk.ENTITIES_PROJECTION, (ex, ez, extra, extraSize) -> {
+                        if (!extra.isEmpty()) {
+                            chunk.setExtra(extra);
+                        }
+                        return extraSize;
+                    });
+                }
+                return cacheChunk(index, idx, chunk, size, null);
+            });
+        } catch (IOException ex) {
+            Logger.getLogger(World.class.getName()).log(Level.SEVERE,
+                    "Could not load chunk " + pos + " from " + index.getFile(), ex);
+            index.setEmpty(idx);
+            return null;
+        }
+    }
+
+    private int getEntityTimestamp(XZPosition regionStart, int idx) {
+        final var extraIndex = entityRegions.get(regionStart);
+        return (extraIndex != null && extraIndex.hasChunk(idx)) ? extraIndex.getTimestamp(idx) : 0;
+    }
+
+    private ChunkSummary getStoredSummary(RegionFile.Index index, int idx, XZPosition pos) {
+        final var summary = summaryCache.get(pos);
+        return (summary != null && summary.isValid(index.getTimestamp(idx),
+                getEntityTimestamp(index.getRegionStart(), idx))) ? summary : null;
+    }
+
+    /**
+     * Loads a chunk from the snapshot, the spill store or from the region
+     * file. Chunks read from the region file are added to the spill store
+     * when the cache evicts them, so that they can be parsed again without
+     * inflating them.
+     */
+    private Chunk loadSpillableChunk(RegionFile.Index index, int idx, XZPosition pos) throws IOException {
+        final var start = index.getRegionStart();
+        final int timestamp = index.getTimestamp(idx);
+        final int entityTimestamp = getEntityTimestamp(start, idx);
+        var spilled = (snapshot != null) ? snapshot.get(pos, timestamp, entityTimestamp) : null;
+        if (spilled == null && spillStore != null) {
+            spilled = spillStore.get(pos, timestamp, entityTimestamp);
+        }
+        final ByteBuffer data;
+        ByteBuffer extraData = null;
+        if (spilled != null) {
+            data = spilled.chunk;
+            extraData = spilled.extra;
+        } else {
+            data = index.loadProjected(idx, projection);
+            final var extraIndex = entityRegions.get(start);
+            if (extraIndex != null && extraIndex.hasChunk(idx)) {
+                extraData = extraIndex.loadProjected(idx, Chunk.ENTITIES_PROJECTION);
+            }
+        }
+        final Chunk chunk = new Chunk(pos.x, pos.z, NBTTagCompound.parse(data.duplicate(), projection));
+        if (chunk.isEmpty()) {
+            setEmpty(index, idx, chunk);
+            return null;
+        }
+        if (extraData != null) {
+            final var extra = NBTTagCompound.parse(extraData.duplicate(), Chunk.ENTITIES_PROJECTION);
+            if (!extra.isEmpty()) {
+                chunk.setExtra(extra);
+            }
+        }
+        final var store = spillStore;
+        final var extra = extraData;
+        final Runnable spill = (spilled == null && store != null)
+                ? () -> store.put(pos, timestamp, entityTimestamp, data, extra) : null;
+        final long size = data.remaining() + ((extraData != null) ? extraData.remaining() : 0);
+        return cacheChunk(index, idx, chunk, size, spill);
+    }
+
+    /**
+     * Marks a chunk without height map as empty. The summary cache keeps
+     * this so that the chunk is not read again when the world is reopened.
+     */
+    private void setEmpty(RegionFile.Index index, int idx, Chunk chunk) {
+        index.setEmpty(idx);
+        if (summaryCache.getFolder() != null) {
+            summarize(index, idx, chunk);
+        }
+    }
+
+    private Chunk cacheChunk(RegionFile.Index index, int idx, Chunk chunk, long size, Runnable onEvict) {
+        prepareChunk(chunk);
+        if (summaryCache.getFolder() != null) {
+            summarize(index, idx, chunk);
+        }
+        return cache.put(chunk, size, onEvict);
+    }
+
+    /**
+     * Returns the stored summary of a chunk or creates it. New summaries are
+     * only stored once loading is complete because the entities are added
+     * to the chunks last.
+     */
+    private ChunkSummary summarize(RegionFile.Index index, int idx, Chunk chunk) {
+        var summary = getStoredSummary(index, idx, chunk);
+        if (summary == null) {
+            summary = ChunkSummary.of(chunk, index.getTimestamp(idx),
+                    getEntityTimestamp(index.getRegionStart(), idx));
+            if (complete) {
+                summaryCache.put(summary);
+            }
+        }
+        return summary;
+    }
+
+    private ChunkSummary getSummary(RegionFile.Index index, int idx) {
+        if (!index.hasChunk(idx)) {
+            return null;
+        }
+        final var start = index.getRegionStart();
+        final var pos = new XZPosition(start.x + (idx & 31), start.z + (idx >> 5));
+        final var summary = getStoredSummary(index, idx, pos);
+        if (summary != null) {
+            if (summary.isEmpty()) {
+                index.setEmpty(idx);
+                return null;
+            }
+            return summary;
+        }
+        if (cache != null) {
+            final var chunk = loadChunk(index, idx);
+            return (chunk != null) ? summarize(index, idx, chunk) : null;
+        }
+        final var chunk = chunks.get(pos.x, pos.z);
+        if (chunk != null) {
+            return summarize(index, idx, chunk);
+        }
+        if (complete) {
+            // the chunk has no height map or could not be loaded
+            summaryCache.put(ChunkSummary.empty(pos.x, pos.z, index.getTimestamp(idx),
+                    getEntityTimestamp(start, idx)));
+        }
+        return null;
+    }
+
+    /**
+     * Returns the summary of a chunk or null if there is no such chunk.
+     */
+    public ChunkSummary getSummary(int x, int z) {
+        if (cache == null && summaryCache.getFolder() == null) {
+            final var chunk = chunks.get(x, z);
+            return (chunk != null) ? ChunkSummary.of(chunk, 0, 0) : null;
+        }
+        final var index = regions.get(new XZPosition(x & ~31, z & ~31));
+        return (index != null) ? getSummary(index, RegionFile.Index.indexOf(x, z)) : null;
+    }
+
+    /**
+     * Returns the summaries of all chunks. With a summary folder summaries
+     * are computed once per chunk and stored summaries of unchanged chunks
+     * are used without decoding the chunk. Without a summary folder and
+     * when all chunks are loaded the summaries are created on the fly and
+     * not kept.
+     */
+    public Stream<ChunkSummary> summaries() {
+        if (cache == null && summaryCache.getFolder() == null) {
+            return chunks.stream().map(chunk -> ChunkSummary.of(chunk, 0, 0));
+        }
+        return regions.values().stream().flatMap(index -> index.chunkIndices()
+                .mapToObj(idx -> getSummary(index, idx))
+                .filter(Objects::nonNull));
+    }
+
+    /**
+     * Returns the chunks whose summary matches the filter. The filter is only
+     * used to skip decoding chunks in lazy mode, so callers still have to
+     * check each returned chunk.
+     */
+    public Stream<Chunk> chunks(Predicate<ChunkSummary> filter) {
+        if (cache == null) {
+            return chunks.stream();
+        }
+        return regions.values().stream().flatMap(index -> index.chunkIndices()
+                .filter(idx -> {
+                    final var summary = getSummary(index, idx);
+                    return summary != null && filter.test(summary);
+                })
+                .mapToObj(idx -> loadChunk(index, idx))
+                .filter(Objects::nonNull));
+    }
+
+    /**
+     * Returns the stored summaries of the chunks of a region which are not
+     * empty or null if one of them is missing or outdated. The entity
+     * timestamps are not checked as the entities are not part of the map.
+     */
+    public ArrayList<ChunkSummary> getRegionSummaries(XZPosition regionStart) {
+        final var index = regions.get(regionStart);
+        if (index == null || summaryCache.getFolder() == null) {
+            return null;
+        }
+        final ArrayList<ChunkSummary> result = new ArrayList<>();
+        for (int idx : index.chunkIndices().toArray()) {
+            final var summary = summaryCache.get(new XZPosition(
+                    regionStart.x + (idx & 31), regionStart.z + (idx >> 5)));
+            if (summary == null || summary.getTimestamp() != index.getTimestamp(idx)) {
+                return null;
+            }
+            if (!summary.isEmpty()) {
+                result.add(summary);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the stored summary of a chunk which is not empty or null if it
+     * is missing or outdated. The chunk is never loaded.
+     */
+    public ChunkSummary getStoredSummary(int x, int z) {
+        final var index = regions.get(new XZPosition(x & ~31, z & ~31));
+        if (index == null || summaryCache.getFolder() == null) {
+            return null;
+        }
+        final int idx = RegionFile.Index.indexOf(x, z);
+        if (!index.hasChunk(idx)) {
+            return null;
+        }
+        final var summary = summaryCache.get(new XZPosition(x, z));
+        return (summary != null && !summary.isEmpty()
+                && summary.getTimestamp() == index.getTimestamp(idx)) ? summary : null;
+    }
+
+    /**
+     * Writes new chunk summaries to the summary cache.
+     */
+    public void saveSummaries() {
+        summaryCache.save();
+    }
+
+    private void prepareChunk(Chunk chunk) {
+        final var gm = globalMapping12;
+        final var bcm = blockColorMap;
+        if (gm != null || bcm != null) {
+            chunk.subChunks().forEach(sc -> {
+                if (gm != null && sc instanceof SubChunk12) {
+                    ((SubChunk12) sc).setGlobalMapping(gm);
+                }
+                if (bcm != null) {
+                    sc.mapBlockColors(bcm);
+                }
+            });
+        }
+    }
+
+    /**
+     * Maps the block colors of all loaded chunks. In lazy mode chunks which
+     * are loaded later are mapped when they are loaded.
+     */
+    public BlockColorMap getBlockColorMap() {
+        return blockColorMap;
+    }
+
+    public void setBlockColorMap(BlockColorMap bcm) {
+        blockColorMap = bcm;
+        final Stream<Chunk> loaded = (cache != null)
+                ? cache.residentChunks().stream() : chunks.stream();
+        loaded.flatMap(Chunk::subChunks).forEach(sc -> sc.mapBlockColors(bcm));
     }
 
     public Chunk getChunk(NBTDoubleArray pos) {
@@ -141,17 +561,75 @@ public class World {
     }
 
     public Stream<Chunk> chunks() {
-        return chunks.values().stream();
+        if (cache == null) {
+            return chunks.stream();
+        }
+        return regions.values().stream().flatMap(index -> index.chunkIndices()
+                .mapToObj(idx -> loadChunk(index, idx))
+                .filter(Objects::nonNull));
+    }
+
+    /**
+     * Counts the blocks of each block type in all chunks using the block
+     * histograms of the sub-chunks.
+     */
+    public TreeMap<String, Long> getBlockTotals() {
+        final HashMap<String, Long> totals = chunks().parallel()
+                .flatMap(Chunk::subChunks)
+                .collect(HashMap::new,
+                        (map, sc) -> sc.forEachBlockCount((name, count) -> map.merge(name, (long) count, Long::sum)),
+                        (a, b) -> b.forEach((name, count) -> a.merge(name, count, Long::sum)));
+        return new TreeMap<>(totals);
+    }
+
+    public Stream<XZPosition> chunkPositions() {
+        if (cache == null) {
+            return chunks.stream().map(XZPosition.class::cast);
+        }
+        return regions.values().stream().flatMap(RegionFile.Index::chunkPositions);
+    }
+
+    public Collection<XZPosition> getRegionStarts() {
+        if (cache == null) {
+            return chunks.getRegionStarts();
+        }
+        return regions.keySet();
+    }
+
+    public ArrayList<Chunk> getRegionChunks(XZPosition regionStart) {
+        if (cache == null) {
+            return chunks.getRegionChunks(regionStart);
+        }
+        final ArrayList<Chunk> result = new ArrayList<>();
+        final var index = regions.get(regionStart);
+        if (index != null) {
+            index.chunkIndices().mapToObj(idx -> loadChunk(index, idx))
+                    .filter(Objects::nonNull).forEach(result::add);
+        }
+        return result;
     }
 
     public Stream<Chunk> chunks(int x0, int z0, int x1, int z1) {
+        if (cache == null) {
+            return chunks.chunks(x0, z0, x1, z1);
+        }
         if (x1 < x0 || z1 < z0) {
             return Stream.empty();
         }
-        final var width = (x1 - x0) + 1;
-        final var height = (z1 - z0) + 1;
-        return IntStream.range(0, width * height)
-                .mapToObj(idx -> getChunk(x0 + idx % width, z0 + idx / width))
+        return regions.values().stream()
+                .filter(index -> {
+                    final var start = index.getRegionStart();
+                    return start.x <= x1 && start.x + 31 >= x0
+                            && start.z <= z1 && start.z + 31 >= z0;
+                })
+                .flatMap(index -> {
+                    final var start = index.getRegionStart();
+                    return index.chunkIndices().filter(idx -> {
+                        final int x = start.x + (idx & 31);
+                        final int z = start.z + (idx >> 5);
+                        return x >= x0 && x <= x1 && z >= z0 && z <= z1;
+                    }).mapToObj(idx -> loadChunk(index, idx));
+                })
                 .filter(Objects::nonNull);
     }
 
@@ -202,6 +680,18 @@ public class World {
                 ? new XZPosition(spawnX, spawnZ) : null;
     }
 
+    /**
+     * Returns the block position of the player or if that is unknown of the
+     * spawn point.
+     */
+    public XZPosition getPlayerOrSpawnPos() {
+        final NBTDoubleArray pos = getPlayerPos();
+        if (pos != null) {
+            return new XZPosition((int) pos.getDouble(0), (int) pos.getDouble(2));
+        }
+        return getSpawnPos();
+    }
+
     public Chunk getSpawnChunk() {
         NBTTagCompound data = level.getCompound("Data");
         Integer spawnX = data.get("SpawnX", Integer.class);
@@ -219,32 +709,389 @@ public class World {
         map.setDecorations(mapNbt.getList("Decorations", NBTTagCompound.class));
     }
 
-    public static class AsyncLoading {
-        private static final AtomicInteger worldNumber = new AtomicInteger(1);
-        private final World world = new World();
+    /**
+     * The changes applied by {@link #reload}.
+     */
+    public static class Reloaded {
+        private final HashSet<XZPosition> regions = new HashSet<>();
+        private final ArrayList<XZPosition> chunks = new ArrayList<>();
         private final ArrayList<FileError> errors = new ArrayList<>();
-        private final AtomicInteger openFiles = new AtomicInteger();
-        private final ExecutorService executor = Executors.newFixedThreadPool(
-                Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
-            private final String prefix = "World " + worldNumber.getAndIncrement() + " loading thread ";
-            private final AtomicInteger threadNumber = new AtomicInteger(1);
+        private boolean levelChanged;
+
+        /**
+         * Returns the start of all regions which have to be rendered again.
+         */
+        public Set<XZPosition> getRegions() {
+            return regions;
+        }
+
+        /**
+         * Returns the positions of all added, changed and removed chunks.
+         */
+        public List<XZPosition> getChunks() {
+            return chunks;
+        }
+
+        public ArrayList<FileError> getErrors() {
+            return errors;
+        }
+
+        public boolean isLevelChanged() {
+            return levelChanged;
+        }
+
+        public boolean isEmpty() {
+            return chunks.isEmpty() && !levelChanged;
+        }
+    }
+
+    private static class PendingReload {
+        final Reloaded result = new Reloaded();
+        final HashMap<XZPosition, RegionFile.Index> regions = new HashMap<>();
+        final HashMap<XZPosition, RegionFile.Index> entityRegions = new HashMap<>();
+        final HashSet<XZPosition> changed = new HashSet<>();
+        final HashMap<XZPosition, Chunk> chunks = new HashMap<>();
+        NBTTagCompound level;
+        long levelDatModified;
+    }
+
+    /**
+     * Compares the region files with the loaded state and re-reads only the
+     * chunks whose location or timestamp in the region file header has
+     * changed. The changes are applied on the completion executor right
+     * before done is called.
+     *
+     * @return false if another reload is still in progress. The request is
+     * ignored in this case and done is not called.
+     */
+    public boolean reload(Executor completion, Consumer<Reloaded> done) {
+        if (!reloading.compareAndSet(false, true)) {
+            return false;
+        }
+        final ExecutorService executor = Executors.newSingleThreadExecutor(
+                r -> new Thread(r, "World reload thread"));
+        AsyncExecution.submit(executor, completion, this::scanChanges, result -> {
+            executor.shutdown();
+            result.andThen(pending -> {
+                applyChanges(pending);
+                reloading.set(false);
+                done.accept(pending.result);
+            }, ex -> {
+                reloading.set(false);
+                final Reloaded failed = new Reloaded();
+                failed.errors.add(new FileError(regionFolder, ex));
+                done.accept(failed);
+            });
+        });
+        return true;
+    }
+
+    public boolean isReloading() {
+        return reloading.get();
+    }
+
+    private PendingReload scanChanges() {
+        final PendingReload pending = new PendingReload();
+        if (levelDatFile != null && levelDatFile.lastModified() != levelDatModified) {
+            pending.levelDatModified = levelDatFile.lastModified();
+            try {
+                pending.level = NBTTagCompound.parseGZip(FileHelpers.loadFile(levelDatFile, 1 << 20));
+            } catch (IOException | DataFormatException ex) {
+                pending.result.errors.add(new FileError(levelDatFile, ex));
+            }
+        }
+        scanFolder(regionFolder, regions, pending.regions, pending);
+        if (entitiesFolder != null) {
+            scanFolder(entitiesFolder, entityRegions, pending.entityRegions, pending);
+        }
+        if (cache == null) {
+            pending.changed.parallelStream().forEach(pos -> {
+                final var start = new XZPosition(pos.x & ~31, pos.z & ~31);
+                final var index = pending.regions.containsKey(start)
+                        ? pending.regions.get(start) : regions.get(start);
+                final var extraIndex = pending.entityRegions.containsKey(start)
+                        ? pending.entityRegions.get(start) : entityRegions.get(start);
+                final int idx = RegionFile.Index.indexOf(pos.x, pos.z);
+                Chunk chunk = null;
+                try {
+                    if (index != null && index.hasChunk(idx)) {
+                        chunk = index.load(idx, projection, (x, z, nbt, size) -> new Chunk(x, z, nbt));
+                        if (chunk.isEmpty()) {
+                            chunk = null;
+                        }
+                    }
+                    if (chunk != null && extraIndex != null && extraIndex.hasChunk(idx)) {
+                        final var extra = extraIndex.load(idx, Chunk.ENTITIES_PROJECTION, (x, z, nbt, size) -> nbt);
+                        if (!extra.isEmpty()) {
+                            chunk.setExtra(extra);
+                        }
+                    }
+                } catch (IOException ex) {
+                    synchronized (pending) {
+                        pending.result.errors.add(new FileError(index.getFile(), ex));
+                    }
+                    return;
+                }
+                if (chunk != null) {
+                    prepareChunk(chunk);
+                }
+                synchronized (pending) {
+                    pending.chunks.put(pos, chunk);
+                }
+            });
+        }
+        return pending;
+    }
 
-            @Override
-            public Thread newThread(Runnable r) {
-                return new Thread(r, prefix + threadNumber.getAndIncrement());
+    private void scanFolder(File folder, Map<XZPosition, RegionFile.Index> current,
+            Map<XZPosition, RegionFile.Index> updated, PendingReload pending) {
+        final File[] fileList = folder.listFiles((dir, name) -> name.endsWith(".mca"));
+        final HashSet<XZPosition> seen = new HashSet<>();
+        if (fileList != null) {
+            for (File file : fileList) {
+                try {
+                    final var start = RegionFile.getRegionStart(file);
+                    seen.add(start);
+                    final var old = current.get(start);
+                    if (old != null && old.isUpToDate(file)) {
+                        continue;
+                    }
+                    final var index = RegionFile.readIndex(file);
+                    updated.put(start, index);
+                    addChangedChunks(old, index, start, pending);
+                } catch (IOException ex) {
+                    pending.result.errors.add(new FileError(file, ex));
+                }
+            }
+        }
+        current.forEach((start, old) -> {
+            if (!seen.contains(start)) {
+                updated.put(start, null);
+                addChangedChunks(old, null, start, pending);
             }
         });
+    }
+
+    private static void addChangedChunks(RegionFile.Index oldIndex, RegionFile.Index newIndex,
+            XZPosition start, PendingReload pending) {
+        for (int idx = 0; idx < 32 * 32; idx++) {
+            if (!RegionFile.Index.isSameChunk(oldIndex, newIndex, idx)) {
+                pending.changed.add(new XZPosition(start.x + (idx & 31), start.z + (idx >> 5)));
+            }
+        }
+    }
+
+    private void applyChanges(PendingReload pending) {
+        final var result = pending.result;
+        if (pending.level != null) {
+            level = pending.level;
+            levelDatModified = pending.levelDatModified;
+            result.levelChanged = true;
+        }
+        updateIndexes(regions, pending.regions);
+        updateIndexes(entityRegions, pending.entityRegions);
+        for (XZPosition pos : pending.changed) {
+            if (cache != null) {
+                cache.remove(pos);
+            } else if (pending.chunks.containsKey(pos)) {
+                final var chunk = pending.chunks.get(pos);
+                if (chunk != null) {
+                    chunks.put(chunk);
+                    blockTypeIndex.add(chunk);
+                } else {
+                    chunks.remove(pos.x, pos.z);
+                    blockTypeIndex.remove(pos);
+                }
+            } else {
+                // could not be loaded - keep the old chunk
+                continue;
+            }
+            result.chunks.add(pos);
+            result.regions.add(new XZPosition(pos.x & ~31, pos.z & ~31));
+            if ((pos.z & 31) == 31) {
+                // the surface renderer shades the first row using the chunk above
+                result.regions.add(new XZPosition(pos.x & ~31, pos.z + 1));
+            }
+        }
+        if (cache == null) {
+            // reloaded chunks are kept on the heap
+            result.regions.forEach(chunks::releaseArena);
+        }
+    }
+
+    private void updateIndexes(Map<XZPosition, RegionFile.Index> current,
+            Map<XZPosition, RegionFile.Index> updated) {
+        final boolean counted = (cache == null || current == regions);
+        updated.forEach((start, index) -> {
+            final var old = (index != null) ? current.put(start, index) : current.remove(start);
+            if (old != null) {
+                old.close();
+            }
+            if (counted) {
+                if (old != null && old.getFileSize() > 0) {
+                    regionFilesCount--;
+                    regionFilesTotalSize -= old.getFileSize();
+                    regionFilesUsed -= old.getFileUsed();
+                }
+                if (index != null && index.getFileSize() > 0) {
+                    regionFilesCount++;
+                    regionFilesTotalSize += index.getFileSize();
+                    regionFilesUsed += index.getFileUsed();
+                }
+            }
+        });
+    }
+
+    public static class AsyncLoading {
+        private static final AtomicInteger worldNumber = new AtomicInteger(1);
+        private final World world = new World();
+        private final ArrayList<FileError> errors = new ArrayList<>();
+        private final LoadScheduler scheduler;
         private transient final PropertyChangeSupport propertyChangeSupport = new PropertyChangeSupport(this);
         private final BiConsumer<World, ArrayList<FileError>> done;
-        private int progress = 0;
-        private int total = 0;
-        private Iterator<File> files;
-        private Iterator<File> entities_files = Collections.emptyIterator();
-        private final HashMap<XZPosition, RegionFile.ChunkExtraNBT> chunk_extras = new HashMap<>();
+        private final Executor completion;
+        private static final long PROGRESS_INTERVAL = 100000000L;   // 100ms
+        private static final ScheduledExecutorService PROGRESS_TIMER =
+                Executors.newSingleThreadScheduledExecutor(r -> {
+                    final Thread t = new Thread(r, "Load progress timer");
+                    t.setDaemon(true);
+                    return t;
+                });
+        private final AtomicInteger progress = new AtomicInteger();
+        private final AtomicLong nextProgressEvent = new AtomicLong(System.nanoTime());
+        private final AtomicBoolean progressFlushScheduled = new AtomicBoolean();
+        private final AtomicInteger total = new AtomicInteger();
+        private int firedProgress = 0;
+        private int firedTotal = 0;
+        private Queue<File> files = new ArrayDeque<>();
+        private List<XZPosition> regionStarts = Collections.emptyList();
+        private Reloaded loadedRegions = new Reloaded();
+        private boolean cancelled;
+        private Queue<File> entities_files = new ArrayDeque<>();
+        private final HashMap<File, XZPosition> fileRegionStarts = new HashMap<>();
+        private XZPosition priorityCenter = new XZPosition(0, 0);
+        private boolean priorityPinned;
+        private final ConcurrentHashMap<XZPosition, RegionFile.ChunkExtraNBT> chunk_extras = new ConcurrentHashMap<>();
         private String levelName = "Unknown";
+        private RegionFile.ReadStrategy readStrategy = RegionFile.ReadStrategy.SECTORS;
+        private boolean lazy;
+        private boolean offHeap;
+        private long cacheBudget;
+        private boolean spill;
+        private File summaryFolder;
+        private File snapshotFile;
 
         public AsyncLoading(BiConsumer<World, ArrayList<FileError>> done) {
+            this(done, AsyncExecution.EDT);
+        }
+
+        /**
+         * @param done called when loading has finished
+         * @param completion executes all result handlers and the done
+         * callback. It must run them sequentially - by default on the EDT.
+         */
+        public AsyncLoading(BiConsumer<World, ArrayList<FileError>> done, Executor completion) {
             this.done = done;
+            this.completion = completion;
+            this.scheduler = new LoadScheduler("World " + worldNumber.getAndIncrement() + " loading", completion);
+        }
+
+        public RegionFile.ReadStrategy getReadStrategy() {
+            return readStrategy;
+        }
+
+        public void setReadStrategy(RegionFile.ReadStrategy readStrategy) {
+            this.readStrategy = Objects.requireNonNull(readStrategy);
+        }
+
+        public boolean isLazy() {
+            return lazy;
+        }
+
+        /**
+         * In lazy mode only the chunk offset tables are read while loading.
+         * Chunks are decoded on first access and kept in a {@link ChunkCache}.
+         */
+        public void setLazy(boolean lazy) {
+            this.lazy = lazy;
+        }
+
+        public boolean isOffHeap() {
+            return offHeap;
+        }
+
+        /**
+         * Stores the block data of the chunks in one off-heap arena per
+         * region. Only used when chunks are not loaded lazily. Chunks which
+         * are replaced by {@link World#reload} are kept on the heap and the
+         * arena of a region is released once all its chunks were replaced.
+         */
+        public void setOffHeap(boolean offHeap) {
+            this.offHeap = offHeap;
+        }
+
+        public long getCacheBudget() {
+            return cacheBudget;
+        }
+
+        /**
+         * Sets the memory budget of the chunk cache in lazy mode. A budget
+         * of 0 uses {@link ChunkCache#defaultBudget()}.
+         */
+        public void setCacheBudget(long cacheBudget) {
+            this.cacheBudget = cacheBudget;
+        }
+
+        public boolean isSpill() {
+            return spill;
+        }
+
+        /**
+         * In lazy mode writes the decoded data of chunks which are evicted
+         * from the chunk cache to temp files, so that they are not read and
+         * inflated again.
+         */
+        public void setSpill(boolean spill) {
+            this.spill = spill;
+        }
+
+        public File getSnapshotFile() {
+            return snapshotFile;
+        }
+
+        /**
+         * Uses the newest snapshot written by {@link World#writeSnapshot}
+         * for this file to load unchanged chunks. A missing or damaged file
+         * is ignored.
+         */
+        public void setSnapshotFile(File snapshotFile) {
+            this.snapshotFile = snapshotFile;
+        }
+
+        public File getSummaryFolder() {
+            return summaryFolder;
+        }
+
+        /**
+         * Sets the folder of the {@link SummaryCache}. Unchanged chunks are
+         * then drawn and listed from their stored summaries. {@code null}
+         * disables the summary cache.
+         */
+        public void setSummaryFolder(File summaryFolder) {
+            this.summaryFolder = summaryFolder;
+        }
+
+        public NBTProjection getProjection() {
+            return world.projection;
+        }
+
+        /**
+         * Restricts the chunk tags which are parsed. Chunks loaded with a
+         * narrower projection than {@link Chunk#PROJECTION} miss the skipped
+         * parts, so their summaries are not stored in the summary folder.
+         */
+        public void setProjection(NBTProjection projection) {
+            world.projection = Objects.requireNonNull(projection);
         }
 
         public boolean start(File folder) {
@@ -253,15 +1100,39 @@ public class World {
                 return false;
             }
 
-            assert (total == 0);
-            total = fileList.length;
-            files = Arrays.asList(fileList).iterator();
+            assert (total.get() == 0);
+            if (summaryFolder != null && world.projection == Chunk.PROJECTION) {
+                world.summaryCache = new SummaryCache(summaryFolder);
+            }
+            if (lazy) {
+                world.cache = new ChunkCache((cacheBudget > 0) ? cacheBudget : ChunkCache.defaultBudget());
+                if (spill) {
+                    world.spillStore = new ChunkSpillStore(null);
+                }
+            }
+            final var latest = (snapshotFile != null) ? WorldSnapshot.latestFile(snapshotFile) : null;
+            if (latest != null && latest.isFile() && world.projection == Chunk.PROJECTION) {
+                try {
+                    world.snapshot = WorldSnapshot.open(latest);
+                    WorldSnapshot.deleteOlder(snapshotFile, latest);
+                } catch (IOException ex) {
+                    Logger.getLogger(World.class.getName()).log(Level.WARNING,
+                            "Ignoring snapshot file " + latest, ex);
+                }
+            }
+            total.set(fileList.length);
+            files = regionQueue(Arrays.asList(fileList));
+            regionStarts = Arrays.stream(fileList).map(fileRegionStarts::get)
+                    .filter(Objects::nonNull).collect(Collectors.toList());
+            world.regionFolder = folder;
             world.folder = FileHelpers.findFolderOfThroughParents(folder, "options.txt", 4);
 
             File levelDatFile = FileHelpers.findFileThroughParents(folder, "level.dat", 2);
             if (levelDatFile != null) {
-                ++total;
-                AsyncExecution.submit(executor, () -> loadLevelDat(levelDatFile),
+                world.levelDatFile = levelDatFile;
+                world.levelDatModified = levelDatFile.lastModified();
+                total.incrementAndGet();
+                AsyncExecution.submit(scheduler.getExecutor(), completion, () -> loadLevelDat(levelDatFile),
                         result -> {
                             result.andThen(level -> {
                                 world.level = level;
@@ -274,13 +1145,18 @@ public class World {
                                     readEntities(new File(folder.getParentFile(), "entities"));
                                 }
                             }, ex -> errors.add(new FileError(levelDatFile, ex)));
+                            levelReady();
                             incProgress(1);
                             checkDone();
                         });
                 File[] maps = new File(levelDatFile.getParentFile(), "data")
                         .listFiles((dir, fileName) -> fileName.startsWith("map_")
                         && fileName.endsWith(".dat"));
-                total += AsyncExecution.<MCMap>submit(executor, Arrays.stream(maps)
+                if (maps == null) {
+                    maps = new File[0];
+                }
+                total.addAndGet(maps.length);
+                AsyncExecution.<MCMap>submit(scheduler.getExecutor(), completion, Arrays.stream(maps)
                         .map(file -> () -> {
                     try {
                         return MCMap.loadMap(file);
@@ -302,29 +1178,128 @@ public class World {
                 });
             }
 
-            propertyChangeSupport.firePropertyChange("total", 0, total);
-            submitAsyncLoads();
+            completion.execute(() -> {
+                if (levelDatFile == null) {
+                    levelReady();
+                }
+                fireProgress();
+                submitAsyncLoads();
+            });
             return true;
         }
 
+        /**
+         * Stops loading. The done callback and further events are not fired.
+         * Must be called on the completion executor.
+         */
+        public void cancel() {
+            cancelled = true;
+            scheduler.cancel();
+        }
+
+        private void levelReady() {
+            if (cancelled) {
+                return;
+            }
+            world.applyLevel();
+            final var pos = world.getPlayerOrSpawnPos();
+            if (pos != null && !priorityPinned) {
+                setPriorityCenter(pos.x, pos.z);
+            }
+            propertyChangeSupport.firePropertyChange("world", null, world);
+        }
+
+        /**
+         * Loads the remaining region files nearest to the given block
+         * position first. This overrides the default order by distance to
+         * the player or spawn point. Moving the position within the same
+         * region has no effect. Must be called on the completion executor.
+         */
+        public void prioritize(int blockX, int blockZ) {
+            if (priorityPinned && (blockX >> 9) == (priorityCenter.x >> 5)
+                    && (blockZ >> 9) == (priorityCenter.z >> 5)) {
+                return;
+            }
+            priorityPinned = true;
+            setPriorityCenter(blockX, blockZ);
+        }
+
+        private void setPriorityCenter(int blockX, int blockZ) {
+            priorityCenter = new XZPosition(blockX >> 4, blockZ >> 4);
+            files = regionQueue(files);
+            entities_files = regionQueue(entities_files);
+        }
+
+        /**
+         * Creates a queue which returns the region files nearest to the
+         * priority center first. Files with invalid names come last.
+         */
+        private Queue<File> regionQueue(Collection<File> fileList) {
+            final var queue = new PriorityQueue<File>(Math.max(1, fileList.size()),
+                    Comparator.comparingLong(this::distanceToCenter));
+            for (File file : fileList) {
+                if (!fileRegionStarts.containsKey(file)) {
+                    try {
+                        fileRegionStarts.put(file, RegionFile.getRegionStart(file));
+                    } catch (IOException ex) {
+                        fileRegionStarts.put(file, null);
+                    }
+                }
+                queue.add(file);
+            }
+            return queue;
+        }
+
+        private long distanceToCenter(File file) {
+            final var start = fileRegionStarts.get(file);
+            if (start == null) {
+                return Long.MAX_VALUE;
+            }
+            final long dx = start.x + 16 - priorityCenter.x;
+            final long dz = start.z + 16 - priorityCenter.z;
+            return dx * dx + dz * dz;
+        }
+
         private void readEntities(File folder) {
+            world.entitiesFolder = folder;
             final File[] fileList = folder.listFiles((dir, name) -> name.endsWith(".mca"));
             if (fileList == null || fileList.length == 0) {
                 return;
             }
-            int oldTotal = total;
-            total += fileList.length;
-            entities_files = Arrays.asList(fileList).iterator();
-            propertyChangeSupport.firePropertyChange("total", oldTotal, total);
+            total.addAndGet(fileList.length);
+            entities_files = regionQueue(Arrays.asList(fileList));
+            progressChanged();
             submitAsyncLoads();
         }
 
         public int getTotal() {
-            return total;
+            return total.get();
+        }
+
+        /**
+         * Returns the world which is being loaded. Once the "world" event
+         * was fired level.dat has been processed and chunks are added while
+         * loading continues. Regions whose chunks are complete are reported
+         * by "regionsLoaded" events carrying a {@link Reloaded}.
+         */
+        public World getWorld() {
+            return world;
+        }
+
+        /**
+         * Returns the region starts of all region files found by
+         * {@link #start}.
+         */
+        public List<XZPosition> getRegionStarts() {
+            return regionStarts;
+        }
+
+        public LoadScheduler getScheduler() {
+            return scheduler;
         }
 
         public int getProgress() {
-            return progress;
+            return progress.get();
         }
 
         public String getLevelName() {
@@ -345,66 +1320,175 @@ public class World {
 
         private @FunctionalInterface
         interface LoadAsync<T> {
-            public int loadAsync(File file, ExecutorService e, AtomicInteger openFiles, RegionFile.LoadCompleted<T> c) throws IOException;
+            public void loadAsync(File file, LoadScheduler scheduler, RegionFile.ReadStrategy strategy, NBTProjection projection, RegionFile.LoadListener<T> l);
         }
 
-        private <T> void submitFiles(Iterator<File> iter, LoadAsync<T> l, Consumer<T> handler) {
-            while (openFiles.get() < 10 && iter.hasNext()) {
-                final File file = iter.next();
-                try {
-                    total += l.loadAsync(file, executor, openFiles,
-                            (results, fileSize, used) -> {
-                                world.regionFilesCount++;
-                                world.regionFilesTotalSize += fileSize;
-                                world.regionFilesUsed += used;
-                                results.forEach(Expected.consumer(handler, errors, file));
-                                incProgress(results.size());
-                                submitAsyncLoads();
-                                checkDone();
-                            });
-                } catch (IOException ex) {
+        private <T> void submitFiles(Queue<File> queue, Map<XZPosition, RegionFile.Index> indexes, NBTProjection projection, LoadAsync<T> l, Consumer<T> handler) {
+            while (scheduler.hasCapacity() && !queue.isEmpty()) {
+                final File file = queue.poll();
+                l.loadAsync(file, scheduler, readStrategy, projection, new RegionFile.LoadListener<T>() {
+                    @Override
+                    public void opened(int chunks) {
+                        total.addAndGet(chunks);
+                        incProgress(1);
+                    }
+
+                    @Override
+                    public void loaded(T chunk) {
+                        handler.accept(chunk);
+                        progress.incrementAndGet();
+                        progressChanged();
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        errors.add(new FileError(file, ex));
+                        fileDone();
+                    }
+
+                    @Override
+                    public void loadCompleted(List<Exception> chunkErrors, RegionFile.Index index, long used) {
+                        indexes.put(index.getRegionStart(), index);
+                        if (indexes == world.regions) {
+                            loadedRegions.regions.add(index.getRegionStart());
+                        }
+                        world.regionFilesCount++;
+                        world.regionFilesTotalSize += index.getFileSize();
+                        world.regionFilesUsed += used;
+                        chunkErrors.forEach(ex -> errors.add(FileError.from(file, ex)));
+                        incProgress(chunkErrors.size());
+                        submitAsyncLoads();
+                        checkDone();
+                    }
+                });
+            }
+        }
+
+        private void submitIndexes(Queue<File> queue, Map<XZPosition, RegionFile.Index> indexes) {
+            while (scheduler.hasCapacity() && !queue.isEmpty()) {
+                final File file = queue.poll();
+                final var summaryCache = (indexes == world.regions) ? world.summaryCache : null;
+                scheduler.submitRegion(region -> {
+                    final var index = RegionFile.readIndex(file);
+                    if (summaryCache != null && summaryCache.getFolder() != null) {
+                        summaryCache.load(index.getRegionStart());
+                    }
+                    return () -> {
+                        if (indexes == world.regions) {
+                            world.regionFilesCount++;
+                            world.regionFilesTotalSize += index.getFileSize();
+                            world.regionFilesUsed += index.getFileUsed();
+                        }
+                        indexes.put(index.getRegionStart(), index);
+                        if (indexes == world.regions) {
+                            loadedRegions.regions.add(index.getRegionStart());
+                        }
+                        fileDone();
+                    };
+                }, ex -> {
                     errors.add(new FileError(file, ex));
-                }
-                ++progress;
+                    fileDone();
+                });
             }
         }
 
+        private void fileDone() {
+            incProgress(1);
+            submitAsyncLoads();
+            checkDone();
+        }
+
         private void submitAsyncLoads() {
-            int oldTotal = total;
-            int oldProgress = progress;
-            submitFiles(files, RegionFile::loadAsync, chunk -> {
+            if (cancelled) {
+                return;
+            }
+            if (lazy) {
+                submitIndexes(files, world.regions);
+                submitIndexes(entities_files, world.entityRegions);
+                return;
+            }
+            submitFiles(files, world.regions, world.projection, this::loadRegionAsync, chunk -> {
                 if (!chunk.isEmpty()) {
-                    world.chunks.put(chunk, chunk);
+                    world.chunks.put(chunk);
+                    // after the put so that a concurrent setBlockColorMap can't miss it
+                    world.prepareChunk(chunk);
+                    world.blockTypeIndex.add(chunk);
                 }
             });
-            submitFiles(entities_files, RegionFile::loadExtraAsync, chunk -> {
+            submitFiles(entities_files, world.entityRegions, Chunk.ENTITIES_PROJECTION, RegionFile::loadExtraAsync, chunk -> {
                 if (!chunk.isEmpty()) {
                     chunk_extras.put(chunk, chunk);
                 }
             });
+        }
 
-            propertyChangeSupport.firePropertyChange("total", oldTotal, total);
-            propertyChangeSupport.firePropertyChange("progress", oldProgress, progress);
+        private void loadRegionAsync(File file, LoadScheduler scheduler, RegionFile.ReadStrategy strategy,
+                NBTProjection projection, RegionFile.LoadListener<Chunk> l) {
+            final var start = fileRegionStarts.get(file);
+            final var arena = (offHeap && start != null) ? world.chunks.getArena(start.x, start.z) : null;
+            final var snapshot = world.snapshot;
+            final RegionFile.ChunkSource source = (snapshot != null)
+                    ? (x, z, timestamp) -> snapshot.getChunk(new XZPosition(x, z), timestamp) : null;
+            RegionFile.loadAsync(file, scheduler, strategy, projection, arena, source, l);
         }
 
         private void incProgress(int amount) {
-            int oldProgress = progress;
-            progress += amount;
-            propertyChangeSupport.firePropertyChange("progress", oldProgress, progress);
+            progress.addAndGet(amount);
+            progressChanged();
+        }
+
+        /**
+         * Schedules a progress event on the completion executor unless one
+         * was already scheduled within the last {@link #PROGRESS_INTERVAL}.
+         * Changes within that interval are fired once it ends, so the last
+         * state is never held back. May be called from any thread.
+         */
+        private void progressChanged() {
+            final long now = System.nanoTime();
+            final long next = nextProgressEvent.get();
+            if (now - next >= 0 && nextProgressEvent.compareAndSet(next, now + PROGRESS_INTERVAL)) {
+                completion.execute(this::fireProgress);
+            } else if (progressFlushScheduled.compareAndSet(false, true)) {
+                PROGRESS_TIMER.schedule(() -> {
+                    progressFlushScheduled.set(false);
+                    nextProgressEvent.set(System.nanoTime() + PROGRESS_INTERVAL);
+                    completion.execute(this::fireProgress);
+                }, Math.max(0, next - now), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void fireProgress() {
+            if (cancelled) {
+                return;
+            }
+            final int oldTotal = firedTotal;
+            final int oldProgress = firedProgress;
+            firedTotal = total.get();
+            firedProgress = progress.get();
+            propertyChangeSupport.firePropertyChange("total", oldTotal, firedTotal);
+            propertyChangeSupport.firePropertyChange("progress", oldProgress, firedProgress);
+            if (!loadedRegions.regions.isEmpty()) {
+                final var loaded = loadedRegions;
+                loadedRegions = new Reloaded();
+                propertyChangeSupport.firePropertyChange("regionsLoaded", null, loaded);
+            }
         }
 
         private void checkDone() {
-            assert (progress <= total);
-            if (progress == total) {
-                assert (!files.hasNext());
-                assert (!entities_files.hasNext());
-                executor.shutdown();
+            // the last region may still be in flight although all its chunks are counted
+            if (!cancelled && progress.get() == total.get() && scheduler.getRegionsInFlight() == 0) {
+                assert (files.isEmpty());
+                assert (entities_files.isEmpty());
+                scheduler.shutdown();
+                Logger.getLogger(World.class.getName()).log(Level.INFO,
+                        "Loaded {0}: {1}", new Object[]{levelName, scheduler});
                 chunk_extras.forEach((k, extra) -> {
-                    final var chunk = world.chunks.get(k);
+                    final var chunk = world.chunks.get(k.x, k.z);
                     if (chunk != null)
                         chunk.setExtra(extra.getNBT());
                 });
-                world.finish();
+                world.complete = true;
+                fireProgress();
                 done.accept(world, errors);
             }
         }
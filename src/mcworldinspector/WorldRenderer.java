@@ -17,6 +17,7 @@ import java.awt.geom.PathIterator;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -53,16 +54,37 @@ public class WorldRenderer extends JComponent {
     private final SimpleListModel<HighlightEntry> highlights_model = new SimpleListModel<>(highlights);
     private final Timer highlight_timer;
     private HighlightEntry focus;
+    private ChunkRenderer chunkRenderer;
     private int zoom = 1;
     private boolean renderPlayerMarker;
 
-    @SuppressWarnings("OverridableMethodCallInConstructor")
     public WorldRenderer(World world) {
+        this(world,
+                world.chunkPositions().parallel().mapToInt(p -> p.x).reduce(Math::min).orElse(0),
+                world.chunkPositions().parallel().mapToInt(p -> p.z).reduce(Math::min).orElse(0),
+                world.chunkPositions().parallel().mapToInt(p -> p.x).reduce(Math::max).orElse(0),
+                world.chunkPositions().parallel().mapToInt(p -> p.z).reduce(Math::max).orElse(0));
+    }
+
+    /**
+     * Creates a renderer covering the given regions. Used while the world
+     * is still loading and the chunk positions are not yet known.
+     */
+    public WorldRenderer(World world, Collection<XZPosition> regionStarts) {
+        this(world,
+                regionStarts.stream().mapToInt(p -> p.x).min().orElse(0),
+                regionStarts.stream().mapToInt(p -> p.z).min().orElse(0),
+                regionStarts.stream().mapToInt(p -> p.x + 31).max().orElse(0),
+                regionStarts.stream().mapToInt(p -> p.z + 31).max().orElse(0));
+    }
+
+    @SuppressWarnings("OverridableMethodCallInConstructor")
+    private WorldRenderer(World world, int min_x, int min_z, int max_x, int max_z) {
         this.world = world;
-        this.min_x = world.getChunks().parallelStream().mapToInt(Chunk::getGlobalX).reduce(Math::min).orElse(0);
-        this.min_z = world.getChunks().parallelStream().mapToInt(Chunk::getGlobalZ).reduce(Math::min).orElse(0);
-        this.max_x = world.getChunks().parallelStream().mapToInt(Chunk::getGlobalX).reduce(Math::max).orElse(0);
-        this.max_z = world.getChunks().parallelStream().mapToInt(Chunk::getGlobalZ).reduce(Math::max).orElse(0);
+        this.min_x = min_x;
+        this.min_z = min_z;
+        this.max_x = max_x;
+        this.max_z = max_z;
         highlight_timer = new Timer(1000, (e) -> {
             highlight_index = (highlight_index + 1) % HIGHLIGHT_COLORS.length;
             repaint();
@@ -118,7 +140,10 @@ public class WorldRenderer extends JComponent {
         return p;
     }
 
-    private Point getViewportCenter() {
+    /**
+     * Returns the block position at the center of the visible area.
+     */
+    public Point getViewportCenter() {
         Point pos;
         Container parent = getParent();
         if(parent instanceof JViewport) {
@@ -153,40 +178,90 @@ public class WorldRenderer extends JComponent {
         public BufferedImage render(World world, ArrayList<Chunk> chunks);
     }
 
+    /**
+     * A renderer which can also draw a region from the stored chunk
+     * summaries so that unchanged chunks are not decoded.
+     */
+    public static interface SummaryRenderer extends ChunkRenderer {
+        public BufferedImage renderSummaries(World world, ArrayList<ChunkSummary> summaries);
+    }
+
+    public static SummaryRenderer surfaceRenderer(boolean withLeaves) {
+        return new SummaryRenderer() {
+            @Override
+            public BufferedImage render(World world, ArrayList<Chunk> chunks) {
+                return renderChunksSurface(world, chunks, withLeaves);
+            }
+
+            @Override
+            public BufferedImage renderSummaries(World world, ArrayList<ChunkSummary> summaries) {
+                return renderSummariesSurface(world, summaries, withLeaves);
+            }
+        };
+    }
+
     public void setBlockColorMap(BlockColorMap bcm) {
-        executor.execute(() -> world.chunks()
-                .flatMap(Chunk::subChunks)
-                .forEach(sc -> sc.mapBlockColors(bcm)));
+        executor.execute(() -> world.setBlockColorMap(bcm));
     }
 
     public void startChunkRendering(ChunkRenderer chunkRenderer) {
+        this.chunkRenderer = chunkRenderer;
         final Point center = getViewportCenter();
         final int generation = asyncRenderingGeneration.incrementAndGet();
         executor.execute(() -> {
-            final var regions = world.chunks()
-                    .collect(Collectors.groupingBy(Chunk::getRegionStart,
-                            Collectors.toCollection(() -> new ArrayList<>(32*32))));
-            regions.entrySet().stream().sorted((a,b) -> {
+            final var regions = world.getRegionStarts();
+            regions.stream().sorted((a,b) -> {
                 return Long.compare(
-                        getRegionDistance(a.getKey(), center),
-                        getRegionDistance(b.getKey(), center));
-            }).forEachOrdered(e -> executor.execute(() -> {
-                if(generation != asyncRenderingGeneration.get())
-                    return;
-                final BufferedImage img = chunkRenderer.render(world, e.getValue());
-                final XZPosition p = e.getKey();
-                EventQueue.invokeLater(() -> {
-                    final var old = images.put(p, img);
-                    if(old != null)
-                        old.flush();
-                    final int zoom16 = zoom * 16;
-                    repaint((p.x - min_x) * zoom16, (p.z - min_z) * zoom16,
-                            zoom16 * 32, zoom16 * 32);
-                });
-            }));
+                        getRegionDistance(a, center),
+                        getRegionDistance(b, center));
+            }).forEachOrdered(p -> executor.execute(
+                    () -> renderRegion(p, chunkRenderer, generation)));
         });
     }
 
+    /**
+     * Renders the given regions again with the last used chunk renderer.
+     */
+    public void renderRegions(Collection<XZPosition> regions) {
+        final var cr = chunkRenderer;
+        if(cr == null)
+            return;
+        final int generation = asyncRenderingGeneration.get();
+        regions.forEach(p -> executor.execute(() -> renderRegion(p, cr, generation)));
+    }
+
+    private void renderRegion(XZPosition p, ChunkRenderer chunkRenderer, int generation) {
+        if(generation != asyncRenderingGeneration.get())
+            return;
+        final var summaries = (chunkRenderer instanceof SummaryRenderer)
+                ? world.getRegionSummaries(p) : null;
+        final BufferedImage img;
+        if(summaries != null) {
+            img = summaries.isEmpty() ? null
+                    : ((SummaryRenderer)chunkRenderer).renderSummaries(world, summaries);
+        } else {
+            final ArrayList<Chunk> chunks = world.getRegionChunks(p);
+            img = chunks.isEmpty() ? null : chunkRenderer.render(world, chunks);
+        }
+        EventQueue.invokeLater(() -> {
+            final var old = (img != null) ? images.put(p, img) : images.remove(p);
+            if(old == null && img == null)
+                return;
+            if(old != null)
+                old.flush();
+            final int zoom16 = zoom * 16;
+            repaint((p.x - min_x) * zoom16, (p.z - min_z) * zoom16,
+                    zoom16 * 32, zoom16 * 32);
+        });
+    }
+
+    /**
+     * Checks if the chunk lies inside the area covered by this renderer.
+     */
+    public boolean contains(XZPosition chunk) {
+        return chunk.x >= min_x && chunk.x <= max_x && chunk.z >= min_z && chunk.z <= max_z;
+    }
+
     public static BufferedImage renderChunksSurface(World world, ArrayList<Chunk> chunks, boolean withLeaves) {
         chunks.sort((a,b) -> {
             int diff = a.getLocalX() - b.getLocalX();
@@ -222,6 +297,49 @@ public class WorldRenderer extends JComponent {
         return img;
     }
 
+    /**
+     * Renders the surface like {@link #renderChunksSurface} from the heights,
+     * top blocks and biomes stored in the chunk summaries.
+     */
+    public static BufferedImage renderSummariesSurface(World world, ArrayList<ChunkSummary> summaries, boolean withLeaves) {
+        summaries.sort((a,b) -> {
+            int diff = (a.x & 31) - (b.x & 31);
+            if(diff == 0)
+                diff = (a.z & 31) - (b.z & 31);
+            return diff;
+        });
+        final Map<Integer, Biome> biomeRegistry = world.getBiomeRegistry();
+        final BlockColorMap bcm = world.getBlockColorMap();
+        final BufferedImage img = new BufferedImage(32*16, 32*16, BufferedImage.TYPE_INT_ARGB);
+        int[] prevY = new int[16];
+        int prevX = -1;
+        int prevZ = 0;
+        for(int idx=0,numSummaries=summaries.size() ; idx<numSummaries ; idx++) {
+            final ChunkSummary summary = summaries.get(idx);
+            if(prevX != (summary.x & 31) || prevZ + 1 != (summary.z & 31)) {
+                ChunkSummary above;
+                ChunkSummary.Surface hm;
+                if((summary.z & 31) == 0 && (above = world.getStoredSummary(
+                        summary.x, summary.z - 1)) != null &&
+                        (hm = above.getSurface(withLeaves)) != null)
+                    hm.getHeights(15, prevY);
+                else
+                    Arrays.fill(prevY, -1);
+            }
+            final var surface = summary.getSurface(withLeaves);
+            if(surface != null) {
+                final var mbc = (bcm != null) ? bcm.map(surface.getPalette())
+                        : BlockColorMap.MappedBlockPalette.EMPTY;
+                img.getRaster().setDataElements((summary.x & 31)*16,
+                        (summary.z & 31)*16, 16, 16, renderSurface(
+                        surface, mbc, summary.getColumnBiomes(), biomeRegistry, prevY));
+            }
+            prevX = summary.x & 31;
+            prevZ = summary.z & 31;
+        }
+        return img;
+    }
+
     public static BufferedImage renderChunksUnderground(World world, ArrayList<Chunk> chunks, int layer) {
         final Map<Integer, Biome> biomeRegistry = world.getBiomeRegistry();
         final BufferedImage img = new BufferedImage(32*16, 32*16, BufferedImage.TYPE_INT_ARGB);
@@ -264,9 +382,8 @@ public class WorldRenderer extends JComponent {
         scrollRectToVisible(r);
     }
 
-    public void scrollTo(Chunk chunk, boolean center) {
-        scrollTo(new Rectangle(chunk.getGlobalX() << 4, chunk.getGlobalZ() << 4,
-                16, 16), center);
+    public void scrollTo(XZPosition chunk, boolean center) {
+        scrollTo(new Rectangle(chunk.x << 4, chunk.z << 4, 16, 16), center);
     }
 
     public void scrollTo(HighlightEntry e) {
@@ -375,6 +492,27 @@ public class WorldRenderer extends JComponent {
         return data;
     }
 
+    private static int[] renderSurface(ChunkSummary.Surface surface, BlockColorMap.MappedBlockPalette mbc,
+            Chunk.Biomes biomes, Map<Integer, Biome> biomeRegistry, int[] prevY) {
+        final String[] palette = surface.getPalette();
+        final int[] data = new int[256];
+        for(int idx=0 ; idx<256 ; idx++) {
+            final int top = surface.getHeight(idx) - 1;
+            final int index = surface.getBlockIndex(idx);
+            if(!palette[index].isEmpty()) {
+                int color = getBlockColor(mbc, index, biomes, idx, biomeRegistry, top);
+                final int py = prevY[idx & 15];
+                if(py != top && py >= 0)
+                    color = scaleRGB(color, (py < top)
+                            ? COLOR_CHANGE_BRIGHTER
+                            : COLOR_CHANGE_DARKER);
+                data[idx] = color;
+            }
+            prevY[idx & 15] = top;
+        }
+        return data;
+    }
+
     private static int[] renderChunkLayer(Chunk chunk, Map<Integer, Biome> biomeRegistry, int layer) {
         final var biomes = chunk.getBiomes();
         final int[] data = new int[256];
@@ -401,7 +539,10 @@ public class WorldRenderer extends JComponent {
     }
 
     private static int getBlockColor(SubChunk sc, final int index, Chunk.Biomes biomes, int idx, Map<Integer, Biome> biomeRegistry, final int top) {
-        BlockColorMap.MappedBlockPalette mbc = sc.mappedBlockColors();
+        return getBlockColor(sc.mappedBlockColors(), index, biomes, idx, biomeRegistry, top);
+    }
+
+    private static int getBlockColor(BlockColorMap.MappedBlockPalette mbc, final int index, Chunk.Biomes biomes, int idx, Map<Integer, Biome> biomeRegistry, final int top) {
         int color = mbc.getColor(index);
         int tinting = mbc.getTinting(index);
         if(tinting > 0)
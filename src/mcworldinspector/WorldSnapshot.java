@@ -0,0 +1,314 @@
+package mcworldinspector;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A single file which holds the projected, uncompressed NBT data of all
+ * chunks of a world. The file is memory mapped when it is opened, so only
+ * the chunk table is read. Both load modes parse unchanged chunks from the
+ * mapping instead of reading and inflating them from the region files, the
+ * chunks are still parsed each time. Each entry carries the chunk
+ * timestamps so that changed chunks are not used.
+ *
+ * Layout: magic, version, the chunk data and at the end the chunk table
+ * followed by the table offset and the magic again. The data is aligned so
+ * that no chunk crosses a mapping window.
+ *
+ * @author matthias
+ */
+public class WorldSnapshot {
+
+    private static final int MAGIC = 0x4D435750;    // "MCWP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 12;
+    private static final int ENTRY_SIZE = 32;
+    private static final int TABLE_BLOCK = 1024;
+    private static final int WINDOW_BITS = 30;
+    private static final long WINDOW_SIZE = 1L << WINDOW_BITS;
+
+    private final File file;
+    private final MappedByteBuffer[] windows;
+    private final HashMap<XZPosition, Integer> index;
+    private final long[] offsets;
+    private final int[] chunkSizes;
+    private final int[] extraSizes;
+    private final int[] timestamps;
+    private final int[] entityTimestamps;
+
+    private WorldSnapshot(File file, MappedByteBuffer[] windows, int count) {
+        this.file = file;
+        this.windows = windows;
+        this.index = new HashMap<>(count * 4 / 3 + 1);
+        this.offsets = new long[count];
+        this.chunkSizes = new int[count];
+        this.extraSizes = new int[count];
+        this.timestamps = new int[count];
+        this.entityTimestamps = new int[count];
+    }
+
+    /**
+     * Returns the snapshot file for a region folder. It is stored next to
+     * the chunk summaries.
+     */
+    public static File defaultFile(File regionFolder) {
+        return new File(SummaryCache.defaultFolder(regionFolder), "world.snapshot");
+    }
+
+    /**
+     * Returns the newest snapshot written for {@code file}. Each snapshot
+     * gets a new name like {@code world.snapshot.3} because a mapped file
+     * can't be replaced on all platforms. Returns {@code file} when no
+     * numbered snapshot exists.
+     */
+    public static File latestFile(File file) {
+        return fileOfGeneration(file, latestGeneration(file));
+    }
+
+    /**
+     * Returns the name for the next snapshot of {@code file}.
+     */
+    public static File nextFile(File file) {
+        return fileOfGeneration(file, latestGeneration(file) + 1);
+    }
+
+    /**
+     * Deletes the snapshots older than {@code current}. Files which are still
+     * mapped may not be deleted, they are retried the next time.
+     */
+    public static void deleteOlder(File base, File current) {
+        final Pattern pattern = generationPattern(base);
+        final Matcher cm = pattern.matcher(current.getName());
+        if(!cm.matches())
+            return;
+        final int currentGeneration = parseGeneration(cm);
+        final File[] files = base.getAbsoluteFile().getParentFile().listFiles();
+        if(files == null)
+            return;
+        for(File f : files) {
+            final Matcher m = pattern.matcher(f.getName());
+            if(m.matches() && parseGeneration(m) < currentGeneration)
+                f.delete();
+        }
+    }
+
+    private static Pattern generationPattern(File base) {
+        return Pattern.compile(Pattern.quote(base.getName()) + "(?:\\.([0-9]{1,9}))?");
+    }
+
+    private static int parseGeneration(Matcher m) {
+        return (m.group(1) != null) ? Integer.parseInt(m.group(1)) : 0;
+    }
+
+    private static int latestGeneration(File base) {
+        final Pattern pattern = generationPattern(base);
+        final File[] files = base.getAbsoluteFile().getParentFile().listFiles();
+        int result = 0;
+        if(files != null) {
+            for(File f : files) {
+                final Matcher m = pattern.matcher(f.getName());
+                if(m.matches())
+                    result = Math.max(result, parseGeneration(m));
+            }
+        }
+        return result;
+    }
+
+    private static File fileOfGeneration(File base, int generation) {
+        return (generation > 0) ? new File(base.getPath() + "." + generation) : base;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * Maps a snapshot file and reads its chunk table.
+     */
+    public static WorldSnapshot open(File file) throws IOException {
+        try(FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = fc.size();
+            if(size < HEADER_SIZE + TRAILER_SIZE)
+                throw new IOException("Snapshot file too small");
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(fc, header, 0);
+            if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+                throw new IOException("Unsupported snapshot file");
+            final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            readFully(fc, trailer, size - TRAILER_SIZE);
+            final long tableOffset = trailer.getLong(0);
+            if(trailer.getInt(8) != MAGIC || tableOffset < HEADER_SIZE
+                    || size - TRAILER_SIZE - tableOffset < 4)
+                throw new IOException("Damaged snapshot file");
+            final ByteBuffer table = ByteBuffer.allocate((int)Math.min(
+                    Integer.MAX_VALUE, size - TRAILER_SIZE - tableOffset));
+            readFully(fc, table, tableOffset);
+            final int count = table.getInt(0);
+            if(count < 0 || (long)count * ENTRY_SIZE + 4 != table.capacity())
+                throw new IOException("Damaged snapshot file");
+
+            final var windows = new MappedByteBuffer[(int)((tableOffset + WINDOW_SIZE - 1) >> WINDOW_BITS)];
+            for(int w=0 ; w<windows.length ; w++) {
+                final long start = (long)w << WINDOW_BITS;
+                windows[w] = fc.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(WINDOW_SIZE, tableOffset - start));
+            }
+
+            final WorldSnapshot snapshot = new WorldSnapshot(file, windows, count);
+            for(int i=0,pos=4 ; i<count ; i++,pos+=ENTRY_SIZE) {
+                final long offset = table.getLong(pos + 16);
+                final int chunkSize = table.getInt(pos + 24);
+                final int extraSize = table.getInt(pos + 28);
+                if(offset < HEADER_SIZE || chunkSize < 0 || extraSize < 0
+                        || offset + chunkSize + extraSize > tableOffset
+                        || (offset >> WINDOW_BITS) != ((offset + chunkSize + extraSize - 1) >> WINDOW_BITS))
+                    throw new IOException("Damaged snapshot file");
+                snapshot.index.put(new XZPosition(table.getInt(pos), table.getInt(pos + 4)), i);
+                snapshot.timestamps[i] = table.getInt(pos + 8);
+                snapshot.entityTimestamps[i] = table.getInt(pos + 12);
+                snapshot.offsets[i] = offset;
+                snapshot.chunkSizes[i] = chunkSize;
+                snapshot.extraSizes[i] = extraSize;
+            }
+            return snapshot;
+        }
+    }
+
+    private static void readFully(FileChannel fc, ByteBuffer b, long position) throws IOException {
+        while(b.hasRemaining()) {
+            if(fc.read(b, position + b.position()) < 0)
+                throw new IOException("Unexpected end of snapshot file");
+        }
+        b.flip();
+    }
+
+    /**
+     * Returns the data of a chunk if the snapshot contains it and the
+     * timestamps still match the region files.
+     */
+    public ChunkSpillStore.Spilled get(XZPosition pos, int timestamp, int entityTimestamp) {
+        final Integer i = index.get(pos);
+        if(i == null || timestamps[i] != timestamp || entityTimestamps[i] != entityTimestamp)
+            return null;
+        final var window = windows[(int)(offsets[i] >> WINDOW_BITS)];
+        final int offset = (int)(offsets[i] & (WINDOW_SIZE - 1));
+        final ByteBuffer chunk = window.slice(offset, chunkSizes[i]);
+        final ByteBuffer extra = (extraSizes[i] > 0)
+                ? window.slice(offset + chunkSizes[i], extraSizes[i]) : null;
+        return new ChunkSpillStore.Spilled(chunk, extra);
+    }
+
+    /**
+     * Returns the data of a chunk without its entities if the snapshot
+     * contains it and the chunk timestamp still matches the region file.
+     */
+    public ByteBuffer getChunk(XZPosition pos, int timestamp) {
+        final Integer i = index.get(pos);
+        if(i == null || timestamps[i] != timestamp)
+            return null;
+        final var window = windows[(int)(offsets[i] >> WINDOW_BITS)];
+        return window.slice((int)(offsets[i] & (WINDOW_SIZE - 1)), chunkSizes[i]);
+    }
+
+    /**
+     * Writes a snapshot. Chunks are added in any order with {@link #add}
+     * and the file only replaces an existing snapshot on {@link #finish}.
+     * A snapshot which is in use must not be replaced, write to
+     * {@link #nextFile} instead.
+     */
+    public static class Writer implements AutoCloseable {
+        private final File file;
+        private final File tmp;
+        private final FileChannel fc;
+        private final ArrayList<ByteBuffer> table = new ArrayList<>();
+        private long position = HEADER_SIZE;
+        private int count;
+        private boolean finished;
+
+        public Writer(File file) throws IOException {
+            final File folder = file.getAbsoluteFile().getParentFile();
+            if(folder != null && !folder.isDirectory() && !folder.mkdirs())
+                throw new IOException("Could not create folder " + folder);
+            this.file = file;
+            this.tmp = new File(file.getPath() + ".tmp");
+            this.fc = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            writeFully(header, 0);
+        }
+
+        public synchronized void add(XZPosition pos, int timestamp, int entityTimestamp,
+                ByteBuffer chunk, ByteBuffer extra) throws IOException {
+            final int chunkSize = chunk.remaining();
+            final int extraSize = (extra != null) ? extra.remaining() : 0;
+            final long size = (long)chunkSize + extraSize;
+            if(size > WINDOW_SIZE)
+                return;
+            if((position >> WINDOW_BITS) != ((position + size - 1) >> WINDOW_BITS))
+                position = ((position >> WINDOW_BITS) + 1) << WINDOW_BITS;
+            final long offset = position;
+            writeFully(chunk.duplicate(), offset);
+            if(extra != null)
+                writeFully(extra.duplicate(), offset + chunkSize);
+            position += size;
+
+            if(count % TABLE_BLOCK == 0)
+                table.add(ByteBuffer.allocate(ENTRY_SIZE * TABLE_BLOCK));
+            table.get(table.size() - 1).putInt(pos.x).putInt(pos.z)
+                    .putInt(timestamp).putInt(entityTimestamp)
+                    .putLong(offset).putInt(chunkSize).putInt(extraSize);
+            count++;
+        }
+
+        private void writeFully(ByteBuffer b, long offset) throws IOException {
+            while(b.hasRemaining())
+                offset += fc.write(b, offset);
+        }
+
+        /**
+         * Writes the chunk table and replaces the snapshot file.
+         */
+        public synchronized void finish() throws IOException {
+            final long tableOffset = position;
+            final ByteBuffer countBuf = ByteBuffer.allocate(4).putInt(0, count);
+            writeFully(countBuf, position);
+            position += 4;
+            for(ByteBuffer block : table) {
+                block.flip();
+                position += block.remaining();
+                writeFully(block, position - block.remaining());
+            }
+            final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE)
+                    .putLong(tableOffset).putInt(MAGIC).flip();
+            writeFully(trailer, position);
+            fc.truncate(position + TRAILER_SIZE);
+            fc.close();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            finished = true;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if(!finished) {
+                fc.close();
+                tmp.delete();
+            }
+        }
+    }
+}
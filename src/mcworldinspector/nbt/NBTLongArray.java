@@ -1,40 +1,124 @@
 package mcworldinspector.nbt;
 
 import java.nio.LongBuffer;
+import mcworldinspector.utils.OffHeapArena;
 
 /**
  *
  * @author matthias
  */
 public class NBTLongArray extends NBTArray<Long> {
-    
-    private final long[] data;
 
-    NBTLongArray(LongBuffer b) {
-        data = new long[b.remaining()];
-        b.get(data);
+    private final LongBuffer data;
+
+    private NBTLongArray(LongBuffer data) {
+        this.data = data;
+    }
+
+    static NBTLongArray copyOf(LongBuffer b) {
+        final long[] copy = new long[b.remaining()];
+        b.get(copy);
+        return new NBTLongArray(LongBuffer.wrap(copy));
+    }
+
+    /**
+     * Returns a copy of this array which is stored in the arena.
+     */
+    public NBTLongArray copyTo(OffHeapArena arena) {
+        return new NBTLongArray(arena.copyOf(data));
+    }
+
+    public boolean isOffHeap() {
+        return data.isDirect();
     }
 
     @Override
     public int size() {
-        return data.length;
+        return data.limit();
     }
-    
+
     public long getLong(int idx) {
-        return data[idx];
+        return data.get(idx);
     }
-    
+
     @Override
     public Long get(int idx) {
-        return data[idx];
+        return data.get(idx);
+    }
+
+    /**
+     * Unpacks {@code count} values of {@code bits} bits starting with value
+     * {@code from} into {@code dst}. With {@code padded} each long holds
+     * {@code 64 / bits} values and the remaining bits are unused (1.16+),
+     * otherwise values span two longs (1.13 - 1.15).
+     *
+     * The switch passes the width as a constant to the kernels so that the
+     * JIT specializes each inlined kernel for its width.
+     */
+    public void unpack(int bits, boolean padded, short[] dst, int from, int count) {
+        switch(bits) {
+            case 4: unpackPadded(4, dst, from, count); break;
+            case 5: if(padded) unpackPadded(5, dst, from, count); else unpackSpanning(5, dst, from, count); break;
+            case 6: if(padded) unpackPadded(6, dst, from, count); else unpackSpanning(6, dst, from, count); break;
+            case 7: if(padded) unpackPadded(7, dst, from, count); else unpackSpanning(7, dst, from, count); break;
+            case 8: unpackPadded(8, dst, from, count); break;
+            case 9: if(padded) unpackPadded(9, dst, from, count); else unpackSpanning(9, dst, from, count); break;
+            case 10: if(padded) unpackPadded(10, dst, from, count); else unpackSpanning(10, dst, from, count); break;
+            case 11: if(padded) unpackPadded(11, dst, from, count); else unpackSpanning(11, dst, from, count); break;
+            case 12: if(padded) unpackPadded(12, dst, from, count); else unpackSpanning(12, dst, from, count); break;
+            case 16: unpackPadded(16, dst, from, count); break;
+            default:
+                if(padded)
+                    unpackPadded(bits, dst, from, count);
+                else
+                    unpackSpanning(bits, dst, from, count);
+        }
+    }
+
+    private void unpackPadded(int bits, short[] dst, int from, int count) {
+        final int perLong = 64 / bits;
+        final long mask = (1L << bits) - 1;
+        int idx = from / perLong;
+        int skip = from - idx * perLong;
+        for(int pos=0 ; pos<count ;) {
+            long value = data.get(idx++) >>> (skip * bits);
+            final int end = Math.min(count, pos + perLong - skip);
+            skip = 0;
+            for(; pos<end ; pos++) {
+                dst[pos] = (short)(value & mask);
+                value >>>= bits;
+            }
+        }
+    }
+
+    private void unpackSpanning(int bits, short[] dst, int from, int count) {
+        final long mask = (1L << bits) - 1;
+        final int limit = data.limit();
+        final long start = (long)from * bits;
+        int idx = (int)(start >>> 6);
+        int bit = (int)(start & 63);
+        long current = data.get(idx);
+        for(int pos=0 ; pos<count ; pos++) {
+            long value = current >>> bit;
+            bit += bits;
+            if(bit >= 64) {
+                bit -= 64;
+                if(++idx < limit) {
+                    current = data.get(idx);
+                    if(bit > 0)
+                        value |= current << (bits - bit);
+                }
+            }
+            dst[pos] = (short)(value & mask);
+        }
     }
-    
+
     public int getBits(int pos, int bits) {
         int index = pos >> 6;
         int bit = pos & 63;
-        int value = (int)(data[index] >>> bit);
+        int value = (int)(data.get(index) >>> bit);
         if(bit + bits > 64)
-            value |= (int)data[index + 1] << (64 - bit);
+            value |= (int)data.get(index + 1) << (64 - bit);
         return value & ((1 << bits) - 1);
     }
 }
@@ -0,0 +1,134 @@
+package mcworldinspector.nbt;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+/**
+ * Selects the tags of a compound which are parsed. Tags which are not
+ * selected are skipped without decoding them. A selected tag without a
+ * nested projection is parsed completely, a nested projection is applied to
+ * the compound or to each compound of a list of compounds. Lazy tags are
+ * kept as encoded bytes and only decoded when they are accessed.
+ *
+ * @author matthias
+ */
+public final class NBTProjection {
+
+    private final String[] keys;
+    private final byte[][] names;
+    private final NBTProjection[] children;
+    private final boolean[] lazy;
+
+    private static final Object FULL = new Object();
+    private static final Object LAZY = new Object();
+
+    private NBTProjection(LinkedHashMap<String, Object> spec) {
+        final int size = spec.size();
+        keys = new String[size];
+        names = new byte[size][];
+        children = new NBTProjection[size];
+        lazy = new boolean[size];
+        int idx = 0;
+        for(var e : spec.entrySet()) {
+            keys[idx] = e.getKey().intern();
+            names[idx] = e.getKey().getBytes(StandardCharsets.UTF_8);
+            if(e.getValue() instanceof LinkedHashMap) {
+                @SuppressWarnings("unchecked")
+                final var child = (LinkedHashMap<String, Object>)e.getValue();
+                children[idx] = new NBTProjection(child);
+            }
+            lazy[idx] = e.getValue() == LAZY;
+            idx++;
+        }
+    }
+
+    /**
+     * Creates a projection from tag paths like {@code "Level.Sections.Y"}.
+     * A path selects the complete subtree of its last tag, so
+     * {@code "Level"} would select everything below it.
+     */
+    public static NBTProjection of(Collection<String> paths) {
+        return of(paths, Collections.emptyList());
+    }
+
+    /**
+     * Creates a projection where the subtrees selected by {@code lazyPaths}
+     * are not decoded while parsing. A selected compound or each compound
+     * of a selected list of compounds is kept as a copy of its encoded
+     * bytes and decodes its tags on first access.
+     */
+    public static NBTProjection of(Collection<String> paths, Collection<String> lazyPaths) {
+        final LinkedHashMap<String, Object> root = new LinkedHashMap<>();
+        for(String path : paths)
+            add(root, path, FULL);
+        for(String path : lazyPaths)
+            add(root, path, LAZY);
+        return new NBTProjection(root);
+    }
+
+    public static NBTProjection of(String... paths) {
+        return of(Arrays.asList(paths));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void add(LinkedHashMap<String, Object> root, String path, Object mode) {
+        final String[] parts = path.split("\\.");
+        LinkedHashMap<String, Object> node = root;
+        for(int idx=0 ; idx<parts.length ; idx++) {
+            final Object child = node.get(parts[idx]);
+            if(idx == parts.length - 1) {
+                // a complete subtree overrides deeper paths
+                if(child == null || child instanceof LinkedHashMap)
+                    node.put(parts[idx], mode);
+            } else if(child == null) {
+                final var created = new LinkedHashMap<String, Object>();
+                node.put(parts[idx], created);
+                node = created;
+            } else if(child instanceof LinkedHashMap)
+                node = (LinkedHashMap<String, Object>)child;
+            else
+                return;
+        }
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    String getKey(int idx) {
+        return keys[idx];
+    }
+
+    NBTProjection getChild(int idx) {
+        return children[idx];
+    }
+
+    boolean isLazy(int idx) {
+        return lazy[idx];
+    }
+
+    /**
+     * Reads a tag name and returns the index of the matching entry or -1
+     * when the tag is not selected. Does not allocate.
+     */
+    int match(ByteBuffer b) {
+        final int len = b.getChar();
+        final int pos = b.position();
+        b.position(pos + len);
+        outer: for(int idx=0 ; idx<names.length ; idx++) {
+            final byte[] name = names[idx];
+            if(name.length != len)
+                continue;
+            for(int i=0 ; i<len ; i++) {
+                if(b.get(pos + i) != name[i])
+                    continue outer;
+            }
+            return idx;
+        }
+        return -1;
+    }
+}
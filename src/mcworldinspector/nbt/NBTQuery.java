@@ -0,0 +1,303 @@
+package mcworldinspector.nbt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * A compiled NBT path query like
+ * {@code Entities[id=minecraft:villager].VillagerData.profession = "minecraft:librarian"}.
+ *
+ * The first key names the collection which is searched, the rest of the
+ * path and the comparison are tested on each of its elements. Chunks
+ * support the roots {@code Entities}, {@code TileEntities} (or
+ * {@code block_entities}) and {@code Structures} (or {@code structures}),
+ * other chunk tags like {@code InhabitedTime} are not loaded. A step can
+ * be followed by {@code [...]} with comma separated conditions on the
+ * current value or by {@code [n]} to select an array element. A path which
+ * reaches a list matches if any element matches and a path without
+ * comparison tests that the tag exists.
+ *
+ * Operators are {@code = != < <= > >=}. Numbers compare numerically,
+ * {@code true} and {@code false} match bytes and a {@code *} in a string
+ * is a wildcard. Strings with special characters need double quotes.
+ *
+ * The keys are interned when the query is compiled, so the lookups use
+ * the identity based maps of the parsed compounds.
+ *
+ * @author matthias
+ */
+public final class NBTQuery implements Predicate<NBTTagCompound> {
+
+    private final String text;
+    private final String root;
+    private final Node filter;
+
+    @FunctionalInterface
+    private interface Node {
+        boolean test(Object value);
+    }
+
+    private static final Node EXISTS = value -> true;
+
+    private NBTQuery(String text, String root, Node filter) {
+        this.text = text;
+        this.root = root;
+        this.filter = filter;
+    }
+
+    /**
+     * @throws IllegalArgumentException with the position of a syntax error
+     */
+    public static NBTQuery compile(String text) {
+        final Parser p = new Parser(text);
+        p.skipWhitespace();
+        final String root = p.key();
+        final Node filter = p.condition();
+        p.skipWhitespace();
+        if(!p.atEnd())
+            throw p.error("Unexpected '" + p.peek() + "'");
+        return new NBTQuery(text, root, filter);
+    }
+
+    /**
+     * Returns the interned key of the searched collection.
+     */
+    public String getRoot() {
+        return root;
+    }
+
+    /**
+     * Tests an element of the root collection.
+     */
+    @Override
+    public boolean test(NBTTagCompound element) {
+        return filter.test(element);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    private static boolean any(Object value, Node node) {
+        if(value instanceof NBTArray) {
+            for(Object element : (NBTArray<?>)value)
+                if(node.test(element))
+                    return true;
+            return false;
+        }
+        return node.test(value);
+    }
+
+    private static Node get(String key, Node next) {
+        return value -> any(value, v -> {
+            if(!(v instanceof NBTTagCompound))
+                return false;
+            final Object o = ((NBTTagCompound)v).get(key);
+            return o != null && next.test(o);
+        });
+    }
+
+    private static Node index(int idx, Node next) {
+        return value -> value instanceof NBTArray && idx < ((NBTArray<?>)value).size()
+                && next.test(((NBTArray<?>)value).get(idx));
+    }
+
+    private static Node where(Node[] conditions, Node next) {
+        return value -> any(value, v -> {
+            for(Node c : conditions)
+                if(!c.test(v))
+                    return false;
+            return next.test(v);
+        });
+    }
+
+    private static Node compare(String op, String literal, boolean quoted) {
+        final Double number = quoted ? null : parseNumber(literal);
+        final Pattern glob = literal.indexOf('*') >= 0 ? Pattern.compile(
+                Arrays.stream(literal.split("\\*", -1)).map(Pattern::quote)
+                        .collect(Collectors.joining(".*"))) : null;
+        final Node equals = v -> {
+            if(v instanceof Number)
+                return number != null && ((Number)v).doubleValue() == number;
+            if(v instanceof String)
+                return (glob != null) ? glob.matcher((String)v).matches() : literal.equals(v);
+            return false;
+        };
+        switch (op) {
+            case "=": return value -> any(value, equals);
+            case "!=": return value -> any(value, v -> (v instanceof Number || v instanceof String) && !equals.test(v));
+            default:
+                return value -> any(value, v -> {
+                    final int cmp;
+                    if(v instanceof Number && number != null)
+                        cmp = Double.compare(((Number)v).doubleValue(), number);
+                    else if(v instanceof String)
+                        cmp = ((String)v).compareTo(literal);
+                    else
+                        return false;
+                    switch (op) {
+                        case "<": return cmp < 0;
+                        case "<=": return cmp <= 0;
+                        case ">": return cmp > 0;
+                        default: return cmp >= 0;
+                    }
+                });
+        }
+    }
+
+    private static Double parseNumber(String literal) {
+        switch (literal) {
+            case "true": return 1.0;
+            case "false": return 0.0;
+        }
+        String s = literal;
+        // SNBT type suffixes like 1b or 2.5f
+        if(s.length() > 1 && "bBsSlLfFdD".indexOf(s.charAt(s.length() - 1)) >= 0)
+            s = s.substring(0, s.length() - 1);
+        try {
+            return Double.valueOf(s);
+        } catch(NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private static final class Parser {
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        boolean atEnd() {
+            return pos >= text.length();
+        }
+
+        char peek() {
+            return atEnd() ? 0 : text.charAt(pos);
+        }
+
+        void skipWhitespace() {
+            while(!atEnd() && Character.isWhitespace(text.charAt(pos)))
+                pos++;
+        }
+
+        IllegalArgumentException error(String msg) {
+            return new IllegalArgumentException(msg + " at position " + (pos + 1));
+        }
+
+        private static boolean isKeyChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == ':' || c == '-' || c == '+';
+        }
+
+        String key() {
+            if(peek() == '"')
+                return quoted().intern();
+            final int start = pos;
+            while(!atEnd() && isKeyChar(text.charAt(pos)))
+                pos++;
+            if(start == pos)
+                throw error(atEnd() ? "Missing key" : "Unexpected '" + peek() + "'");
+            return text.substring(start, pos).intern();
+        }
+
+        String quoted() {
+            final StringBuilder sb = new StringBuilder();
+            pos++;
+            for(;;) {
+                if(atEnd())
+                    throw error("Missing closing quote");
+                char c = text.charAt(pos++);
+                if(c == '"')
+                    return sb.toString();
+                if(c == '\\' && !atEnd())
+                    c = text.charAt(pos++);
+                sb.append(c);
+            }
+        }
+
+        /**
+         * Parses the steps after a key followed by an optional comparison.
+         */
+        Node condition() {
+            final ArrayList<Object> steps = new ArrayList<>();
+            for(;;) {
+                if(peek() == '[') {
+                    pos++;
+                    skipWhitespace();
+                    if(Character.isDigit(peek())) {
+                        final int start = pos;
+                        while(Character.isDigit(peek()))
+                            pos++;
+                        steps.add(Integer.valueOf(text.substring(start, pos)));
+                    } else {
+                        final ArrayList<Node> conditions = new ArrayList<>();
+                        for(;;) {
+                            final String key = key();
+                            conditions.add(get(key, condition()));
+                            skipWhitespace();
+                            if(peek() != ',')
+                                break;
+                            pos++;
+                            skipWhitespace();
+                        }
+                        steps.add(conditions.toArray(new Node[0]));
+                    }
+                    skipWhitespace();
+                    if(peek() != ']')
+                        throw error("Missing ]");
+                    pos++;
+                } else if(peek() == '.') {
+                    pos++;
+                    steps.add(key());
+                } else
+                    break;
+            }
+            Node node = comparison();
+            for(int idx=steps.size() ; idx-- > 0 ;) {
+                final Object step = steps.get(idx);
+                if(step instanceof String)
+                    node = get((String)step, node);
+                else if(step instanceof Integer)
+                    node = index((Integer)step, node);
+                else
+                    node = where((Node[])step, node);
+            }
+            return node;
+        }
+
+        private Node comparison() {
+            final int start = pos;
+            skipWhitespace();
+            final String op = operator();
+            if(op == null) {
+                pos = start;
+                return EXISTS;
+            }
+            skipWhitespace();
+            if(peek() == '"')
+                return compare(op, quoted(), true);
+            final int valueStart = pos;
+            while(!atEnd() && !Character.isWhitespace(peek())
+                    && peek() != ',' && peek() != ']')
+                pos++;
+            if(valueStart == pos)
+                throw error("Missing value");
+            return compare(op, text.substring(valueStart, pos), false);
+        }
+
+        private String operator() {
+            for(String op : new String[] { "!=", "<=", ">=", "==", "=", "<", ">" }) {
+                if(text.startsWith(op, pos)) {
+                    pos += op.length();
+                    return op.equals("==") ? "=" : op;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package mcworldinspector.nbt;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lossy, lock free cache of the strings read by the NBT parser. Strings are
+ * looked up by their UTF-8 bytes, so a hit does not allocate. Each hash
+ * bucket holds two immutable entries; a miss replaces the older one, which
+ * makes concurrent updates harmless - at worst an entry is lost.
+ *
+ * The names pool interns its strings so that the keys of compounds stay
+ * identical to string literals as required by the identity based lookups.
+ *
+ * @author matthias
+ */
+public final class NBTStringPool {
+
+    public static final NBTStringPool NAMES = new NBTStringPool(1 << 12, true);
+    public static final NBTStringPool VALUES = new NBTStringPool(1 << 14, false);
+
+    /** longer strings are rarely repeated and not pooled */
+    private static final int MAX_LENGTH = 64;
+
+    private static final class Entry {
+        final int hash;
+        final byte[] bytes;
+        final String value;
+
+        Entry(int hash, byte[] bytes, String value) {
+            this.hash = hash;
+            this.bytes = bytes;
+            this.value = value;
+        }
+    }
+
+    private final Entry[] table;
+    private final boolean intern;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private NBTStringPool(int size, boolean intern) {
+        this.table = new Entry[size];
+        this.intern = intern;
+    }
+
+    /**
+     * Returns the string encoded in {@code len} bytes at the absolute
+     * position {@code pos} of the buffer.
+     */
+    public String get(ByteBuffer b, int pos, int len) {
+        if(len > MAX_LENGTH) {
+            final String s = decode(b, pos, len);
+            return intern ? s.intern() : s;
+        }
+        int h = 0;
+        for(int i=0 ; i<len ; i++)
+            h = 31 * h + b.get(pos + i);
+        h ^= h >>> 16;
+        final int slot = h & (table.length - 2);
+        final Entry e0 = table[slot];
+        if(matches(e0, h, b, pos, len)) {
+            hits.increment();
+            return e0.value;
+        }
+        final Entry e1 = table[slot + 1];
+        if(matches(e1, h, b, pos, len)) {
+            hits.increment();
+            return e1.value;
+        }
+        misses.increment();
+        final byte[] bytes = new byte[len];
+        b.get(pos, bytes);
+        final String s = new String(bytes, StandardCharsets.UTF_8);
+        final String value = intern ? s.intern() : s;
+        table[slot + 1] = e0;
+        table[slot] = new Entry(h, bytes, value);
+        return value;
+    }
+
+    private static boolean matches(Entry e, int h, ByteBuffer b, int pos, int len) {
+        if(e == null || e.hash != h || e.bytes.length != len)
+            return false;
+        final byte[] bytes = e.bytes;
+        for(int i=0 ; i<len ; i++) {
+            if(bytes[i] != b.get(pos + i))
+                return false;
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer b, int pos, int len) {
+        if(b.hasArray())
+            return new String(b.array(), b.arrayOffset() + pos, len, StandardCharsets.UTF_8);
+        final byte[] tmp = new byte[len];
+        b.get(pos, tmp);
+        return new String(tmp, StandardCharsets.UTF_8);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
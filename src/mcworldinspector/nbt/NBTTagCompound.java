@@ -1,9 +1,12 @@
 package mcworldinspector.nbt;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
 import java.util.AbstractMap;
+import java.util.Arrays;
 import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.function.Function;
@@ -11,6 +14,7 @@ import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
+import mcworldinspector.utils.DecompressionPool;
 import mcworldinspector.utils.FileHelpers;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
@@ -24,6 +28,7 @@ import mcworldinspector.utils.AbstractSpliterator;
 public abstract class NBTTagCompound extends NBTBase {
     
     public static final NBTTagCompound EMPTY = new Empty();
+    public static final int MAX_UNCOMPRESSED_SIZE = 256 << 20;
 
     public abstract Object get(String name);
     public abstract int size();
@@ -104,6 +109,24 @@ public abstract class NBTTagCompound extends NBTBase {
         return new Single(key0, value0);
     }
 
+    /**
+     * Returns a copy of this compound without the named tags, so that their
+     * values can be garbage collected.
+     */
+    public NBTTagCompound without(String... names) {
+        if(Arrays.stream(names).allMatch(name -> get(name) == null))
+            return this;
+        final Object[] storage = new Object[size() * 2];
+        final int[] count = new int[1];
+        entries().filter(e -> !Arrays.asList(names).contains(e.getKey()))
+                .forEachOrdered(e -> {
+                    storage[count[0]*2] = e.getKey();
+                    storage[count[0]*2+1] = e.getValue();
+                    count[0]++;
+                });
+        return of(storage, count[0]);
+    }
+
     public static NBTTagCompound parse(ByteBuffer data) {
         if(data.get() != 10)
             throw new IllegalArgumentException("Root tag must be an NBTTagCompound");
@@ -112,21 +135,102 @@ public abstract class NBTTagCompound extends NBTBase {
         return parseTagCompound(data);
     }
 
-    public static NBTTagCompound parseInflate(ByteBuffer compressed, ByteBuffer uncompressed, boolean unwrap) throws DataFormatException, IOException {
+    /**
+     * Parses only the tags selected by the projection. A null projection
+     * parses everything.
+     */
+    public static NBTTagCompound parse(ByteBuffer data, NBTProjection projection) {
+        if(projection == null)
+            return parse(data);
+        if(data.get() != 10)
+            throw new IllegalArgumentException("Root tag must be an NBTTagCompound");
+        if(data.getChar() != 0)
+            throw new IllegalArgumentException("Root tag must not have a name");
+        return parseTagCompound(data, projection);
+    }
+
+    /**
+     * Copies the encoded tags selected by the projection. The result is
+     * encoded NBT data which parses to the same compound as the source
+     * parsed with the projection.
+     * @return a heap buffer holding exactly the copied data
+     */
+    public static ByteBuffer project(ByteBuffer data, NBTProjection projection) {
+        final ByteBuffer out = ByteBuffer.allocate(data.remaining());
+        if(data.get() != 10)
+            throw new IllegalArgumentException("Root tag must be an NBTTagCompound");
+        if(data.getChar() != 0)
+            throw new IllegalArgumentException("Root tag must not have a name");
+        out.put((byte)10).putChar((char)0);
+        projectTagCompound(data, projection, out);
+        return ByteBuffer.wrap(Arrays.copyOf(out.array(), out.position()));
+    }
+
+    private static void projectTagCompound(ByteBuffer data, NBTProjection projection, ByteBuffer out) {
+        int tagid;
+        while((tagid=data.get()) != 0) {
+            final int start = data.position() - 1;
+            final int idx = projection.match(data);
+            if(idx < 0) {
+                skipNBTValue(data, tagid);
+                continue;
+            }
+            final NBTProjection child = projection.getChild(idx);
+            if(child != null && tagid == 10) {
+                out.put(data.slice(start, data.position() - start));
+                projectTagCompound(data, child, out);
+            } else if(child != null && tagid == 9 && data.get(data.position()) == 10) {
+                final int len = data.getInt(data.position() + 1);
+                skip(data, 5);
+                out.put(data.slice(start, data.position() - start));
+                for(int i=0 ; i<len ; i++)
+                    projectTagCompound(data, child, out);
+            } else {
+                skipNBTValue(data, tagid);
+                out.put(data.slice(start, data.position() - start));
+            }
+        }
+        out.put((byte)0);
+    }
+
+    /**
+     * Inflates the compressed data into the uncompressed buffer. When the
+     * data does not fit the buffer is replaced by a bigger heap buffer.
+     * @return the flipped buffer holding the uncompressed data
+     */
+    public static ByteBuffer inflate(ByteBuffer compressed, ByteBuffer uncompressed, boolean unwrap) throws DataFormatException, IOException {
         if (unwrap)
             FileHelpers.parseGZipHeader(compressed);
-        int remaining = uncompressed.remaining();
-        Inflater i = new Inflater(unwrap);
-        i.setInput(compressed);
-        i.inflate(uncompressed);
-        if(!i.finished())
-            throw new IOException("NBT data bigger than " + remaining + " bytes");
-        uncompressed.flip();
-        return parse(uncompressed);
+        final Inflater i = DecompressionPool.acquireInflater(unwrap);
+        try {
+            i.setInput(compressed);
+            for(;;) {
+                i.inflate(uncompressed);
+                if(i.finished())
+                    break;
+                if(uncompressed.hasRemaining())
+                    throw new EOFException("Compressed NBT data is truncated");
+                uncompressed = FileHelpers.grow(uncompressed,
+                        uncompressed.capacity(), MAX_UNCOMPRESSED_SIZE);
+            }
+        } finally {
+            DecompressionPool.releaseInflater(i, unwrap);
+        }
+        return uncompressed.flip();
+    }
+
+    public static NBTTagCompound parseInflate(ByteBuffer compressed, ByteBuffer uncompressed, boolean unwrap) throws DataFormatException, IOException {
+        return parse(inflate(compressed, uncompressed, unwrap));
     }
 
     public static NBTTagCompound parseInflate(ByteBuffer compressed, boolean unwarp) throws DataFormatException, IOException {
-        return parseInflate(compressed, ByteBuffer.allocateDirect(8 << 20), unwarp);
+        ByteBuffer buffer = DecompressionPool.acquireBuffer(compressed.remaining() * 4);
+        try {
+            buffer = inflate(compressed, buffer, unwarp);
+            return parse(buffer);
+        } finally {
+            DecompressionPool.releaseBuffer(buffer);
+        }
     }
 
     public static NBTTagCompound parseInflate(ByteBuffer compressed) throws DataFormatException, IOException {
@@ -156,7 +260,7 @@ public abstract class NBTTagCompound extends NBTBase {
             case 5: return data.getFloat();
             case 6: return data.getDouble();
             case 7: return slice(data, data.getInt(), NBTByteArray::new);
-            case 8: return readUTF8(data);
+            case 8: return readUTF8(data, NBTStringPool.VALUES);
             case 9: {
                 int tagid = data.get();
                 int len = data.getInt();
@@ -170,7 +274,7 @@ public abstract class NBTTagCompound extends NBTBase {
                     case 1: return slice(data, len, NBTByteArray::new);
                     case 2: return new NBTShortArray(slice(data, len*2, ByteBuffer::asShortBuffer));
                     case 3: return new NBTIntArray(slice(data, len*4, ByteBuffer::asIntBuffer));
-                    case 4: return new NBTLongArray(slice(data, len*8, ByteBuffer::asLongBuffer));
+                    case 4: return NBTLongArray.copyOf(slice(data, len*8, ByteBuffer::asLongBuffer));
                     case 5: return new NBTFloatArray(slice(data, len*4, ByteBuffer::asFloatBuffer));
                     case 6: return new NBTDoubleArray(slice(data, len*8, ByteBuffer::asDoubleBuffer));
                     case 7: return parseTagList(data, tagid, len, NBTByteArray.class);
@@ -185,7 +289,7 @@ public abstract class NBTTagCompound extends NBTBase {
             }
             case 10: return parseTagCompound(data);
             case 11: return new NBTIntArray(slice(data, data.getInt()*4, ByteBuffer::asIntBuffer));
-            case 12: return new NBTLongArray(slice(data, data.getInt()*8, ByteBuffer::asLongBuffer));
+            case 12: return NBTLongArray.copyOf(slice(data, data.getInt()*8, ByteBuffer::asLongBuffer));
             default:
                 throw new IllegalArgumentException("Unknown TAG=" + tag);
         }
@@ -196,22 +300,22 @@ public abstract class NBTTagCompound extends NBTBase {
         // about 10% of NBTTagCompound are empty
         if((tagid=data.get()) == 0)
             return EMPTY;
-        final String name0 = readUTF8(data).intern();
+        final String name0 = readUTF8(data, NBTStringPool.NAMES);
         final Object value0 = parseNBTValue(data, tagid);
         // most NBTTagCompound have only 1 entry (~50%)
         if((tagid=data.get()) == 0)
             return new Single(name0, value0);
-        final String name1 = readUTF8(data).intern();
+        final String name1 = readUTF8(data, NBTStringPool.NAMES);
         final Object value1 = parseNBTValue(data, tagid);
         // many NBTTagCompound have only 2 entries (~25%)
         if((tagid=data.get()) == 0)
             return new Small(name0, value0, name1, value1);
-        final String name2 = readUTF8(data).intern();
+        final String name2 = readUTF8(data, NBTStringPool.NAMES);
         final Object value2 = parseNBTValue(data, tagid);
         // keep using Small for up to 4 entries
         if((tagid=data.get()) == 0)
             return new Small(name0, value0, name1, value1, name2, value2);
-        final String name3 = readUTF8(data).intern();
+        final String name3 = readUTF8(data, NBTStringPool.NAMES);
         final Object value3 = parseNBTValue(data, tagid);
         // keep using Small for up to 4 entries
         if((tagid=data.get()) == 0)
@@ -223,13 +327,142 @@ public abstract class NBTTagCompound extends NBTBase {
         map.put(name2, value2);
         map.put(name3, value3);
         do {
-            String nameX = readUTF8(data).intern();
+            String nameX = readUTF8(data, NBTStringPool.NAMES);
             Object valueX = parseNBTValue(data, tagid);
             map.put(nameX, valueX);
         } while((tagid=data.get()) != 0);
         return new Large(map);
     }
 
+    private static NBTTagCompound parseTagCompound(ByteBuffer data, NBTProjection projection) {
+        Object[] storage = null;
+        int count = 0;
+        int tagid;
+        while((tagid=data.get()) != 0) {
+            final int idx = projection.match(data);
+            if(idx < 0) {
+                skipNBTValue(data, tagid);
+                continue;
+            }
+            final NBTProjection child = projection.getChild(idx);
+            final Object value = projection.isLazy(idx) ? parseLazyValue(data, tagid)
+                    : (child != null) ? parseNBTValue(data, tagid, child)
+                    : parseNBTValue(data, tagid);
+            if(storage == null)
+                storage = new Object[projection.size() * 2];
+            else if(count * 2 == storage.length)
+                storage = Arrays.copyOf(storage, storage.length * 2);
+            storage[count*2] = projection.getKey(idx);
+            storage[count*2+1] = value;
+            count++;
+        }
+        return of(storage, count);
+    }
+
+    /**
+     * Creates a compound from interned keys and values stored alternately.
+     */
+    private static NBTTagCompound of(Object[] storage, int count) {
+        switch (count) {
+            case 0: return EMPTY;
+            case 1: return new Single((String)storage[0], storage[1]);
+            case 2: case 3: case 4:
+                return new Small(Arrays.copyOf(storage, count * 2));
+            default:
+                final IdentityHashMap<String, Object> map = new IdentityHashMap<>(count * 2);
+                for(int idx=0 ; idx<count ; idx++)
+                    map.put((String)storage[idx*2], storage[idx*2+1]);
+                return new Large(map);
+        }
+    }
+
+    private static Object parseNBTValue(ByteBuffer data, int tag, NBTProjection projection) {
+        if(tag == 10)
+            return parseTagCompound(data, projection);
+        if(tag == 9 && data.get(data.position()) == 10) {
+            data.get();
+            final Object[] list = new Object[data.getInt()];
+            for(int idx=0 ; idx<list.length ; idx++)
+                list[idx] = parseTagCompound(data, projection);
+            return new NBTTagList<>(NBTTagCompound.class, list);
+        }
+        return parseNBTValue(data, tag);
+    }
+
+    /**
+     * Copies a compound or a list of compounds into a byte array which backs
+     * {@link Lazy} compounds. Other values are parsed.
+     */
+    private static Object parseLazyValue(ByteBuffer data, int tag) {
+        final int start = data.position();
+        if(tag == 10) {
+            skipNBTValue(data, tag);
+            return Lazy.of(copy(data, start), 0);
+        }
+        if(tag == 9 && data.get(start) == 10) {
+            data.get();
+            final int[] starts = new int[data.getInt()];
+            for(int idx=0 ; idx<starts.length ; idx++) {
+                starts[idx] = data.position() - start;
+                skipNBTValue(data, 10);
+            }
+            final byte[] bytes = copy(data, start);
+            final Object[] list = new Object[starts.length];
+            for(int idx=0 ; idx<list.length ; idx++)
+                list[idx] = Lazy.of(bytes, starts[idx]);
+            return new NBTTagList<>(NBTTagCompound.class, list);
+        }
+        return parseNBTValue(data, tag);
+    }
+
+    private static byte[] copy(ByteBuffer data, int start) {
+        final byte[] bytes = new byte[data.position() - start];
+        data.get(start, bytes);
+        return bytes;
+    }
+
+    private static void skipNBTValue(ByteBuffer data, int tag) {
+        switch(tag) {
+            case 1: skip(data, 1); break;
+            case 2: skip(data, 2); break;
+            case 3: case 5: skip(data, 4); break;
+            case 4: case 6: skip(data, 8); break;
+            case 7: skip(data, data.getInt()); break;
+            case 8: skip(data, data.getChar()); break;
+            case 9: {
+                final int tagid = data.get();
+                final int len = data.getInt();
+                switch (tagid) {
+                    case 0: break;
+                    case 1: skip(data, len); break;
+                    case 2: skip(data, len*2); break;
+                    case 3: case 5: skip(data, len*4); break;
+                    case 4: case 6: skip(data, len*8); break;
+                    default:
+                        for(int idx=0 ; idx<len ; idx++)
+                            skipNBTValue(data, tagid);
+                }
+                break;
+            }
+            case 10: {
+                int tagid;
+                while((tagid=data.get()) != 0) {
+                    skip(data, data.getChar());
+                    skipNBTValue(data, tagid);
+                }
+                break;
+            }
+            case 11: skip(data, data.getInt()*4); break;
+            case 12: skip(data, data.getInt()*8); break;
+            default:
+                throw new IllegalArgumentException("Unknown TAG=" + tag);
+        }
+    }
+
+    private static void skip(ByteBuffer b, int len) {
+        b.position(b.position() + len);
+    }
+
     private static<U> NBTTagList<U> parseTagList(ByteBuffer data, int tag, int len, Class<U> type) {
         Object[] list = new Object[len];
         for(int idx=0 ; idx<len ; idx++) {
@@ -258,21 +491,11 @@ public abstract class NBTTagCompound extends NBTBase {
         }
     }
 
-    private static final Charset UTF8 = Charset.forName("UTF8");
-
-    private static String readUTF8(ByteBuffer b) {
-        int len = b.getChar();
-        if(!b.isDirect()) {
-            final int pos = b.position();
-            b.position(pos + len);
-            return new String(b.array(), pos, len, UTF8);
-        } else if(len <= 32) {
-            // 99% of all strings are 32 or less bytes long
-            final byte[] tmp = new byte[len];
-            b.get(tmp, 0, len);
-            return new String(tmp, UTF8);
-        } else
-            return slice(b, len, sb -> UTF8.decode(sb).toString());
+    private static String readUTF8(ByteBuffer b, NBTStringPool pool) {
+        final int len = b.getChar();
+        final int pos = b.position();
+        b.position(pos + len);
+        return pool.get(b, pos, len);
     }
 
     public static class Empty extends NBTTagCompound {
@@ -446,6 +669,134 @@ public abstract class NBTTagCompound extends NBTBase {
         }
     }
 
+    /**
+     * A compound which is decoded on demand from a copy of its encoded
+     * bytes. The offsets of the tags are indexed on first access and each
+     * tag is decoded when it is first requested. Nested compounds share the
+     * byte array of their parent.
+     */
+    public static class Lazy extends NBTTagCompound {
+        private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+        private final byte[] data;
+        private final int start;
+        private volatile int[] offsets;
+        private volatile Object[] values;
+
+        private Lazy(byte[] data, int start) {
+            this.data = data;
+            this.start = start;
+        }
+
+        static NBTTagCompound of(byte[] data, int start) {
+            return (data[start] == 0) ? EMPTY : new Lazy(data, start);
+        }
+
+        private int[] offsets() {
+            int[] o = offsets;
+            if(o == null) {
+                final ByteBuffer b = ByteBuffer.wrap(data).position(start);
+                o = new int[8];
+                int count = 0;
+                int tagid;
+                while((tagid=b.get()) != 0) {
+                    if(count == o.length)
+                        o = Arrays.copyOf(o, count * 2);
+                    o[count++] = b.position() - 1;
+                    skip(b, b.getChar());
+                    skipNBTValue(b, tagid);
+                }
+                o = Arrays.copyOf(o, count);
+                values = new Object[count];
+                offsets = o;
+            }
+            return o;
+        }
+
+        private int nameLength(int offset) {
+            return ((data[offset+1] & 255) << 8) | (data[offset+2] & 255);
+        }
+
+        private String key(int offset) {
+            return NBTStringPool.NAMES.get(ByteBuffer.wrap(data), offset+3, nameLength(offset));
+        }
+
+        private boolean matches(int offset, String name) {
+            final int len = nameLength(offset);
+            final int n = name.length();
+            if(n > len)
+                return false;
+            for(int i=0 ; i<n ; i++) {
+                final char c = name.charAt(i);
+                if(c >= 0x80)
+                    return key(offset).equals(name);
+                if(data[offset+3+i] != c)
+                    return false;
+            }
+            return n == len;
+        }
+
+        private Object value(int idx) {
+            final int[] o = offsets();
+            final Object[] v = values;
+            Object value = VALUES.getAcquire(v, idx);
+            if(value == null) {
+                final int offset = o[idx];
+                value = decode(data[offset], offset + 3 + nameLength(offset));
+                VALUES.setRelease(v, idx, value);
+            }
+            return value;
+        }
+
+        private Object decode(int tag, int offset) {
+            if(tag == 10)
+                return of(data, offset);
+            final ByteBuffer b = ByteBuffer.wrap(data).position(offset);
+            if(tag == 9 && data[offset] == 10) {
+                b.get();
+                final Object[] list = new Object[b.getInt()];
+                for(int idx=0 ; idx<list.length ; idx++) {
+                    list[idx] = of(data, b.position());
+                    skipNBTValue(b, 10);
+                }
+                return new NBTTagList<>(NBTTagCompound.class, list);
+            }
+            return parseNBTValue(b, tag);
+        }
+
+        @Override
+        public Object get(String name) {
+            final int[] o = offsets();
+            for(int idx=0 ; idx<o.length ; idx++) {
+                if(matches(o[idx], name))
+                    return value(idx);
+            }
+            return null;
+        }
+
+        @Override
+        public int size() {
+            return offsets().length;
+        }
+
+        @Override
+        public Stream<Entry<String, Object>> entries() {
+            final int[] o = offsets();
+            return IntStream.range(0, o.length).mapToObj(idx ->
+                    new AbstractMap.SimpleImmutableEntry<>(key(o[idx]), value(idx)));
+        }
+
+        @Override
+        public Stream<Object> values() {
+            return IntStream.range(0, offsets().length).mapToObj(this::value);
+        }
+
+        @Override
+        public String toString() {
+            return "NBTTagCompound{" + size() + " entries" + '}';
+        }
+    }
+
     public static class Large extends NBTTagCompound {
         private final IdentityHashMap<String, Object> map;
 
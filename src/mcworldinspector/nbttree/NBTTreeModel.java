@@ -424,10 +424,7 @@ public class NBTTreeModel extends AbstractTreeTableModel {
             ICONS.put(NBTDoubleArray.class, NBT_INT_ARRAY);
             ICONS.put(NBTTagList.class, NBT_LIST);
             ICONS.put(String.class, NBT_STRING);
-            ICONS.put(NBTTagCompound.Empty.class, NBT_COMPOUND);
-            ICONS.put(NBTTagCompound.Single.class, NBT_COMPOUND);
-            ICONS.put(NBTTagCompound.Small.class, NBT_COMPOUND);
-            ICONS.put(NBTTagCompound.Large.class, NBT_COMPOUND);
+            ICONS.put(NBTTagCompound.class, NBT_COMPOUND);
         }
 
         Node(String label, Icon icon) {
@@ -436,8 +433,17 @@ public class NBTTreeModel extends AbstractTreeTableModel {
             this.icon = icon;
         }
 
+        /**
+         * Looks up the icon of the class of obj or of its nearest superclass
+         * which has one, so that all compound implementations share an icon.
+         */
         static ImageIcon iconForObject(Object obj) {
-            return (obj != null) ? ICONS.get(obj.getClass()) : null;
+            for(Class<?> cls=(obj != null) ? obj.getClass() : null ; cls != null ; cls=cls.getSuperclass()) {
+                final ImageIcon icon = ICONS.get(cls);
+                if(icon != null)
+                    return icon;
+            }
+            return null;
         }
 
         public void addChild(Node child) {
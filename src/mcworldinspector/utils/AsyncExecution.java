@@ -16,10 +16,16 @@ public @FunctionalInterface interface AsyncExecution<R> {
 
     public R asyncExecute() throws Exception;
 
+    public static final Executor EDT = EventQueue::invokeLater;
+
     public static<R> void submit(Executor executor, AsyncExecution<R> asyncExec, Consumer<Expected<R>> completed) {
+        submit(executor, EDT, asyncExec, completed);
+    }
+
+    public static<R> void submit(Executor executor, Executor completion, AsyncExecution<R> asyncExec, Consumer<Expected<R>> completed) {
         executor.execute(() -> {
             final Expected<R> result = Expected.wrapAsync(asyncExec);
-            EventQueue.invokeLater(() -> completed.accept(result));
+            completion.execute(() -> completed.accept(result));
         });
     }
 
@@ -31,9 +37,13 @@ public @FunctionalInterface interface AsyncExecution<R> {
     }
 
     public static<R> int submit(Executor executor, Stream<AsyncExecution<R>> tasks, Consumer<List<Expected<R>>> completed) {
+        return submit(executor, EDT, tasks, completed);
+    }
+
+    public static<R> int submit(Executor executor, Executor completion, Stream<AsyncExecution<R>> tasks, Consumer<List<Expected<R>>> completed) {
         final ArrayList<Expected<R>> results = new ArrayList<>();
         final AsyncPendingCounter pending = new AsyncPendingCounter(
-                () -> completed.accept(results), 1);
+                () -> completed.accept(results), 1, completion);
         final int submitted = tasks.mapToInt(task -> {
             if(task == null)
                 return 0;
@@ -1,6 +1,7 @@
 package mcworldinspector.utils;
 
 import java.awt.EventQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -10,18 +11,24 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class AsyncPendingCounter extends AtomicInteger {
 
     private final Runnable completed;
+    private final Executor completion;
 
-    public AsyncPendingCounter(Runnable completed, int initialValue) {
+    public AsyncPendingCounter(Runnable completed, int initialValue, Executor completion) {
         super(initialValue);
         this.completed = completed;
+        this.completion = completion;
+    }
+
+    public AsyncPendingCounter(Runnable completed, int initialValue) {
+        this(completed, initialValue, EventQueue::invokeLater);
     }
 
     public AsyncPendingCounter(Runnable completed) {
-        this.completed = completed;
+        this(completed, 0);
     }
 
     public void decrement() {
         if(decrementAndGet() == 0)
-            EventQueue.invokeLater(completed);
+            completion.execute(completed);
     }
 }
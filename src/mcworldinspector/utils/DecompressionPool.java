@@ -0,0 +1,99 @@
+package mcworldinspector.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Inflater;
+
+/**
+ * Per thread pool of inflaters and output buffers. Every acquired object
+ * must be released again - an inflater which does not fit into the pool is
+ * ended so that its native memory is freed immediately.
+ *
+ * @author matthias
+ */
+public final class DecompressionPool {
+
+    private static final int MIN_BUFFER_SIZE = 64 << 10;
+    private static final int MAX_POOLED_BUFFER_SIZE = 8 << 20;
+
+    private static final LongAdder inflaterHits = new LongAdder();
+    private static final LongAdder inflaterMisses = new LongAdder();
+    private static final LongAdder bufferHits = new LongAdder();
+    private static final LongAdder bufferMisses = new LongAdder();
+
+    private static final ThreadLocal<Slots> SLOTS = ThreadLocal.withInitial(Slots::new);
+
+    private static class Slots {
+        final Inflater[] inflaters = new Inflater[2];
+        ByteBuffer buffer;
+    }
+
+    private DecompressionPool() {
+    }
+
+    public static Inflater acquireInflater(boolean nowrap) {
+        final Slots slots = SLOTS.get();
+        final int idx = nowrap ? 1 : 0;
+        final Inflater inflater = slots.inflaters[idx];
+        if(inflater != null) {
+            slots.inflaters[idx] = null;
+            inflaterHits.increment();
+            return inflater;
+        }
+        inflaterMisses.increment();
+        return new Inflater(nowrap);
+    }
+
+    public static void releaseInflater(Inflater inflater, boolean nowrap) {
+        final Slots slots = SLOTS.get();
+        final int idx = nowrap ? 1 : 0;
+        if(slots.inflaters[idx] == null) {
+            inflater.reset();
+            slots.inflaters[idx] = inflater;
+        } else
+            inflater.end();
+    }
+
+    /**
+     * Returns a cleared heap buffer with at least the requested capacity.
+     */
+    public static ByteBuffer acquireBuffer(int size) {
+        final Slots slots = SLOTS.get();
+        final ByteBuffer buffer = slots.buffer;
+        if(buffer != null && buffer.capacity() >= size) {
+            slots.buffer = null;
+            bufferHits.increment();
+            return buffer.clear();
+        }
+        bufferMisses.increment();
+        return ByteBuffer.allocate((size <= MIN_BUFFER_SIZE) ? MIN_BUFFER_SIZE :
+                (int)Math.min(Integer.MAX_VALUE - 8, Long.highestOneBit(size - 1L) << 1));
+    }
+
+    /**
+     * Keeps the biggest released buffer of each thread up to a size limit.
+     */
+    public static void releaseBuffer(ByteBuffer buffer) {
+        if(buffer.isDirect() || buffer.capacity() > MAX_POOLED_BUFFER_SIZE)
+            return;
+        final Slots slots = SLOTS.get();
+        if(slots.buffer == null || slots.buffer.capacity() < buffer.capacity())
+            slots.buffer = buffer;
+    }
+
+    public static long getInflaterHits() {
+        return inflaterHits.sum();
+    }
+
+    public static long getInflaterMisses() {
+        return inflaterMisses.sum();
+    }
+
+    public static long getBufferHits() {
+        return bufferHits.sum();
+    }
+
+    public static long getBufferMisses() {
+        return bufferMisses.sum();
+    }
+}
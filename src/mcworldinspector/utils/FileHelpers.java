@@ -46,15 +46,31 @@ public final class FileHelpers {
             if(length > maxSize)
                 throw new IOException("File size of " + length +
                         " exceeds maximum allowed size of " + maxSize + " bytes");
-            ByteBuffer buffer = ByteBuffer.allocateDirect((int)length);
-            final int read = raf.getChannel().read(buffer);
-            if(read != length)
-                throw new EOFException("Could only read " +read + " of " + length + " bytes");
-            buffer.flip();
-            return buffer;
+            // a heap buffer - many small files would otherwise pile up direct memory until the next GC
+            final byte[] data = new byte[(int)length];
+            raf.readFully(data);
+            return ByteBuffer.wrap(data);
         }
     }
     
+    /**
+     * Returns a buffer with at least {@code required} bytes remaining which
+     * starts with the data before the position of the given buffer.
+     */
+    public static ByteBuffer grow(ByteBuffer buffer, int required, int maxSize) throws IOException {
+        if(buffer.remaining() >= required)
+            return buffer;
+        final long needed = (long)buffer.position() + required;
+        if(needed > maxSize)
+            throw new IOException("Data bigger than " + maxSize + " bytes");
+        final int capacity = (int)Math.min(maxSize,
+                Math.max(needed, (long)buffer.capacity() * 2));
+        final ByteBuffer result = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        result.put(buffer);
+        return result;
+    }
+
     public static boolean isGZip(ByteBuffer data) {
         return data.remaining() > 10 &&
                 (data.get(0) & 255) == GZIP_MAGIC0 &&
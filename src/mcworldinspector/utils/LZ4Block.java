@@ -0,0 +1,152 @@
+package mcworldinspector.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decoder for the block stream format written by the LZ4BlockOutputStream
+ * of lz4-java which Minecraft uses for chunk compression type 4.
+ *
+ * @author matthias
+ */
+public final class LZ4Block {
+
+    private static final long MAGIC = 0x4C5A34426C6F636BL;  // "LZ4Block"
+    private static final int HEADER_SIZE = 8 + 1 + 4 + 4 + 4;
+    private static final int METHOD_RAW = 0x10;
+    private static final int METHOD_LZ4 = 0x20;
+    private static final int XXHASH_SEED = 0x9747b28c;
+
+    private static final int PRIME1 = 0x9E3779B1;
+    private static final int PRIME2 = 0x85EBCA77;
+    private static final int PRIME3 = 0xC2B2AE3D;
+    private static final int PRIME4 = 0x27D4EB2F;
+    private static final int PRIME5 = 0x165667B1;
+
+    private LZ4Block() {
+    }
+
+    /**
+     * Decodes all blocks up to the end marker.
+     * @param src the compressed data
+     * @param dst the output buffer, replaced by a bigger buffer if needed
+     * @param maxSize the maximum size of the uncompressed data
+     * @return the flipped buffer holding the uncompressed data
+     */
+    public static ByteBuffer decode(ByteBuffer src, ByteBuffer dst, int maxSize) throws IOException {
+        final ByteBuffer in = src.slice().order(ByteOrder.LITTLE_ENDIAN);
+        for(;;) {
+            if(in.remaining() < HEADER_SIZE)
+                throw new EOFException("Truncated LZ4 block header");
+            if(in.order(ByteOrder.BIG_ENDIAN).getLong() != MAGIC)
+                throw new IOException("Invalid LZ4 block magic");
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            final int token = in.get() & 255;
+            final int method = token & 0xF0;
+            final int compressedLength = in.getInt();
+            final int length = in.getInt();
+            final int checksum = in.getInt();
+            if(method != METHOD_RAW && method != METHOD_LZ4)
+                throw new IOException("Unsupported LZ4 block method " + method);
+            if(length == 0 && compressedLength == 0)
+                break;
+            if(length < 0 || compressedLength < 0 || compressedLength > in.remaining() ||
+                    (method == METHOD_RAW && compressedLength != length))
+                throw new IOException("Invalid LZ4 block length");
+
+            dst = FileHelpers.grow(dst, length, maxSize);
+            final int start = dst.position();
+            final ByteBuffer block = in.slice().limit(compressedLength);
+            if(method == METHOD_RAW)
+                dst.put(block);
+            else
+                decompress(block, dst, start + length);
+            if(dst.position() != start + length)
+                throw new IOException("LZ4 block size mismatch");
+            if((xxhash32(dst, start, length) & 0xFFFFFFF) != checksum)
+                throw new IOException("LZ4 block checksum mismatch");
+            in.position(in.position() + compressedLength);
+        }
+        return dst.flip();
+    }
+
+    private static void decompress(ByteBuffer in, ByteBuffer out, int end) throws IOException {
+        final int start = out.position();
+        try {
+            for(;;) {
+                final int token = in.get() & 255;
+                final int literals = readLength(in, token >>> 4);
+                if(literals > 0) {
+                    if(literals > in.remaining())
+                        throw new EOFException("Truncated LZ4 block");
+                    if(out.position() + literals > end)
+                        throw new IOException("LZ4 literals exceed block size");
+                    out.put(in.slice().limit(literals));
+                    in.position(in.position() + literals);
+                }
+                if(!in.hasRemaining())
+                    return;
+                final int offset = (in.get() & 255) | (in.get() & 255) << 8;
+                final int length = readLength(in, token & 15) + 4;
+                int pos = out.position();
+                if(offset == 0 || pos - offset < start)
+                    throw new IOException("Invalid LZ4 match offset");
+                if(pos + length > end)
+                    throw new IOException("LZ4 match exceeds block size");
+                // matches may overlap the bytes they produce
+                for(int from=pos-offset, to=from+length ; from<to ; from++)
+                    out.put(pos++, out.get(from));
+                out.position(pos);
+            }
+        } catch(java.nio.BufferUnderflowException ex) {
+            throw new EOFException("Truncated LZ4 block");
+        }
+    }
+
+    private static int readLength(ByteBuffer in, int length) throws IOException {
+        if(length == 15) {
+            int b;
+            do {
+                b = in.get() & 255;
+                length += b;
+            } while(b == 255);
+            if(length < 0)
+                throw new IOException("Invalid LZ4 length");
+        }
+        return length;
+    }
+
+    private static int xxhash32(ByteBuffer data, int off, int len) {
+        final ByteBuffer b = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int end = off + len;
+        int h;
+        if(len >= 16) {
+            int v1 = XXHASH_SEED + PRIME1 + PRIME2;
+            int v2 = XXHASH_SEED + PRIME2;
+            int v3 = XXHASH_SEED;
+            int v4 = XXHASH_SEED - PRIME1;
+            for(final int limit=end-16 ; off<=limit ; off+=16) {
+                v1 = Integer.rotateLeft(v1 + b.getInt(off) * PRIME2, 13) * PRIME1;
+                v2 = Integer.rotateLeft(v2 + b.getInt(off + 4) * PRIME2, 13) * PRIME1;
+                v3 = Integer.rotateLeft(v3 + b.getInt(off + 8) * PRIME2, 13) * PRIME1;
+                v4 = Integer.rotateLeft(v4 + b.getInt(off + 12) * PRIME2, 13) * PRIME1;
+            }
+            h = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7) +
+                    Integer.rotateLeft(v3, 12) + Integer.rotateLeft(v4, 18);
+        } else
+            h = XXHASH_SEED + PRIME5;
+        h += len;
+        for( ; off+4<=end ; off+=4)
+            h = Integer.rotateLeft(h + b.getInt(off) * PRIME3, 17) * PRIME4;
+        for( ; off<end ; off++)
+            h = Integer.rotateLeft(h + (b.get(off) & 255) * PRIME5, 11) * PRIME1;
+        h ^= h >>> 15;
+        h *= PRIME2;
+        h ^= h >>> 13;
+        h *= PRIME3;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -9,6 +9,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.function.Supplier;
 import javax.swing.JComponent;
 import javax.swing.Timer;
 
@@ -27,6 +28,7 @@ public class MemoryUsageIndicator extends JComponent implements ActionListener {
     private String text = "";
     private long totalMemory = 1;
     private Color barColor = new Color(0x8a9103);
+    private Supplier<String> details;
 
     @SuppressWarnings("OverridableMethodCallInConstructor")
     public MemoryUsageIndicator(int historySize) {
@@ -49,6 +51,18 @@ public class MemoryUsageIndicator extends JComponent implements ActionListener {
         this.barColor = barColor;
     }
 
+    public Supplier<String> getDetails() {
+        return details;
+    }
+
+    /**
+     * Sets a supplier of additional text which is shown after the memory
+     * usage. The supplier is called on the EDT and may return null.
+     */
+    public void setDetails(Supplier<String> details) {
+        this.details = details;
+    }
+
     public void start() {
         timer.start();
     }
@@ -62,7 +76,13 @@ public class MemoryUsageIndicator extends JComponent implements ActionListener {
         Runtime runtime = Runtime.getRuntime();
         totalMemory = runtime.totalMemory();
         long usedMemory = totalMemory - runtime.freeMemory();
+        final String oldText = text;
         text = String.format("%.1f/%.1fMB", usedMemory / MB, totalMemory / MB);
+        final String extra = (details != null) ? details.get() : null;
+        if(extra != null)
+            text += " - " + extra;
+        if(oldText.length() != text.length())
+            revalidate();
         if(history != null)
             history[head++ % history.length] = usedMemory;
         repaint();
@@ -73,7 +93,8 @@ public class MemoryUsageIndicator extends JComponent implements ActionListener {
         Font font = getFont();
         FontMetrics fontMetrics = getFontMetrics(font);
         return new Dimension(Math.max(minHistorySize*4,
-                fontMetrics.charWidth('0')*14), fontMetrics.getHeight());
+                fontMetrics.charWidth('0')*Math.max(14, text.length())),
+                fontMetrics.getHeight());
     }
 
     @Override
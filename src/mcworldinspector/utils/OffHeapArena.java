@@ -0,0 +1,62 @@
+package mcworldinspector.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bump allocator which hands out slices of large direct buffers. Allocations
+ * are never freed individually - a slab is released when the arena and all
+ * slices of it became unreachable, so the heap only holds a few buffer
+ * objects per arena instead of one array per allocation. A dropped slice
+ * keeps its memory as long as another slice of the same slab is used.
+ *
+ * @author matthias
+ */
+public final class OffHeapArena {
+
+    private static final int SLAB_SIZE = 1 << 20;
+    private static final LongAdder totalReserved = new LongAdder();
+
+    private ByteBuffer slab;
+    private long reserved;
+
+    /**
+     * Copies the longs into the arena.
+     * @return a read only view of the copy
+     */
+    public LongBuffer copyOf(LongBuffer src) {
+        final int bytes = src.remaining() * Long.BYTES;
+        final ByteBuffer dst;
+        synchronized(this) {
+            if(slab == null || slab.remaining() < bytes) {
+                final int size = Math.max(SLAB_SIZE, bytes);
+                slab = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+                reserved += size;
+                totalReserved.add(size);
+            }
+            final int pos = slab.position();
+            dst = slab.slice(pos, bytes).order(ByteOrder.nativeOrder());
+            slab.position(pos + bytes);
+        }
+        final LongBuffer longs = dst.asLongBuffer();
+        longs.put(src.duplicate()).flip();
+        return longs.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the number of bytes of direct memory held by this arena.
+     */
+    public synchronized long getReserved() {
+        return reserved;
+    }
+
+    /**
+     * Returns the number of bytes of direct memory ever reserved by all
+     * arenas, including arenas which have been released.
+     */
+    public static long getTotalReserved() {
+        return totalReserved.sum();
+    }
+}